@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Control;
+
+import com.enrico.launcher3.util.DeferredQueue;
+
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the queue of {@link DeferredHandler} with the previous one, guarded by a lock, when
+ * the loader thread posts while the main thread drains. The shipped {@link DeferredQueue} is
+ * benchmarked with a fake looper: an executor whose tasks are run by the draining thread.
+ */
+public class DeferredQueueBenchmark {
+
+    // The producer waits when this many runnables are queued, bounding the memory of the run
+    private static final int MAX_BACKLOG = 1024;
+
+    private static final Runnable TASK = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    /**
+     * Stands in for the looper of the main thread: {@link DeferredQueue.Scheduler} posts
+     * {@link DeferredQueue#runNext()} to a queue drained by the consumer thread of the group.
+     */
+    @State(Scope.Group)
+    public static class FakeLooper implements DeferredQueue.Scheduler {
+        final ConcurrentLinkedQueue<Runnable> mMessages = new ConcurrentLinkedQueue<>();
+        final DeferredQueue mQueue = new DeferredQueue(this);
+        final AtomicInteger mBacklog = new AtomicInteger();
+
+        private final Runnable mRunNext = new Runnable() {
+            @Override
+            public void run() {
+                mQueue.runNext();
+            }
+        };
+
+        @Override
+        public void schedule() {
+            mMessages.offer(mRunNext);
+        }
+
+        @Override
+        public void scheduleIdle() {
+            mMessages.offer(mRunNext);
+        }
+
+        /**
+         * Runs the next message, which is always {@link DeferredQueue#runNext()}.
+         * @return true if a runnable of the queue ran.
+         */
+        boolean runNextMessage() {
+            return mMessages.poll() != null && mQueue.runNext();
+        }
+
+        @TearDown(Level.Iteration)
+        public void clear() {
+            // Drains the scheduled message too, which clears the scheduled flag of the queue
+            mQueue.cancelAll();
+            while (mMessages.poll() != null) {
+                mQueue.runNext();
+            }
+            mBacklog.set(0);
+        }
+    }
+
+    /**
+     * The previous queue of DeferredHandler, a linked list guarded by its lock, with the same
+     * fake looper.
+     */
+    @State(Scope.Group)
+    public static class LockedQueue {
+        final LinkedList<Runnable> mQueue = new LinkedList<>();
+        final AtomicInteger mBacklog = new AtomicInteger();
+        final ConcurrentLinkedQueue<Runnable> mMessages = new ConcurrentLinkedQueue<>();
+
+        private final Runnable mHandleMessage = new Runnable() {
+            @Override
+            public void run() {
+                handleMessage();
+            }
+        };
+
+        void post(Runnable runnable) {
+            synchronized (mQueue) {
+                mQueue.add(runnable);
+                if (mQueue.size() == 1) {
+                    scheduleNextLocked();
+                }
+            }
+        }
+
+        boolean handleMessage() {
+            Runnable r;
+            synchronized (mQueue) {
+                if (mQueue.size() == 0) {
+                    return false;
+                }
+                r = mQueue.removeFirst();
+            }
+            r.run();
+            synchronized (mQueue) {
+                scheduleNextLocked();
+            }
+            return true;
+        }
+
+        void scheduleNextLocked() {
+            if (mQueue.size() > 0) {
+                mMessages.offer(mHandleMessage);
+            }
+        }
+
+        /**
+         * Runs the next message, which is always {@link #handleMessage()}.
+         * @return true if a runnable of the queue ran.
+         */
+        boolean runNextMessage() {
+            return mMessages.poll() != null && handleMessage();
+        }
+
+        @TearDown(Level.Iteration)
+        public void clear() {
+            synchronized (mQueue) {
+                mQueue.clear();
+            }
+            mMessages.clear();
+            mBacklog.set(0);
+        }
+    }
+
+    /**
+     * @return false if the iteration ended while waiting for the backlog to drain
+     */
+    private static boolean awaitBacklog(AtomicInteger backlog, Control control) {
+        while (backlog.get() >= MAX_BACKLOG) {
+            if (control.stopMeasurement) {
+                return false;
+            }
+            Thread.yield();
+        }
+        backlog.incrementAndGet();
+        return true;
+    }
+
+    @Benchmark
+    @Group("nonBlocking")
+    @GroupThreads(1)
+    public void postNonBlocking(FakeLooper looper, Control control) {
+        if (awaitBacklog(looper.mBacklog, control)) {
+            looper.mQueue.post(TASK);
+        }
+    }
+
+    @Benchmark
+    @Group("nonBlocking")
+    @GroupThreads(1)
+    public boolean drainNonBlocking(FakeLooper looper) {
+        boolean ran = looper.runNextMessage();
+        if (ran) {
+            looper.mBacklog.decrementAndGet();
+        }
+        return ran;
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public void postLocked(LockedQueue queue, Control control) {
+        if (awaitBacklog(queue.mBacklog, control)) {
+            queue.post(TASK);
+        }
+    }
+
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public boolean drainLocked(LockedQueue queue) {
+        boolean ran = queue.runNextMessage();
+        if (ran) {
+            queue.mBacklog.decrementAndGet();
+        }
+        return ran;
+    }
+}
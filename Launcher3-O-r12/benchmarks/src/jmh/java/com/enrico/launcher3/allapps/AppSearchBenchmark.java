@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.allapps;
+
+import com.enrico.launcher3.util.SyntheticLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the matching of {@link DefaultAppSearchAlgorithm} on synthetic app titles. The keys
+ * of the apps are their index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AppSearchBenchmark {
+
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "sto", "ra", "ne", "fo", "tu", "bri", "ce", "dé", "ph", "ot", "gra",
+            "ma", "se", "ün", "vi", "zo", "pe", "ch", "an", "el", "ir"
+    };
+    private static final int QUERY_COUNT = 16;
+
+    @Param({"100", "1000"})
+    int appCount;
+
+    private String[] mTitles;
+    private String[] mQueries;
+    private String[] mTypoQueries;
+    private int mQueryIndex;
+    private AppSearchMatcher<Integer> mMatcher;
+
+    private static final Comparator<Integer> KEY_COMPARATOR = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return a.compareTo(b);
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(SyntheticLayout.SEED);
+        mTitles = new String[appCount];
+        for (int i = 0; i < appCount; i++) {
+            StringBuilder title = new StringBuilder();
+            int words = 1 + random.nextInt(3);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    // Mix separate words and camel case titles
+                    title.append(random.nextBoolean() ? " " : "");
+                }
+                String word = randomWord(random);
+                title.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+            }
+            mTitles[i] = title.toString();
+        }
+
+        // Queries are words of the titles, and the same words with a typo
+        mQueries = new String[QUERY_COUNT];
+        mTypoQueries = new String[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String title = mTitles[random.nextInt(appCount)];
+            int end = title.indexOf(' ');
+            String word = (end < 0 ? title : title.substring(0, end)).toLowerCase();
+            mQueries[i] = word;
+            int typo = random.nextInt(word.length());
+            mTypoQueries[i] = word.substring(0, typo) + 'x' + word.substring(typo + 1);
+        }
+
+        mMatcher = new AppSearchMatcher<>(buildIndex(), KEY_COMPARATOR);
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int syllables = 2 + random.nextInt(3);
+        for (int s = 0; s < syllables; s++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+
+    private String nextQuery(String[] queries) {
+        mQueryIndex = (mQueryIndex + 1) % QUERY_COUNT;
+        return queries[mQueryIndex];
+    }
+
+    @Benchmark
+    public AppSearchIndex<Integer> buildIndex() {
+        AppSearchIndex<Integer> index = new AppSearchIndex<>();
+        for (int i = 0; i < mTitles.length; i++) {
+            index.addOrUpdate(i, mTitles[i]);
+        }
+        return index;
+    }
+
+    /**
+     * Searches a new query on every call.
+     */
+    @Benchmark
+    public ArrayList<Integer> search() {
+        return mMatcher.getTitleMatchResult(nextQuery(mQueries));
+    }
+
+    /**
+     * Searches a query with a typo, which includes the fuzzy matches.
+     */
+    @Benchmark
+    public ArrayList<Integer> searchWithTypo() {
+        return mMatcher.getTitleMatchResult(nextQuery(mTypoQueries));
+    }
+
+    /**
+     * Types a query one character at a time, searching after each character.
+     */
+    @Benchmark
+    public int typeQuery() {
+        String query = nextQuery(mQueries);
+        int results = 0;
+        for (int i = 1; i <= query.length(); i++) {
+            results += mMatcher.getTitleMatchResult(query.substring(0, i)).size();
+        }
+        return results;
+    }
+
+    /**
+     * Types a query with a typo one character at a time, searching after each character.
+     */
+    @Benchmark
+    public int typeQueryWithTypo() {
+        String query = nextQuery(mTypoQueries);
+        int results = 0;
+        for (int i = 1; i <= query.length(); i++) {
+            results += mMatcher.getTitleMatchResult(query.substring(0, i)).size();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.model;
+
+import com.enrico.launcher3.util.CellAndSpan;
+import com.enrico.launcher3.util.GridOccupancy;
+import com.enrico.launcher3.util.SyntheticLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the placement of the items of a screen when {@link GridSizeMigrationTask} shrinks
+ * the grid, on a synthetic layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GridPlacementSolverBenchmark {
+
+    // The size of the grid before the migration
+    @Param({"5", "6"})
+    int countX;
+
+    @Param({"5", "6"})
+    int countY;
+
+    // The number of rows and columns removed by the migration
+    @Param({"1"})
+    int shrink;
+
+    @Param({"0.8"})
+    float fill;
+
+    // The time budget of the search, the budget of a screen in GridSizeMigrationTask is 100ms
+    @Param({"100"})
+    int budgetMillis;
+
+    private ArrayList<Entry> mEntries;
+
+    /**
+     * An item of the screen, see GridSizeMigrationTask.DbEntry.
+     */
+    private static class Entry extends CellAndSpan implements Comparable<Entry> {
+        int minSpanX;
+        int minSpanY;
+        float weight;
+
+        Entry(CellAndSpan item, Random random) {
+            super(item.cellX, item.cellY, item.spanX, item.spanY);
+            minSpanX = 1 + random.nextInt(spanX);
+            minSpanY = 1 + random.nextInt(spanY);
+            weight = isWidget() ? spanX * spanY : random.nextFloat();
+        }
+
+        boolean isWidget() {
+            return spanX > 1 || spanY > 1;
+        }
+
+        @Override
+        public int compareTo(Entry another) {
+            // Larger widgets first, then the icons by decreasing weight
+            if (isWidget()) {
+                return another.isWidget() ? another.spanX * another.spanY - spanX * spanY : -1;
+            } else if (another.isWidget()) {
+                return 1;
+            } else {
+                return Float.compare(another.weight, weight);
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(SyntheticLayout.SEED);
+        mEntries = new ArrayList<>();
+        for (CellAndSpan item : new SyntheticLayout(countX, countY, fill, 0.2f,
+                SyntheticLayout.SEED).items) {
+            mEntries.add(new Entry(item, random));
+        }
+        Collections.sort(mEntries);
+    }
+
+    @Benchmark
+    public float solve() {
+        int trgX = countX - shrink;
+        int trgY = countY - shrink;
+        GridPlacementSolver solver = new GridPlacementSolver(new GridOccupancy(trgX, trgY),
+                trgX, trgY, 0, false,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+        for (Entry entry : mEntries) {
+            solver.addItem(entry.cellX, entry.cellY, entry.spanX, entry.spanY, entry.minSpanX,
+                    entry.minSpanY, entry.weight);
+        }
+        solver.solve();
+        return solver.getWeightLoss() + solver.getMoveCost();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the key handling of {@link FocusLogic}: building the matrix of a page and moving
+ * the focus on it, on a synthetic layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FocusNavigationBenchmark {
+
+    private static final int MOVE_COUNT = FocusNavigation.PAGE_DOWN + 1;
+
+    @Param({"5", "16"})
+    int countX;
+
+    @Param({"5", "16"})
+    int countY;
+
+    @Param({"0.7"})
+    float fill;
+
+    private FocusNavigation.CellSource mCells;
+    private int[][] mMatrix;
+    private int mMove;
+    private int mIconIdx;
+
+    @Setup
+    public void setUp() {
+        final ArrayList<CellAndSpan> items =
+                new SyntheticLayout(countX, countY, fill, 0.2f, SyntheticLayout.SEED).items;
+        mCells = new FocusNavigation.CellSource() {
+            @Override
+            public int getCellCount() {
+                return items.size();
+            }
+
+            @Override
+            public boolean isFocusable(int index) {
+                return true;
+            }
+
+            @Override
+            public int getCellX(int index) {
+                return items.get(index).cellX;
+            }
+
+            @Override
+            public int getCellY(int index) {
+                return items.get(index).cellY;
+            }
+        };
+        mMatrix = FocusNavigation.createSparseMatrix(countX, countY, false, mCells);
+    }
+
+    @Benchmark
+    public int[][] createSparseMatrix() {
+        return FocusNavigation.createSparseMatrix(countX, countY, false, mCells);
+    }
+
+    /**
+     * Cycles through the moves, from the item the previous move landed on.
+     */
+    @Benchmark
+    public int handleMove() {
+        mMove = (mMove + 1) % MOVE_COUNT;
+        int newIndex = FocusNavigation.handleMove(mMove, mMatrix, mIconIdx, 1, 3, false);
+        if (newIndex >= 0) {
+            mIconIdx = newIndex;
+        } else {
+            mIconIdx = (mIconIdx + 1) % Math.max(1, mCells.getCellCount());
+        }
+        return newIndex;
+    }
+}
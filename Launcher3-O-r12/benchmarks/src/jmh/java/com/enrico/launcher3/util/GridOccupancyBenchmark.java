@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link GridOccupancy} with the previous boolean matrix, {@link LegacyGridOccupancy},
+ * on the queries made while dragging and while placing items.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GridOccupancyBenchmark {
+
+    @Param({"5", "16"})
+    int countX;
+
+    @Param({"5", "16"})
+    int countY;
+
+    @Param({"0.6"})
+    float fill;
+
+    // The span of the searched region, like a dragged 2x2 widget
+    @Param({"2"})
+    int span;
+
+    private GridOccupancy mGrid;
+    private GridOccupancy mGridCopy;
+    private LegacyGridOccupancy mLegacyGrid;
+    private LegacyGridOccupancy mLegacyGridCopy;
+    private CellAndSpan mMovedItem;
+    private final int[] mVacant = new int[2];
+
+    @Setup
+    public void setUp() {
+        SyntheticLayout layout = new SyntheticLayout(countX, countY, fill, 0.2f,
+                SyntheticLayout.SEED);
+        mGrid = layout.occupied;
+        mGridCopy = new GridOccupancy(countX, countY);
+        mLegacyGrid = new LegacyGridOccupancy(countX, countY);
+        mLegacyGridCopy = new LegacyGridOccupancy(countX, countY);
+        for (CellAndSpan item : layout.items) {
+            mLegacyGrid.markCells(item.cellX, item.cellY, item.spanX, item.spanY, true);
+        }
+        mMovedItem = layout.items.isEmpty() ? new CellAndSpan(0, 0, 1, 1) : layout.items.get(0);
+    }
+
+    /**
+     * Checks every position of the grid, like the search for the nearest area of a drop.
+     */
+    @Benchmark
+    public int scanVacantRegions() {
+        int vacant = 0;
+        for (int y = 0; y <= countY - span; y++) {
+            for (int x = 0; x <= countX - span; x++) {
+                if (mGrid.isRegionVacant(x, y, span, span)) {
+                    vacant++;
+                }
+            }
+        }
+        return vacant;
+    }
+
+    @Benchmark
+    public int scanVacantRegionsLegacy() {
+        int vacant = 0;
+        for (int y = 0; y <= countY - span; y++) {
+            for (int x = 0; x <= countX - span; x++) {
+                if (mLegacyGrid.isRegionVacant(x, y, span, span)) {
+                    vacant++;
+                }
+            }
+        }
+        return vacant;
+    }
+
+    /**
+     * Moves an item out of the way and looks for a vacant region, like each step of a reorder.
+     */
+    @Benchmark
+    public boolean moveAndFindVacantCell() {
+        CellAndSpan item = mMovedItem;
+        mGrid.markCells(item, false);
+        boolean found = mGrid.findVacantCell(mVacant, span, span);
+        mGrid.markCells(item, true);
+        return found;
+    }
+
+    @Benchmark
+    public boolean moveAndFindVacantCellLegacy() {
+        CellAndSpan item = mMovedItem;
+        mLegacyGrid.markCells(item.cellX, item.cellY, item.spanX, item.spanY, false);
+        boolean found = mLegacyGrid.findVacantCell(mVacant, span, span);
+        mLegacyGrid.markCells(item.cellX, item.cellY, item.spanX, item.spanY, true);
+        return found;
+    }
+
+    @Benchmark
+    public GridOccupancy copyTo() {
+        mGrid.copyTo(mGridCopy);
+        return mGridCopy;
+    }
+
+    @Benchmark
+    public LegacyGridOccupancy copyToLegacy() {
+        mLegacyGrid.copyTo(mLegacyGridCopy);
+        return mLegacyGridCopy;
+    }
+}
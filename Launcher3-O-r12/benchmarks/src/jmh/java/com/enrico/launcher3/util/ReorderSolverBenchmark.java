@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.util;
+
+import com.enrico.launcher3.util.ReorderSolver.ItemConfiguration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the search of the drop location and of the reorder of the items done by
+ * CellLayout on every drag over event, on a synthetic layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReorderSolverBenchmark {
+
+    private static final int CELL_SIZE = 100;
+    private static final int DRAG_POINT_COUNT = 64;
+
+    @Param({"5", "8"})
+    int countX;
+
+    @Param({"5", "8"})
+    int countY;
+
+    @Param({"0.7"})
+    float fill;
+
+    // The span of the dragged item
+    @Param({"2"})
+    int span;
+
+    private ReorderSolver<CellAndSpan> mSolver;
+    private final ItemConfiguration<CellAndSpan> mSolution = new ItemConfiguration<>();
+    private final int[] mDragPoints = new int[DRAG_POINT_COUNT * 2];
+    private int mDragPointIndex;
+    private final int[] mDirection = new int[2];
+    private final int[] mResult = new int[2];
+    private final int[] mResultSpan = new int[2];
+
+    /**
+     * Lays out the items of a {@link SyntheticLayout} on cells of a fixed size.
+     */
+    private static class LayoutHost implements ReorderSolver.Host<CellAndSpan> {
+        private final ArrayList<CellAndSpan> mItems;
+
+        LayoutHost(ArrayList<CellAndSpan> items) {
+            mItems = items;
+        }
+
+        @Override
+        public int getItemCount() {
+            return mItems.size();
+        }
+
+        @Override
+        public CellAndSpan getItemAt(int index) {
+            return mItems.get(index);
+        }
+
+        @Override
+        public void getCellAndSpan(CellAndSpan item, CellAndSpan out) {
+            out.copyFrom(item);
+        }
+
+        @Override
+        public boolean canReorder(CellAndSpan item) {
+            return true;
+        }
+
+        @Override
+        public int getCellWidth() {
+            return CELL_SIZE;
+        }
+
+        @Override
+        public int getCellHeight() {
+            return CELL_SIZE;
+        }
+
+        @Override
+        public void regionToCenterPoint(int cellX, int cellY, int spanX, int spanY,
+                int[] result) {
+            result[0] = cellX * CELL_SIZE + spanX * CELL_SIZE / 2;
+            result[1] = cellY * CELL_SIZE + spanY * CELL_SIZE / 2;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        SyntheticLayout layout = new SyntheticLayout(countX, countY, fill, 0.2f,
+                SyntheticLayout.SEED);
+        mSolver = new ReorderSolver<>(new LayoutHost(layout.items));
+        mSolver.setGrid(countX, countY, layout.occupied, new GridOccupancy(countX, countY));
+
+        Random random = new Random(SyntheticLayout.SEED);
+        for (int i = 0; i < mDragPoints.length; i += 2) {
+            mDragPoints[i] = random.nextInt(countX * CELL_SIZE);
+            mDragPoints[i + 1] = random.nextInt(countY * CELL_SIZE);
+        }
+    }
+
+    private int nextDragPoint() {
+        mDragPointIndex = (mDragPointIndex + 2) % mDragPoints.length;
+        return mDragPointIndex;
+    }
+
+    @Benchmark
+    public int[] findNearestArea() {
+        int i = nextDragPoint();
+        return mSolver.findNearestArea(mDragPoints[i], mDragPoints[i + 1], span, span, mResult);
+    }
+
+    @Benchmark
+    public int[] findNearestVacantArea() {
+        int i = nextDragPoint();
+        return mSolver.findNearestArea(mDragPoints[i], mDragPoints[i + 1], 1, 1, span, span,
+                false, mResult, mResultSpan);
+    }
+
+    /**
+     * Drags over a new location on every call, so no rearrangement is reused.
+     */
+    @Benchmark
+    public boolean findReorderSolution() {
+        int i = nextDragPoint();
+        mSolver.clearRearrangementCache();
+        return reorder(mDragPoints[i], mDragPoints[i + 1]);
+    }
+
+    /**
+     * Keeps hovering over the same location, like the drag over events between two cells.
+     */
+    @Benchmark
+    public boolean findReorderSolutionHovering() {
+        return reorder(mDragPoints[0], mDragPoints[1]);
+    }
+
+    private boolean reorder(int pixelX, int pixelY) {
+        mSolver.getDirectionVectorForDrop(pixelX, pixelY, span, span, null, mDirection);
+        boolean found = mSolver.findReorderSolution(pixelX, pixelY, 1, 1, span, span,
+                mDirection, null, true, mSolution).isSolution;
+        return mSolver.findConfigurationNoShuffle(pixelX, pixelY, 1, 1, span, span,
+                mSolution).isSolution || found;
+    }
+}
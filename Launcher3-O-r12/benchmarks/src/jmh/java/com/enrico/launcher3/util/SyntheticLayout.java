@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.util;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * A random layout of icons and widgets on a grid, used as the input of the benchmarks. The same
+ * seed always generates the same layout.
+ */
+public class SyntheticLayout {
+
+    public static final long SEED = 0x1a2b3c4dL;
+
+    // Widgets are at most 4x3, like the larger widgets of the workspace
+    private static final int MAX_WIDGET_SPAN_X = 4;
+    private static final int MAX_WIDGET_SPAN_Y = 3;
+
+    public final int countX;
+    public final int countY;
+    public final ArrayList<CellAndSpan> items = new ArrayList<>();
+    public final GridOccupancy occupied;
+
+    /**
+     * @param fill the fraction of the cells to occupy
+     * @param widgetRatio the fraction of the items which are widgets, the others are 1x1 icons
+     */
+    public SyntheticLayout(int countX, int countY, float fill, float widgetRatio, long seed) {
+        this.countX = countX;
+        this.countY = countY;
+        occupied = new GridOccupancy(countX, countY);
+
+        Random random = new Random(seed);
+        int targetCells = Math.round(fill * countX * countY);
+        int occupiedCells = 0;
+        int attempts = countX * countY * 8;
+        while (occupiedCells < targetCells && attempts-- > 0) {
+            int spanX = 1;
+            int spanY = 1;
+            if (random.nextFloat() < widgetRatio) {
+                spanX = 1 + random.nextInt(Math.min(MAX_WIDGET_SPAN_X, countX));
+                spanY = 1 + random.nextInt(Math.min(MAX_WIDGET_SPAN_Y, countY));
+            }
+            int cellX = random.nextInt(countX - spanX + 1);
+            int cellY = random.nextInt(countY - spanY + 1);
+            if (occupied.isRegionVacant(cellX, cellY, spanX, spanY)) {
+                occupied.markCells(cellX, cellY, spanX, spanY, true);
+                items.add(new CellAndSpan(cellX, cellY, spanX, spanY));
+                occupiedCells += spanX * spanY;
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.enrico.launcher3.model.LegacyPlacementSolver.Entry;
+import com.enrico.launcher3.util.GridOccupancy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shrinks a corpus of home screen layouts the way GridSizeMigrationTask does, and checks that
+ * {@link GridPlacementSolver} places the items of every removed row and column at least as well
+ * as the previous exhaustive search, {@link LegacyPlacementSolver}.
+ */
+public class GridPlacementCorpusTest {
+
+    // The weights of GridSizeMigrationTask
+    private static final float WT_SHORTCUT = 1;
+    private static final float WT_APPLICATION = 0.8f;
+    private static final float WT_WIDGET_MIN = 2;
+    private static final float WT_WIDGET_FACTOR = 0.6f;
+    private static final float WT_FOLDER_FACTOR = 0.5f;
+
+    private static final float EPSILON = 0.0001f;
+
+    // Long enough for every search of the corpus to complete
+    private static final long COMPLETE_BUDGET_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Each layout is a screen, one string per row: '.' is a vacant cell, 'a' an app, 's' a
+     * shortcut, a digit a folder with that many items, and a rectangle of an upper case letter a
+     * widget. Widgets can be resized down to 2x2, like the widgets without known minimum spans.
+     */
+    private static final String[][] CORPUS = {
+            {
+                    "CCCC.",
+                    "CCCC.",
+                    ".....",
+                    "a.s.3",
+                    "aaaaa",
+            }, {
+                    "SSSSS",
+                    "KK.aa",
+                    "KK.5a",
+                    "WWW..",
+                    "aaaaa",
+            }, {
+                    "CCCC",
+                    "CCCC",
+                    "aa4s",
+                    "aaaa",
+            }, {
+                    "CCCCC",
+                    "CCCCC",
+                    "a...a",
+                    "MMMM.",
+                    "MMMMa",
+                    "aa2aa",
+            }, {
+                    "SSSSSS",
+                    "CCCC..",
+                    "CCCCKK",
+                    "a.a.KK",
+                    "NNN3aa",
+                    "aaaaaa",
+            }, {
+                    "GGHHH",
+                    "GGHHH",
+                    "II.JJ",
+                    "II.JJ",
+                    "a2sa6",
+            }, {
+                    "aaaa",
+                    "a3aa",
+                    "s..a",
+                    "aaaa",
+                    "a7aa",
+            }, {
+                    "MMMM..",
+                    "MMMMaa",
+                    "NN..aa",
+                    "NN.4..",
+                    "aaaaaa",
+            },
+    };
+
+    @Test
+    public void testNoWorseThanExhaustiveSearch() {
+        int searches = 0;
+        for (String[] layout : CORPUS) {
+            for (Migration migration : getMigrations(layout)) {
+                for (boolean ignoreMove : new boolean[] {false, true}) {
+                    GridPlacementSolver solver = migration.solve(ignoreMove,
+                            System.nanoTime() + COMPLETE_BUDGET_NANOS);
+                    LegacyPlacementSolver legacy = migration.solveLegacy(ignoreMove);
+
+                    String message = migration + (ignoreMove ? " ignoring moves" : "");
+                    assertTrue(message + ": weight loss " + solver.getWeightLoss() + " > "
+                                    + legacy.lowestWeightLoss,
+                            solver.getWeightLoss() <= legacy.lowestWeightLoss + EPSILON);
+                    if (Math.abs(solver.getWeightLoss() - legacy.lowestWeightLoss) < EPSILON) {
+                        assertTrue(message + ": move cost " + solver.getMoveCost() + " > "
+                                        + legacy.lowestMoveCost,
+                                solver.getMoveCost() <= legacy.lowestMoveCost + EPSILON);
+                    }
+                    migration.assertValid(solver, message);
+                    searches++;
+                }
+            }
+        }
+        assertTrue("The corpus should need placement searches", searches > 0);
+    }
+
+    @Test
+    public void testExpiredBudgetKeepsGreedyPlacement() {
+        for (String[] layout : CORPUS) {
+            for (Migration migration : getMigrations(layout)) {
+                GridPlacementSolver solver = migration.solve(false, System.nanoTime() - 1);
+                migration.assertValid(solver, migration + " without budget");
+            }
+        }
+    }
+
+    private static ArrayList<Entry> parse(String[] layout) {
+        ArrayList<Entry> items = new ArrayList<>();
+        int countX = layout[0].length();
+        int countY = layout.length;
+        boolean[][] parsed = new boolean[countX][countY];
+        for (int y = 0; y < countY; y++) {
+            for (int x = 0; x < countX; x++) {
+                char c = layout[y].charAt(x);
+                if (c == '.' || parsed[x][y]) {
+                    continue;
+                }
+                if (Character.isUpperCase(c)) {
+                    int spanX = 1;
+                    while (x + spanX < countX && layout[y].charAt(x + spanX) == c) {
+                        spanX++;
+                    }
+                    int spanY = 1;
+                    while (y + spanY < countY && layout[y + spanY].charAt(x) == c) {
+                        spanY++;
+                    }
+                    for (int i = 0; i < spanX; i++) {
+                        for (int j = 0; j < spanY; j++) {
+                            parsed[x + i][y + j] = true;
+                        }
+                    }
+                    items.add(new Entry(x, y, spanX, spanY, 2, 2,
+                            Math.max(WT_WIDGET_MIN, WT_WIDGET_FACTOR * spanX * spanY)));
+                } else if (Character.isDigit(c)) {
+                    items.add(new Entry(x, y, 1, 1, 1, 1,
+                            WT_FOLDER_FACTOR * Character.digit(c, 10)));
+                } else {
+                    items.add(new Entry(x, y, 1, 1, 1, 1,
+                            c == 's' ? WT_SHORTCUT : WT_APPLICATION));
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @return the placements searched by GridSizeMigrationTask.migrateScreen for the layout, for
+     *         every combination of a removed row and column.
+     */
+    private static ArrayList<Migration> getMigrations(String[] layout) {
+        int srcX = layout[0].length();
+        int srcY = layout.length;
+        ArrayList<Migration> migrations = new ArrayList<>();
+        for (int shrink = 0; shrink < 3; shrink++) {
+            boolean removeX = shrink != 2;
+            boolean removeY = shrink != 1;
+            for (int col = 0; col < srcX; col++) {
+                for (int row = srcY - 1; row >= 0; row--) {
+                    migrations.add(new Migration(layout, removeX ? col : Integer.MAX_VALUE,
+                            removeY ? row : Integer.MAX_VALUE));
+                    if (!removeY) {
+                        break;
+                    }
+                }
+                if (!removeX) {
+                    break;
+                }
+            }
+        }
+        return migrations;
+    }
+
+    /**
+     * The removal of a row and a column of a layout, see GridSizeMigrationTask.tryRemove.
+     */
+    private static class Migration {
+        private final String mLayout;
+        private final int mCountX;
+        private final int mCountY;
+        private final int mCol;
+        private final int mRow;
+        private final GridOccupancy mOccupied;
+        private final ArrayList<Entry> mRemovedItems = new ArrayList<>();
+
+        Migration(String[] layout, int col, int row) {
+            mLayout = String.join("/", layout);
+            mCountX = col == Integer.MAX_VALUE ? layout[0].length() : layout[0].length() - 1;
+            mCountY = row == Integer.MAX_VALUE ? layout.length : layout.length - 1;
+            mCol = col;
+            mRow = row;
+            mOccupied = new GridOccupancy(mCountX, mCountY);
+            for (Entry item : parse(layout)) {
+                if ((item.cellX <= col && (item.spanX + item.cellX) > col)
+                        || (item.cellY <= row && (item.spanY + item.cellY) > row)) {
+                    mRemovedItems.add(item);
+                    if (item.cellX >= col) item.cellX --;
+                    if (item.cellY >= row) item.cellY --;
+                } else {
+                    if (item.cellX > col) item.cellX --;
+                    if (item.cellY > row) item.cellY --;
+                    mOccupied.markCells(item, true);
+                }
+            }
+
+            // Larger widgets first, then the 1x1 items by decreasing weight, like DbEntry
+            Collections.sort(mRemovedItems, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry a, Entry b) {
+                    boolean aWidget = a.spanX > 1 || a.spanY > 1;
+                    boolean bWidget = b.spanX > 1 || b.spanY > 1;
+                    if (aWidget) {
+                        return bWidget ? b.spanX * b.spanY - a.spanX * a.spanY : -1;
+                    } else if (bWidget) {
+                        return 1;
+                    } else {
+                        return Float.compare(b.weight, a.weight);
+                    }
+                }
+            });
+        }
+
+        GridPlacementSolver solve(boolean ignoreMove, long deadlineNanos) {
+            GridPlacementSolver solver = new GridPlacementSolver(copyOccupied(), mCountX,
+                    mCountY, 0, ignoreMove, deadlineNanos);
+            for (Entry item : mRemovedItems) {
+                solver.addItem(item.cellX, item.cellY, item.spanX, item.spanY, item.minSpanX,
+                        item.minSpanY, item.weight);
+            }
+            solver.solve();
+            return solver;
+        }
+
+        LegacyPlacementSolver solveLegacy(boolean ignoreMove) {
+            LegacyPlacementSolver solver = new LegacyPlacementSolver(copyOccupied(), mCountX,
+                    mCountY, 0, ignoreMove);
+            for (Entry item : mRemovedItems) {
+                solver.addItem(item.cellX, item.cellY, item.spanX, item.spanY, item.minSpanX,
+                        item.minSpanY, item.weight);
+            }
+            solver.solve();
+            return solver;
+        }
+
+        /**
+         * Checks that the placed items fit in the vacant cells, and lose the reported weight.
+         */
+        void assertValid(GridPlacementSolver solver, String message) {
+            GridOccupancy occupied = copyOccupied();
+            float weightLoss = 0;
+            for (int i = 0; i < mRemovedItems.size(); i++) {
+                Entry item = mRemovedItems.get(i);
+                if (!solver.isPlaced(i)) {
+                    weightLoss += item.weight;
+                    continue;
+                }
+                int cellX = solver.getCellX(i);
+                int cellY = solver.getCellY(i);
+                int spanX = solver.getSpanX(i);
+                int spanY = solver.getSpanY(i);
+                assertTrue(message + ": span of item " + i, spanX <= item.spanX
+                        && spanY <= item.spanY && spanX >= Math.min(item.spanX, item.minSpanX)
+                        && spanY >= Math.min(item.spanY, item.minSpanY));
+                assertTrue(message + ": item " + i + " outside of the grid", cellX >= 0
+                        && cellY >= 0 && cellX + spanX <= mCountX && cellY + spanY <= mCountY);
+                assertTrue(message + ": item " + i + " overlaps",
+                        occupied.isRegionVacant(cellX, cellY, spanX, spanY));
+                occupied.markCells(cellX, cellY, spanX, spanY, true);
+            }
+            assertEquals(message + ": weight loss", weightLoss, solver.getWeightLoss(), EPSILON);
+            assertFalse(message + ": no placement", solver.getMoveCost() == Float.MAX_VALUE);
+        }
+
+        private GridOccupancy copyOccupied() {
+            GridOccupancy occupied = new GridOccupancy(mCountX, mCountY);
+            mOccupied.copyTo(occupied);
+            return occupied;
+        }
+
+        @Override
+        public String toString() {
+            return mLayout + " to " + mCountX + "x" + mCountY + " removing column " + mCol + " and row " + mRow;
+        }
+    }
+}
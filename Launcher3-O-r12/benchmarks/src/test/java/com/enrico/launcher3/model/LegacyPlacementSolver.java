@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.model;
+
+import com.enrico.launcher3.util.CellAndSpan;
+import com.enrico.launcher3.util.GridOccupancy;
+
+import java.util.ArrayList;
+
+/**
+ * The placement search of GridSizeMigrationTask.OptimalPlacementSolution before
+ * {@link GridPlacementSolver}, kept as the reference of {@link GridPlacementCorpusTest}: an
+ * exhaustive search which keeps the first placement found for a given weight loss.
+ */
+class LegacyPlacementSolver {
+
+    static class Entry extends CellAndSpan {
+        int minSpanX;
+        int minSpanY;
+        float weight;
+
+        Entry(int cellX, int cellY, int spanX, int spanY, int minSpanX, int minSpanY,
+                float weight) {
+            super(cellX, cellY, spanX, spanY);
+            this.minSpanX = minSpanX;
+            this.minSpanY = minSpanY;
+            this.weight = weight;
+        }
+    }
+
+    private final ArrayList<Entry> itemsToPlace = new ArrayList<>();
+    private final GridOccupancy occupied;
+    private final int mTrgX, mTrgY;
+    private final boolean ignoreMove;
+    private final int startY;
+
+    float lowestWeightLoss = Float.MAX_VALUE;
+    float lowestMoveCost = Float.MAX_VALUE;
+
+    LegacyPlacementSolver(GridOccupancy occupied, int countX, int countY, int startY,
+            boolean ignoreMove) {
+        this.occupied = occupied;
+        mTrgX = countX;
+        mTrgY = countY;
+        this.startY = startY;
+        this.ignoreMove = ignoreMove;
+    }
+
+    void addItem(int cellX, int cellY, int spanX, int spanY, int minSpanX, int minSpanY,
+            float weight) {
+        itemsToPlace.add(new Entry(cellX, cellY, spanX, spanY, minSpanX, minSpanY, weight));
+    }
+
+    void solve() {
+        find(0, 0, 0);
+    }
+
+    private void find(int index, float weightLoss, float moveCost) {
+        if ((weightLoss >= lowestWeightLoss) ||
+                ((weightLoss == lowestWeightLoss) && (moveCost >= lowestMoveCost))) {
+            // Abort, as we already have a better solution.
+            return;
+
+        } else if (index >= itemsToPlace.size()) {
+            // End loop.
+            lowestWeightLoss = weightLoss;
+            lowestMoveCost = moveCost;
+            return;
+        }
+
+        Entry me = itemsToPlace.get(index);
+        int myX = me.cellX;
+        int myY = me.cellY;
+
+        if (me.spanX > 1 || me.spanY > 1) {
+            int myW = me.spanX;
+            int myH = me.spanY;
+
+            for (int y = startY; y < mTrgY; y++) {
+                for (int x = 0; x < mTrgX; x++) {
+                    float newMoveCost = moveCost;
+                    if (x != myX) {
+                        me.cellX = x;
+                        newMoveCost ++;
+                    }
+                    if (y != myY) {
+                        me.cellY = y;
+                        newMoveCost ++;
+                    }
+                    if (ignoreMove) {
+                        newMoveCost = moveCost;
+                    }
+
+                    if (occupied.isRegionVacant(x, y, myW, myH)) {
+                        occupied.markCells(me, true);
+                        find(index + 1, weightLoss, newMoveCost);
+                        occupied.markCells(me, false);
+                    }
+
+                    if (myW > me.minSpanX && occupied.isRegionVacant(x, y, myW - 1, myH)) {
+                        me.spanX --;
+                        occupied.markCells(me, true);
+                        find(index + 1, weightLoss, newMoveCost + 1);
+                        occupied.markCells(me, false);
+                        me.spanX ++;
+                    }
+
+                    if (myH > me.minSpanY && occupied.isRegionVacant(x, y, myW, myH - 1)) {
+                        me.spanY --;
+                        occupied.markCells(me, true);
+                        find(index + 1, weightLoss, newMoveCost + 1);
+                        occupied.markCells(me, false);
+                        me.spanY ++;
+                    }
+
+                    if (myH > me.minSpanY && myW > me.minSpanX &&
+                            occupied.isRegionVacant(x, y, myW - 1, myH - 1)) {
+                        me.spanX --;
+                        me.spanY --;
+                        occupied.markCells(me, true);
+                        find(index + 1, weightLoss, newMoveCost + 2);
+                        occupied.markCells(me, false);
+                        me.spanX ++;
+                        me.spanY ++;
+                    }
+                    me.cellX = myX;
+                    me.cellY = myY;
+                }
+            }
+
+            find(index + 1, weightLoss + me.weight, moveCost);
+        } else {
+            int newDistance = Integer.MAX_VALUE;
+            int newX = Integer.MAX_VALUE, newY = Integer.MAX_VALUE;
+
+            for (int y = startY; y < mTrgY; y++) {
+                for (int x = 0; x < mTrgX; x++) {
+                    if (!occupied.isOccupied(x, y)) {
+                        int dist = ignoreMove ? 0 :
+                            ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
+                        if (dist < newDistance) {
+                            newX = x;
+                            newY = y;
+                            newDistance = dist;
+                        }
+                    }
+                }
+            }
+
+            if (newX < mTrgX && newY < mTrgY) {
+                float newMoveCost = moveCost;
+                if (newX != myX) {
+                    me.cellX = newX;
+                    newMoveCost ++;
+                }
+                if (newY != myY) {
+                    me.cellY = newY;
+                    newMoveCost ++;
+                }
+                if (ignoreMove) {
+                    newMoveCost = moveCost;
+                }
+                occupied.markCells(me, true);
+                find(index + 1, weightLoss, newMoveCost);
+                occupied.markCells(me, false);
+                me.cellX = myX;
+                me.cellY = myY;
+
+                if (index + 1 < itemsToPlace.size()
+                        && itemsToPlace.get(index + 1).weight >= me.weight && !ignoreMove) {
+                    find(index + 1, weightLoss + me.weight, moveCost);
+                }
+            } else {
+                for (int i = index + 1; i < itemsToPlace.size(); i++) {
+                    weightLoss += itemsToPlace.get(i).weight;
+                }
+                find(itemsToPlace.size(), weightLoss + me.weight, moveCost);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.enrico.launcher3.util.ReorderSolver.ItemConfiguration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * Replays a scripted drag over a layout, doing the same searches as CellLayout on every drag
+ * over event, and checks that once the reused buffers are sized the drag does not allocate.
+ */
+public class DragAllocationTest {
+
+    private static final int COUNT_X = 5;
+    private static final int COUNT_Y = 5;
+    private static final int CELL_SIZE = 100;
+    private static final int SPAN = 2;
+
+    // The trace is replayed a few times first, so that the lazily sized buffers are allocated
+    private static final int WARM_UP_RUNS = 20;
+
+    // cellX, cellY, spanX, spanY of the items of the layout
+    private static final int[][] LAYOUT = {
+            {0, 0, 1, 1}, {1, 0, 1, 1}, {2, 0, 2, 2}, {4, 0, 1, 1}, {0, 1, 1, 1},
+            {0, 2, 2, 1}, {2, 3, 1, 2}, {3, 3, 1, 1}, {4, 4, 1, 1},
+    };
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final ArrayList<CellAndSpan> mItems = new ArrayList<>();
+    private final GridOccupancy mOccupied = new GridOccupancy(COUNT_X, COUNT_Y);
+    private final GridOccupancy mTmpOccupied = new GridOccupancy(COUNT_X, COUNT_Y);
+    private ReorderSolver<CellAndSpan> mSolver;
+
+    private final ItemConfiguration<CellAndSpan> mSwapSolution = new ItemConfiguration<>();
+    private final ItemConfiguration<CellAndSpan> mNoShuffleSolution = new ItemConfiguration<>();
+    private final int[] mDirection = new int[2];
+    private final int[] mResult = new int[2];
+    private final int[] mVacantCell = new int[2];
+    private int[] mTrace;
+
+    @Before
+    public void setUp() {
+        for (int[] cell : LAYOUT) {
+            CellAndSpan item = new CellAndSpan(cell[0], cell[1], cell[2], cell[3]);
+            mItems.add(item);
+            mOccupied.markCells(item, true);
+        }
+        mOccupied.copyTo(mTmpOccupied);
+        mSolver = new ReorderSolver<>(new LayoutHost(mItems));
+        mSolver.setGrid(COUNT_X, COUNT_Y, mOccupied, mTmpOccupied);
+
+        // Sweeps every row of the layout, back and forth, in half cell steps
+        int stepsPerRow = COUNT_X * 2;
+        mTrace = new int[COUNT_Y * stepsPerRow * 2];
+        int i = 0;
+        for (int y = 0; y < COUNT_Y; y++) {
+            for (int step = 0; step < stepsPerRow; step++) {
+                int x = y % 2 == 0 ? step : stepsPerRow - 1 - step;
+                mTrace[i++] = x * CELL_SIZE / 2 + CELL_SIZE / 4;
+                mTrace[i++] = y * CELL_SIZE + CELL_SIZE / 2;
+            }
+        }
+    }
+
+    @Test
+    public void testDragDoesNotAllocate() {
+        int solutions = 0;
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            solutions = replayTrace();
+        }
+        assertTrue("The trace should find reorder solutions", solutions > 0);
+
+        long overhead = measureOverhead();
+        long start = THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+        replayTrace();
+        long allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId())
+                - start - overhead;
+        assertEquals("Bytes allocated by the drag", 0, Math.max(0, allocated));
+    }
+
+    /**
+     * @return the bytes allocated by reading the allocation counter itself.
+     */
+    private static long measureOverhead() {
+        long id = Thread.currentThread().getId();
+        long start = THREAD_MX_BEAN.getThreadAllocatedBytes(id);
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(id) - start;
+    }
+
+    /**
+     * Replays the drag, like CellLayout.performReorder in the drag over mode.
+     * @return the number of drag events for which the item could be placed.
+     */
+    private int replayTrace() {
+        mSolver.clearRearrangementCache();
+        int solutions = 0;
+        for (int i = 0; i < mTrace.length; i += 2) {
+            int pixelX = mTrace[i];
+            int pixelY = mTrace[i + 1];
+            mSolver.findNearestArea(pixelX, pixelY, SPAN, SPAN, mResult);
+            mSolver.getDirectionVectorForDrop(pixelX, pixelY, SPAN, SPAN, null, mDirection);
+            ItemConfiguration<CellAndSpan> swapSolution = mSolver.findReorderSolution(pixelX,
+                    pixelY, 1, 1, SPAN, SPAN, mDirection, null, true, mSwapSolution);
+            ItemConfiguration<CellAndSpan> noShuffleSolution =
+                    mSolver.findConfigurationNoShuffle(pixelX, pixelY, 1, 1, SPAN, SPAN,
+                            mNoShuffleSolution);
+
+            ItemConfiguration<CellAndSpan> finalSolution = null;
+            if (swapSolution.isSolution && swapSolution.area() >= noShuffleSolution.area()) {
+                finalSolution = swapSolution;
+            } else if (noShuffleSolution.isSolution) {
+                finalSolution = noShuffleSolution;
+            }
+            if (finalSolution == null) {
+                continue;
+            }
+            solutions++;
+
+            // Like CellLayout.animateItemsToSolution, which marks the preview in the temp grid
+            mTmpOccupied.clear();
+            for (int j = 0; j < mItems.size(); j++) {
+                mTmpOccupied.markCells(finalSolution.map.get(mItems.get(j)), true);
+            }
+            mTmpOccupied.markCells(finalSolution, true);
+            mTmpOccupied.isRegionVacant(finalSolution.cellX, finalSolution.cellY,
+                    finalSolution.spanX, finalSolution.spanY);
+            mOccupied.findVacantCell(mVacantCell, SPAN, SPAN);
+        }
+        return solutions;
+    }
+
+    private static class LayoutHost implements ReorderSolver.Host<CellAndSpan> {
+        private final ArrayList<CellAndSpan> mItems;
+
+        LayoutHost(ArrayList<CellAndSpan> items) {
+            mItems = items;
+        }
+
+        @Override
+        public int getItemCount() {
+            return mItems.size();
+        }
+
+        @Override
+        public CellAndSpan getItemAt(int index) {
+            return mItems.get(index);
+        }
+
+        @Override
+        public void getCellAndSpan(CellAndSpan item, CellAndSpan out) {
+            out.copyFrom(item);
+        }
+
+        @Override
+        public boolean canReorder(CellAndSpan item) {
+            return true;
+        }
+
+        @Override
+        public int getCellWidth() {
+            return CELL_SIZE;
+        }
+
+        @Override
+        public int getCellHeight() {
+            return CELL_SIZE;
+        }
+
+        @Override
+        public void regionToCenterPoint(int cellX, int cellY, int spanX, int spanY,
+                int[] result) {
+            result[0] = cellX * CELL_SIZE + spanX * CELL_SIZE / 2;
+            result[1] = cellY * CELL_SIZE + spanY * CELL_SIZE / 2;
+        }
+    }
+}
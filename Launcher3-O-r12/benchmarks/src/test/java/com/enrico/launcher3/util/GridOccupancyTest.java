@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Applies random sequences of changes and queries to {@link GridOccupancy} and to the previous
+ * implementation, {@link LegacyGridOccupancy}, and checks that they always agree. The sequences
+ * mix single changes between queries, which update the summed-area table incrementally, with
+ * bursts of changes without a query, which go over the update budget and rebuild the table.
+ */
+public class GridOccupancyTest {
+
+    private static final long SEED = 0x1a7c4e5L;
+    private static final int SEQUENCES = 300;
+    private static final int STEPS = 200;
+
+    // Grid widths around the 64 cells of a row word, and a few home screen sizes
+    private static final int[] WIDTHS = {1, 2, 4, 5, 7, 63, 64, 65, 130};
+    private static final int MAX_HEIGHT = 12;
+
+    private static final int MAX_BURST = 20;
+
+    @Test
+    public void testRandomSequences() {
+        Random random = new Random(SEED);
+        for (int sequence = 0; sequence < SEQUENCES; sequence++) {
+            int countX = WIDTHS[random.nextInt(WIDTHS.length)];
+            int countY = 1 + random.nextInt(MAX_HEIGHT);
+            Grids grids = new Grids(countX, countY);
+            for (int step = 0; step < STEPS; step++) {
+                String message = "sequence " + sequence + " (" + countX + "x" + countY
+                        + ") step " + step;
+                switch (random.nextInt(8)) {
+                    case 0:
+                    case 1:
+                        grids.markRandom(random);
+                        break;
+                    case 2:
+                        // Many changes without a query in between
+                        int burst = 1 + random.nextInt(MAX_BURST);
+                        for (int i = 0; i < burst; i++) {
+                            grids.markRandom(random);
+                        }
+                        break;
+                    case 3:
+                        grids.checkRegionVacant(random, message);
+                        break;
+                    case 4:
+                        grids.checkBlockVacant(random, message);
+                        break;
+                    case 5:
+                        grids.checkFindVacantCell(random, message);
+                        break;
+                    case 6:
+                        grids = grids.copy(random, message);
+                        break;
+                    default:
+                        if (random.nextInt(10) == 0) {
+                            grids.clear();
+                        } else {
+                            grids.checkRegionVacant(random, message);
+                        }
+                        break;
+                }
+                grids.checkCells(message);
+            }
+        }
+    }
+
+    @Test
+    public void testFillCellByCell() {
+        // The first change updates the whole table, so every following change before the query
+        // goes over the budget and the table is rebuilt by the query.
+        for (int countX : WIDTHS) {
+            for (int countY = 1; countY <= MAX_HEIGHT; countY++) {
+                Grids grids = new Grids(countX, countY);
+                String message = countX + "x" + countY;
+                for (int y = 0; y < countY; y++) {
+                    for (int x = 0; x < countX; x += 2) {
+                        grids.mark(x, y, 1, 1, true);
+                    }
+                }
+                grids.checkCells(message);
+                for (int spanX = 1; spanX <= 2 && spanX <= countX; spanX++) {
+                    for (int spanY = 1; spanY <= 2 && spanY <= countY; spanY++) {
+                        grids.checkFindVacantCell(spanX, spanY, message);
+                    }
+                }
+                for (int y = 0; y < countY; y++) {
+                    for (int x = 0; x < countX; x++) {
+                        grids.checkRegionVacant(x, y, 1, 1, message);
+                        grids.checkRegionVacant(x, y, 2, 2, message);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A grid and its reference, which always receive the same changes.
+     */
+    private static class Grids {
+        final int countX;
+        final int countY;
+        final GridOccupancy grid;
+        final LegacyGridOccupancy legacy;
+
+        Grids(int countX, int countY) {
+            this.countX = countX;
+            this.countY = countY;
+            grid = new GridOccupancy(countX, countY);
+            legacy = new LegacyGridOccupancy(countX, countY);
+        }
+
+        void mark(int cellX, int cellY, int spanX, int spanY, boolean value) {
+            grid.markCells(cellX, cellY, spanX, spanY, value);
+            legacy.markCells(cellX, cellY, spanX, spanY, value);
+        }
+
+        /**
+         * Marks a random region, which may be partly outside of the grid.
+         */
+        void markRandom(Random random) {
+            mark(random.nextInt(countX + 2) - 1, random.nextInt(countY + 2) - 1,
+                    random.nextInt(countX + 1), random.nextInt(countY + 1),
+                    random.nextInt(3) != 0);
+        }
+
+        void clear() {
+            grid.clear();
+            legacy.clear();
+        }
+
+        void checkRegionVacant(Random random, String message) {
+            checkRegionVacant(random.nextInt(countX + 2) - 1, random.nextInt(countY + 2) - 1,
+                    1 + random.nextInt(countX), 1 + random.nextInt(countY), message);
+        }
+
+        void checkRegionVacant(int x, int y, int spanX, int spanY, String message) {
+            assertEquals(message + ": isRegionVacant(" + x + ", " + y + ", " + spanX + ", "
+                            + spanY + ")", legacy.isRegionVacant(x, y, spanX, spanY),
+                    grid.isRegionVacant(x, y, spanX, spanY));
+        }
+
+        /**
+         * Checks a random block which fits in the grid at a random position.
+         */
+        void checkBlockVacant(Random random, String message) {
+            int blockX = 1 + random.nextInt(countX);
+            int blockY = 1 + random.nextInt(countY);
+            Grids block = new Grids(blockX, blockY);
+            for (int i = random.nextInt(4); i >= 0; i--) {
+                block.markRandom(random);
+            }
+            int x = random.nextInt(countX - blockX + 1);
+            int y = random.nextInt(countY - blockY + 1);
+
+            boolean expected = true;
+            for (int i = 0; i < blockX && expected; i++) {
+                for (int j = 0; j < blockY && expected; j++) {
+                    expected = !(block.legacy.cells[i][j] && legacy.cells[x + i][y + j]);
+                }
+            }
+            assertEquals(message + ": isRegionVacant(" + x + ", " + y + ", " + blockX + "x"
+                    + blockY + " block)", expected, grid.isRegionVacant(x, y, block.grid));
+        }
+
+        void checkFindVacantCell(Random random, String message) {
+            checkFindVacantCell(1 + random.nextInt(countX), 1 + random.nextInt(countY), message);
+        }
+
+        void checkFindVacantCell(int spanX, int spanY, String message) {
+            int[] expected = new int[] {-1, -1};
+            int[] actual = new int[] {-1, -1};
+            String call = message + ": findVacantCell(" + spanX + ", " + spanY + ")";
+            assertEquals(call, legacy.findVacantCell(expected, spanX, spanY),
+                    grid.findVacantCell(actual, spanX, spanY));
+            assertArrayEquals(call, expected, actual);
+        }
+
+        /**
+         * Copies the grids to new grids, of the same size or of a random one.
+         */
+        Grids copy(Random random, String message) {
+            Grids dest = random.nextBoolean() ? new Grids(countX, countY)
+                    : new Grids(1 + random.nextInt(countX + 2), 1 + random.nextInt(countY + 2));
+            // The previous content of the destination is overwritten
+            dest.markRandom(random);
+            grid.copyTo(dest.grid);
+            if (dest.countX >= countX && dest.countY >= countY) {
+                legacy.copyTo(dest.legacy);
+            } else {
+                // The previous implementation did not support smaller destinations
+                for (int i = 0; i < Math.min(countX, dest.countX); i++) {
+                    for (int j = 0; j < Math.min(countY, dest.countY); j++) {
+                        dest.legacy.cells[i][j] = legacy.cells[i][j];
+                    }
+                }
+            }
+            dest.checkCells(message + " copy");
+            return dest.countX == countX && dest.countY == countY ? dest : this;
+        }
+
+        void checkCells(String message) {
+            for (int x = 0; x < countX; x++) {
+                for (int y = 0; y < countY; y++) {
+                    assertEquals(message + ": cell " + x + ", " + y, legacy.cells[x][y],
+                            grid.isOccupied(x, y));
+                }
+            }
+        }
+    }
+}
@@ -23,16 +23,25 @@ import android.os.UserHandle;
 
 import com.enrico.launcher3.compat.LauncherAppsCompat;
 import com.enrico.launcher3.icons.IconCache;
+import com.enrico.launcher3.util.ComponentKey;
 import com.enrico.launcher3.util.FlagOp;
 import com.enrico.launcher3.util.ItemInfoMatcher;
+import com.enrico.launcher3.util.PackageUserKey;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 
 /**
  * Stores the list of all applications for the all apps view.
+ *
+ * The apps are also indexed by component and by package, so that adding an app or updating a
+ * package does not need to go through all the apps.
  */
 public class AllAppsList {
     private static final int DEFAULT_APPLICATIONS_NUMBER = 42;
@@ -48,6 +57,10 @@ public class AllAppsList {
     /** The list of apps that have been modified since the last notify() call. */
     public ArrayList<AppInfo> modified = new ArrayList<AppInfo>();
 
+    /** The apps in {@link #data} by component and by package respectively. */
+    private final HashMap<ComponentKey, AppInfo> mAppsByComponent = new HashMap<>();
+    private final HashMap<PackageUserKey, ArrayList<AppInfo>> mAppsByPackage = new HashMap<>();
+
     private IconCache mIconCache;
 
     private AppFilter mAppFilter;
@@ -73,17 +86,29 @@ public class AllAppsList {
         if (!mAppFilter.shouldShowApp(info.componentName.getPackageName(), mContext)) {
             return;
         }
-        if (findActivity(data, info.componentName, info.user)) {
+        ComponentKey key = info.toComponentKey();
+        if (mAppsByComponent.containsKey(key)) {
             return;
         }
         mIconCache.getTitleAndIcon(info, activityInfo, true /* useLowResIcon */);
 
         data.add(info);
         added.add(info);
+        mAppsByComponent.put(key, info);
+        PackageUserKey packageKey =
+                new PackageUserKey(info.componentName.getPackageName(), info.user);
+        ArrayList<AppInfo> packageApps = mAppsByPackage.get(packageKey);
+        if (packageApps == null) {
+            packageApps = new ArrayList<>(1);
+            mAppsByPackage.put(packageKey, packageApps);
+        }
+        packageApps.add(info);
     }
 
     public void clear() {
         data.clear();
+        mAppsByComponent.clear();
+        mAppsByPackage.clear();
         // TODO: do we clear these too?
         added.clear();
         removed.clear();
@@ -115,14 +140,16 @@ public class AllAppsList {
      * Remove the apps for the given apk identified by packageName.
      */
     public void removePackage(String packageName, UserHandle user) {
-        final List<AppInfo> data = this.data;
-        for (int i = data.size() - 1; i >= 0; i--) {
-            AppInfo info = data.get(i);
-            if (info.user.equals(user) && packageName.equals(info.componentName.getPackageName())) {
-                removed.add(info);
-                data.remove(i);
-            }
+        ArrayList<AppInfo> packageApps = mAppsByPackage.remove(
+                new PackageUserKey(packageName, user));
+        if (packageApps == null) {
+            return;
+        }
+        for (AppInfo info : packageApps) {
+            mAppsByComponent.remove(info.toComponentKey());
         }
+        removed.addAll(packageApps);
+        removeFromData(packageApps);
     }
 
     /**
@@ -141,8 +168,13 @@ public class AllAppsList {
 
     public void updateIconsAndLabels(HashSet<String> packages, UserHandle user,
             ArrayList<AppInfo> outUpdates) {
-        for (AppInfo info : data) {
-            if (info.user.equals(user) && packages.contains(info.componentName.getPackageName())) {
+        for (String packageName : packages) {
+            ArrayList<AppInfo> packageApps = mAppsByPackage.get(
+                    new PackageUserKey(packageName, user));
+            if (packageApps == null) {
+                continue;
+            }
+            for (AppInfo info : packageApps) {
                 mIconCache.updateTitleAndIcon(info);
                 outUpdates.add(info);
             }
@@ -156,26 +188,37 @@ public class AllAppsList {
         final LauncherAppsCompat launcherApps = LauncherAppsCompat.getInstance(context);
         final List<LauncherActivityInfo> matches = launcherApps.getActivityList(packageName,
                 user);
+        final PackageUserKey packageKey = new PackageUserKey(packageName, user);
         if (matches.size() > 0) {
             // Find disabled/removed activities and remove them from data and add them
             // to the removed list.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final AppInfo applicationInfo = data.get(i);
-                if (user.equals(applicationInfo.user)
-                        && packageName.equals(applicationInfo.componentName.getPackageName())) {
-                    if (!findActivity(matches, applicationInfo.componentName)) {
-                        removed.add(applicationInfo);
-                        data.remove(i);
+            ArrayList<AppInfo> packageApps = mAppsByPackage.get(packageKey);
+            if (packageApps != null) {
+                HashSet<ComponentName> activities = new HashSet<>(matches.size());
+                for (LauncherActivityInfo info : matches) {
+                    activities.add(info.getComponentName());
+                }
+                ArrayList<AppInfo> removedApps = new ArrayList<>();
+                for (int i = packageApps.size() - 1; i >= 0; i--) {
+                    final AppInfo applicationInfo = packageApps.get(i);
+                    if (!activities.contains(applicationInfo.componentName)) {
+                        removedApps.add(applicationInfo);
+                        packageApps.remove(i);
+                        mAppsByComponent.remove(applicationInfo.toComponentKey());
                     }
                 }
+                if (packageApps.isEmpty()) {
+                    mAppsByPackage.remove(packageKey);
+                }
+                removed.addAll(removedApps);
+                removeFromData(removedApps);
             }
 
             // Find enabled activities and add them to the adapter
             // Also updates existing activities with new labels/icons
             for (final LauncherActivityInfo info : matches) {
-                AppInfo applicationInfo = findApplicationInfoLocked(
-                        info.getComponentName().getPackageName(), user,
-                        info.getComponentName().getClassName());
+                AppInfo applicationInfo = mAppsByComponent.get(
+                        new ComponentKey(info.getComponentName(), user));
                 if (applicationInfo == null) {
                     add(new AppInfo(context, info, user), info);
                 } else {
@@ -185,58 +228,36 @@ public class AllAppsList {
             }
         } else {
             // Remove all data for this package.
-            for (int i = data.size() - 1; i >= 0; i--) {
-                final AppInfo applicationInfo = data.get(i);
-                if (user.equals(applicationInfo.user)
-                        && packageName.equals(applicationInfo.componentName.getPackageName())) {
-                    removed.add(applicationInfo);
+            ArrayList<AppInfo> packageApps = mAppsByPackage.remove(packageKey);
+            if (packageApps != null) {
+                for (AppInfo applicationInfo : packageApps) {
+                    mAppsByComponent.remove(applicationInfo.toComponentKey());
                     mIconCache.remove(applicationInfo.componentName, user);
-                    data.remove(i);
                 }
+                removed.addAll(packageApps);
+                removeFromData(packageApps);
             }
         }
     }
 
-
     /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
+     * Removes {@param apps} from {@link #data} in a single pass, keeping the order of the
+     * remaining apps.
      */
-    private static boolean findActivity(List<LauncherActivityInfo> apps,
-            ComponentName component) {
-        for (LauncherActivityInfo info : apps) {
-            if (info.getComponentName().equals(component)) {
-                return true;
-            }
+    private void removeFromData(List<AppInfo> apps) {
+        if (apps.isEmpty()) {
+            return;
         }
-        return false;
-    }
-
-    /**
-     * Returns whether <em>apps</em> contains <em>component</em>.
-     */
-    private static boolean findActivity(ArrayList<AppInfo> apps, ComponentName component,
-            UserHandle user) {
-        final int N = apps.size();
+        Set<AppInfo> toRemove = Collections.newSetFromMap(new IdentityHashMap<AppInfo, Boolean>());
+        toRemove.addAll(apps);
+        int kept = 0;
+        final int N = data.size();
         for (int i = 0; i < N; i++) {
-            final AppInfo info = apps.get(i);
-            if (info.user.equals(user) && info.componentName.equals(component)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Find an ApplicationInfo object for the given packageName and className.
-     */
-    private AppInfo findApplicationInfoLocked(String packageName, UserHandle user,
-            String className) {
-        for (AppInfo info: data) {
-            if (user.equals(info.user) && packageName.equals(info.componentName.getPackageName())
-                    && className.equals(info.componentName.getClassName())) {
-                return info;
+            AppInfo info = data.get(i);
+            if (!toRemove.contains(info)) {
+                data.set(kept++, info);
             }
         }
-        return null;
+        data.subList(kept, N).clear();
     }
 }
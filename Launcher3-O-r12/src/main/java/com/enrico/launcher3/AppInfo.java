@@ -26,6 +26,8 @@ import com.enrico.launcher3.compat.UserManagerCompat;
 import com.enrico.launcher3.util.ComponentKey;
 import com.enrico.launcher3.util.PackageManagerHelper;
 
+import java.text.CollationKey;
+
 /**
  * Represents an app in AllAppsView.
  */
@@ -43,6 +45,16 @@ public class AppInfo extends ItemInfoWithIcon {
      */
     public int isDisabled = ShortcutInfo.DEFAULT;
 
+    /**
+     * The collation key of the title and its all apps section, set along with the title by
+     * the {@link com.enrico.launcher3.icons.IconCache} and kept up to date by the all apps list.
+     * {@link #titleSortKeyLocale} identifies the locale the key was computed in.
+     */
+    public CollationKey titleSortKey;
+    public int titleSortKeyLocale;
+    public boolean titleStartsWithLetter;
+    public String sectionName;
+
     public AppInfo() {
         itemType = LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
     }
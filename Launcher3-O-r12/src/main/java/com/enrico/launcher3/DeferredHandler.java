@@ -21,35 +21,35 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.MessageQueue;
 
+import com.enrico.launcher3.util.DeferredQueue;
 import com.enrico.launcher3.util.Thunk;
 
-import java.util.LinkedList;
-
 /**
  * Queue of things to run on a looper thread.  Items posted with {@link #post} will not
  * be actually enqued on the handler until after the last one has run, to keep from
  * starving the thread.
  *
- * This class is fifo.
+ * The queue itself is a {@link DeferredQueue}, which only has one message or idle handler
+ * pending on the looper at a time.
  */
 public class DeferredHandler {
-    @Thunk private static final LinkedList<Runnable> mQueue = new LinkedList<>();
     private static MessageQueue mMessageQueue = Looper.myQueue();
     private static Impl mHandler = new Impl();
+    @Thunk static final DeferredQueue mQueue = new DeferredQueue(new DeferredQueue.Scheduler() {
+        @Override
+        public void schedule() {
+            mHandler.sendEmptyMessage(1);
+        }
+
+        @Override
+        public void scheduleIdle() {
+            mMessageQueue.addIdleHandler(mHandler);
+        }
+    });
 
     @Thunk private static class Impl extends Handler implements MessageQueue.IdleHandler {
         public void handleMessage(Message msg) {
-            Runnable r;
-            synchronized (mQueue) {
-                if (mQueue.size() == 0) {
-                    return;
-                }
-                r = mQueue.removeFirst();
-            }
-            r.run();
-            synchronized (mQueue) {
-                scheduleNextLocked();
-            }
+            mQueue.runNext();
         }
 
         public boolean queueIdle() {
@@ -58,63 +58,30 @@ public class DeferredHandler {
         }
     }
 
-    private class IdleRunnable implements Runnable {
-        Runnable mRunnable;
-
-        IdleRunnable(Runnable r) {
-            mRunnable = r;
-        }
-
-        public void run() {
-            mRunnable.run();
-        }
-    }
-
     DeferredHandler() {
     }
 
     /** Schedule runnable to run after everything that's on the queue right now. */
     public void post(Runnable runnable) {
-        synchronized (mQueue) {
-            mQueue.add(runnable);
-            if (mQueue.size() == 1) {
-                scheduleNextLocked();
-            }
-        }
+        mQueue.post(runnable);
+    }
+
+    /** Schedule runnable to run before everything that's on the queue right now. */
+    public void postAtFrontOfQueue(Runnable runnable) {
+        mQueue.postAtFrontOfQueue(runnable);
     }
 
     /** Schedule runnable to run when the queue goes idle. */
     void postIdle(final Runnable runnable) {
-        post(new IdleRunnable(runnable));
+        mQueue.postIdle(runnable);
     }
 
     void cancelAll() {
-        synchronized (mQueue) {
-            mQueue.clear();
-        }
+        mQueue.cancelAll();
     }
 
     /** Runs all queued Runnables from the calling thread. */
     void flush() {
-        LinkedList<Runnable> queue = new LinkedList<>();
-        synchronized (mQueue) {
-            queue.addAll(mQueue);
-            mQueue.clear();
-        }
-        for (Runnable r : queue) {
-            r.run();
-        }
-    }
-
-    private static void scheduleNextLocked() {
-        if (mQueue.size() > 0) {
-            Runnable peek = mQueue.getFirst();
-            if (peek instanceof IdleRunnable) {
-                mMessageQueue.addIdleHandler(mHandler);
-            } else {
-                mHandler.sendEmptyMessage(1);
-            }
-        }
+        mQueue.flush();
     }
 }
-
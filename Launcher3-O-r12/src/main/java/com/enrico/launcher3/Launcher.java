@@ -1003,6 +1003,12 @@ public class Launcher extends BaseActivity
         super.onStop();
         FirstFrameAnimatorHelper.setIsVisible(false);
 
+        // The process can be killed once stopped, write the pending item changes now
+        mModelWriter.flush();
+
+        // Keep the snapshot bound on the next cold start in sync with the workspace
+        mModel.writeModelSnapshot();
+
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onStop();
         }
@@ -3036,6 +3042,8 @@ public class Launcher extends BaseActivity
             // This clears all widget bitmaps from the widget tray
             // TODO(hyunyoungs)
         }
+        // Demote or drop the least recently used icons from memory
+        mIconCache.onTrimMemory(level);
         if (mLauncherCallbacks != null) {
             mLauncherCallbacks.onTrimMemory(level);
         }
@@ -4085,7 +4093,9 @@ public class Launcher extends BaseActivity
         View mIconPackView = getLayoutInflater().inflate(R.layout.edit_dialog, nullParent);
         ImageView mPackageIcon = mIconPackView.findViewById(R.id.package_icon);
         mEditText = mIconPackView.findViewById(R.id.editText);
-        mEditText.setText(mIconCache.getCacheEntry(app).title);
+        // The entry may have been dropped from memory, fall back to the bound title
+        IconCache.CacheEntry entry = mIconCache.getCacheEntry(app);
+        mEditText.setText(entry != null ? entry.title : info.title);
         mEditText.setSelection(mEditText.getText().length());
 
         final Bitmap appliedIcon = mIconsManager.getAppliedIconBitmap(this, mIconCache, app, info);
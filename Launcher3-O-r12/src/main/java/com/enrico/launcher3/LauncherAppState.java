@@ -84,7 +84,7 @@ public class LauncherAppState {
         mIconCache = new IconCache(mContext, mInvariantDeviceProfile);
         mWidgetCache = new WidgetPreviewLoader(mContext, mIconCache);
 
-        AppFilter appFilter = new StringSetAppFilter();
+        AppFilter appFilter = new StringSetAppFilter(mContext);
 
         mModel = new LauncherModel(this, mIconCache,appFilter);
 
@@ -31,7 +31,6 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Process;
-import android.os.SystemClock;
 import android.os.UserHandle;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
@@ -54,10 +53,14 @@ import com.enrico.launcher3.icons.IconCache;
 import com.enrico.launcher3.icons.IconsManager;
 import com.enrico.launcher3.model.AddWorkspaceItemsTask;
 import com.enrico.launcher3.model.BgDataModel;
+import com.enrico.launcher3.model.BindCostEstimator;
 import com.enrico.launcher3.model.CacheDataUpdatedTask;
 import com.enrico.launcher3.model.ExtendedModelTask;
 import com.enrico.launcher3.model.GridSizeMigrationTask;
+import com.enrico.launcher3.model.HiddenAppsChangedTask;
+import com.enrico.launcher3.model.LoaderQueries;
 import com.enrico.launcher3.model.LoaderCursor;
+import com.enrico.launcher3.model.ModelSnapshot;
 import com.enrico.launcher3.model.ModelWriter;
 import com.enrico.launcher3.model.PackageInstallStateChangedTask;
 import com.enrico.launcher3.model.PackageItemInfo;
@@ -79,6 +82,7 @@ import com.enrico.launcher3.util.PackageManagerHelper;
 import com.enrico.launcher3.util.PackageUserKey;
 import com.enrico.launcher3.util.Provider;
 import com.enrico.launcher3.util.Thunk;
+import com.enrico.launcher3.util.TraceHelper;
 import com.enrico.launcher3.util.ViewOnDrawExecutor;
 
 import java.io.FileDescriptor;
@@ -104,12 +108,16 @@ import java.util.concurrent.Executor;
 public class LauncherModel extends BroadcastReceiver
         implements LauncherAppsCompat.OnAppsChangedCallbackCompat {
 
-    private static final int ITEMS_CHUNK = 6; // batch size for the workspace icons
+    // Time slices for a batch of workspace binds on the UI thread. The visible page gets a larger
+    // one, so that it shows up in fewer frames.
+    private static final long VISIBLE_PAGE_BIND_BUDGET_NANOS = 10_000_000;
+    private static final long BIND_BUDGET_NANOS = 4_000_000;
     private static final long INVALID_SCREEN_ID = -1L;
 
     @Thunk final LauncherAppState mApp;
     @Thunk final Object mLock = new Object();
     @Thunk DeferredHandler mHandler = new DeferredHandler();
+    @Thunk final BindCostEstimator mBindCosts = new BindCostEstimator();
     @Thunk LoaderTask mLoaderTask;
     @Thunk boolean mIsLoaderTaskRunning;
     @Thunk boolean mHasLoaderCompletedOnce;
@@ -612,6 +620,12 @@ public class LauncherModel extends BroadcastReceiver
     private class LoaderTask implements Runnable {
         private Context mContext;
         private int mPageToBindFirst;
+        private LoaderQueries mQueries;
+
+        // The page bound from the model snapshot before the workspace was loaded, if any
+        private ArrayList<ItemInfo> mSnapshotPageItems;
+        private ArrayList<Long> mSnapshotScreenIds;
+        private int mSnapshotScreen;
 
         @Thunk boolean mIsLoadingAndBindingWorkspace;
         private boolean mStopped;
@@ -704,30 +718,58 @@ public class LauncherModel extends BroadcastReceiver
                 mIsLoaderTaskRunning = true;
             }
 
+            TraceHelper.beginSection("LoaderTask");
             try {
+                // Start the queries which don't depend on the model, they complete while the
+                // workspace is loaded and bound.
+                mQueries = new LoaderQueries(mContext, Utilities.THREAD_POOL_EXECUTOR);
+
                 // Set to false in bindWorkspace()
                 mIsLoadingAndBindingWorkspace = true;
-                loadWorkspace();
+                if (!mHasLoaderCompletedOnce) {
+                    TraceHelper.beginSection("bindSnapshotPage");
+                    bindSnapshotPage();
+                    TraceHelper.endSection("bindSnapshotPage");
+                }
+                TraceHelper.beginSection("loadWorkspace");
+                // Load the items as they are after the pending updates
+                ModelWriter.commitPendingUpdates();
+                // Readers keep the previous snapshot until the workspace is fully loaded
+                sBgDataModel.beginBatchUpdate();
+                try {
+                    loadWorkspace();
+                } finally {
+                    sBgDataModel.endBatchUpdate();
+                }
+                TraceHelper.endSection("loadWorkspace");
 
                 verifyNotStopped();
+                TraceHelper.beginSection("bindWorkspace");
                 bindWorkspace(mPageToBindFirst);
+                TraceHelper.endSection("bindWorkspace");
 
                 // Take a break
                 waitForIdle();
                 verifyNotStopped();
 
                 // second step
+                TraceHelper.beginSection("loadAllApps");
                 loadAllApps();
+                TraceHelper.endSection("loadAllApps");
 
                 verifyNotStopped();
+                TraceHelper.beginSection("updateIconCache");
                 updateIconCache();
+                TraceHelper.endSection("updateIconCache");
 
                 // Take a break
                 waitForIdle();
                 verifyNotStopped();
 
                 // third step
+                TraceHelper.beginSection("loadDeepShortcuts");
                 loadDeepShortcuts();
+                TraceHelper.endSection("loadDeepShortcuts");
 
                 verifyNotStopped();
                 bindDeepShortcuts();
@@ -737,17 +779,26 @@ public class LauncherModel extends BroadcastReceiver
                 verifyNotStopped();
 
                 // fourth step
-                refreshAndBindWidgetsAndShortcuts(getCallback(), false /* bindFirst */,
-                        null /* packageUser */);
+                TraceHelper.beginSection("loadWidgets");
+                updateAndBindWidgetsModel(getCallback(), null /* packageUser */,
+                        mQueries.getWidgetsAndShortcuts());
+                TraceHelper.endSection("loadWidgets");
 
                 synchronized (mLock) {
                     // Everything loaded bind the data.
                     mModelLoaded = true;
                     mHasLoaderCompletedOnce = true;
                 }
+                writeModelSnapshot();
             } catch (CancellationException e) {
               // Loader stopped, ignore
             } finally {
+                // Also ends the phase which was interrupted, if any
+                TraceHelper.endSection("LoaderTask");
+                if (mQueries != null) {
+                    mQueries.cancel();
+                    mQueries = null;
+                }
                 // Clear out this reference, otherwise we end up holding it until all of the
                 // callback runnables are done.
                 mContext = null;
@@ -839,8 +890,10 @@ public class LauncherModel extends BroadcastReceiver
                 sBgDataModel.workspaceScreens.addAll(loadWorkspaceScreensDb(mContext));
 
                 Map<ShortcutKey, ShortcutInfoCompat> shortcutKeyToPinnedShortcuts = new HashMap<>();
+                TraceHelper.beginSection("queryFavorites");
                 final LoaderCursor c = new LoaderCursor(contentResolver.query(
                         LauncherSettings.Favorites.CONTENT_URI, null, null, null, null), mApp);
+                TraceHelper.endSection("queryFavorites");
 
                 HashMap<ComponentKey, AppWidgetProviderInfo> widgetProvidersMap = null;
 
@@ -1424,47 +1477,135 @@ public class LauncherModel extends BroadcastReceiver
         private void bindWorkspaceItems(final Callbacks oldCallbacks,
                 final ArrayList<ItemInfo> workspaceItems,
                 final ArrayList<LauncherAppWidgetInfo> appWidgets,
-                final Executor executor) {
-
-            // Bind the workspace items
-            int N = workspaceItems.size();
-            for (int i = 0; i < N; i += ITEMS_CHUNK) {
-                final int start = i;
-                final int chunkSize = (i+ITEMS_CHUNK <= N) ? ITEMS_CHUNK : (N-i);
-                final Runnable r = new Runnable() {
-                    @Override
-                    public void run() {
-                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                        if (callbacks != null) {
-                            callbacks.bindItems(workspaceItems, start, start+chunkSize,
-                                    false);
-                        }
-                    }
-                };
-                executor.execute(r);
+                final Executor executor, boolean visiblePage) {
+            if (workspaceItems.isEmpty() && appWidgets.isEmpty()) {
+                return;
             }
+            long budgetNanos = visiblePage ? VISIBLE_PAGE_BIND_BUDGET_NANOS : BIND_BUDGET_NANOS;
+            if (!(executor instanceof ViewOnDrawExecutor)
+                    && sWorkerThread.getThreadId() != Process.myTid()) {
+                // Bound synchronously from the UI thread, the items must all be bound on return
+                budgetNanos = Long.MAX_VALUE;
+            }
+            executor.execute(new WorkspaceBindTask(oldCallbacks, workspaceItems, appWidgets,
+                    budgetNanos));
+        }
 
-            // Bind the widgets, one at a time
-            N = appWidgets.size();
-            for (int i = 0; i < N; i++) {
-                final LauncherAppWidgetInfo widget = appWidgets.get(i);
-                final Runnable r = new Runnable() {
-                    public void run() {
-                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                        if (callbacks != null) {
-                            callbacks.bindAppWidget(widget);
+        /**
+         * Binds workspace items, then widgets, in batches sized by their estimated bind cost so
+         * that each batch fits in the given time slice. When items are left after a batch, the
+         * task is posted again in front of the UI queue, ahead of the binds queued after it.
+         */
+        private class WorkspaceBindTask implements Runnable {
+
+            private final Callbacks mOldCallbacks;
+            private final ArrayList<ItemInfo> mItems;
+            private final ArrayList<LauncherAppWidgetInfo> mWidgets;
+            private final long mBudgetNanos;
+
+            private int mNextItem;
+            private int mNextWidget;
+
+            WorkspaceBindTask(Callbacks oldCallbacks, ArrayList<ItemInfo> items,
+                    ArrayList<LauncherAppWidgetInfo> widgets, long budgetNanos) {
+                mOldCallbacks = oldCallbacks;
+                mItems = items;
+                mWidgets = widgets;
+                mBudgetNanos = budgetNanos;
+            }
+
+            @Override
+            public void run() {
+                Callbacks callbacks = tryGetCallbacks(mOldCallbacks);
+                if (callbacks == null) {
+                    return;
+                }
+                TraceHelper.beginSection("bindItems");
+                long startTime = System.nanoTime();
+                int[] batchCounts = mBindCosts.newBatchCounts();
+                long estimated = 0;
+
+                int end = mNextItem;
+                while (end < mItems.size()) {
+                    int itemType = mItems.get(end).itemType;
+                    if (end > mNextItem
+                            && mBudgetNanos - estimated < mBindCosts.getCostNanos(itemType)) {
+                        break;
+                    }
+                    estimated += mBindCosts.addToBatch(batchCounts, itemType);
+                    end++;
+                }
+                if (end > mNextItem) {
+                    callbacks.bindItems(mItems, mNextItem, end, false);
+                    mNextItem = end;
+                }
+
+                if (mNextItem == mItems.size()) {
+                    while (mNextWidget < mWidgets.size()) {
+                        LauncherAppWidgetInfo widget = mWidgets.get(mNextWidget);
+                        if (estimated > 0 && mBudgetNanos - estimated
+                                < mBindCosts.getCostNanos(widget.itemType)) {
+                            break;
                         }
+                        estimated += mBindCosts.addToBatch(batchCounts, widget.itemType);
+                        callbacks.bindAppWidget(widget);
+                        mNextWidget++;
                     }
-                };
-                executor.execute(r);
+                }
+
+                mBindCosts.onBatchBound(batchCounts, System.nanoTime() - startTime);
+                TraceHelper.endSection("bindItems");
+
+                if (mNextItem < mItems.size() || mNextWidget < mWidgets.size()) {
+                    mHandler.postAtFrontOfQueue(this);
+                }
             }
         }
 
+        /**
+         * Binds the current page from the model snapshot, so that it shows up before the
+         * workspace is loaded. {@link #bindWorkspace} then keeps it if it was up to date.
+         */
+        private void bindSnapshotPage() {
+            final Callbacks oldCallbacks = mCallbacks.get();
+            if (oldCallbacks == null) {
+                return;
+            }
+            ModelSnapshot snapshot = ModelSnapshot.read(mContext);
+            if (snapshot == null) {
+                return;
+            }
+            int currentScreen = mPageToBindFirst != PagedView.INVALID_RESTORE_PAGE
+                    ? mPageToBindFirst : oldCallbacks.getCurrentWorkspaceScreen();
+            if (currentScreen < 0 || currentScreen >= snapshot.workspaceScreens.size()) {
+                return;
+            }
+            ArrayList<ItemInfo> pageItems =
+                    snapshot.getPageItems(snapshot.workspaceScreens.get(currentScreen));
+            sortWorkspaceItemsSpatially(pageItems);
+
+            runOnMainThread(new Runnable() {
+                public void run() {
+                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                    if (callbacks != null) {
+                        callbacks.clearPendingBinds();
+                        callbacks.startBinding();
+                    }
+                }
+            });
+            bindWorkspaceScreens(oldCallbacks, snapshot.workspaceScreens);
+            bindWorkspaceItems(oldCallbacks, pageItems, new ArrayList<LauncherAppWidgetInfo>(),
+                    new DeferredMainThreadExecutor(), true /* visiblePage */);
+
+            mSnapshotPageItems = pageItems;
+            mSnapshotScreenIds = snapshot.workspaceScreens;
+            mSnapshotScreen = currentScreen;
+        }
+
         /**
          * Binds all loaded data to actual views on the main thread.
          */
         private void bindWorkspace(int synchronizeBindPage) {
-            final long t = SystemClock.uptimeMillis();
             Runnable r;
 
             // Don't use these two variables in any of the callback runnables.
@@ -1480,9 +1621,10 @@ public class LauncherModel extends BroadcastReceiver
             ArrayList<LauncherAppWidgetInfo> appWidgets = new ArrayList<>();
             ArrayList<Long> orderedScreenIds = new ArrayList<>();
 
+            BgDataModel.Snapshot snapshot = sBgDataModel.getSnapshot();
+            workspaceItems.addAll(snapshot.workspaceItems);
+            appWidgets.addAll(snapshot.appWidgets);
             synchronized (sBgDataModel) {
-                workspaceItems.addAll(sBgDataModel.workspaceItems);
-                appWidgets.addAll(sBgDataModel.appWidgets);
                 orderedScreenIds.addAll(sBgDataModel.workspaceScreens);
             }
 
@@ -1513,23 +1655,53 @@ public class LauncherModel extends BroadcastReceiver
             sortWorkspaceItemsSpatially(currentWorkspaceItems);
             sortWorkspaceItemsSpatially(otherWorkspaceItems);
 
-            // Tell the workspace that we're about to start binding items
-            r = new Runnable() {
-                public void run() {
-                    Callbacks callbacks = tryGetCallbacks(oldCallbacks);
-                    if (callbacks != null) {
-                        callbacks.clearPendingBinds();
-                        callbacks.startBinding();
-                    }
+            // If the current page was bound from the snapshot and nothing moved since, keep it
+            // and only update the items which changed.
+            final ArrayList<ShortcutInfo> snapshotUpdates = new ArrayList<>();
+            final boolean keepSnapshotPage = mSnapshotPageItems != null
+                    && currentScreen == mSnapshotScreen
+                    && orderedScreenIds.equals(mSnapshotScreenIds)
+                    && ModelSnapshot.adoptPage(sBgDataModel, mSnapshotPageItems,
+                            currentWorkspaceItems, snapshotUpdates);
+            mSnapshotPageItems = null;
+            mSnapshotScreenIds = null;
+
+            Executor mainExecutor = new DeferredMainThreadExecutor();
+            if (keepSnapshotPage) {
+                if (!snapshotUpdates.isEmpty()) {
+                    r = new Runnable() {
+                        public void run() {
+                            Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                            if (callbacks != null) {
+                                callbacks.bindShortcutsChanged(snapshotUpdates,
+                                        new ArrayList<ShortcutInfo>(), Process.myUserHandle());
+                            }
+                        }
+                    };
+                    mainExecutor.execute(r);
                 }
-            };
-            runOnMainThread(r);
+                // Widgets are not part of the snapshot
+                bindWorkspaceItems(oldCallbacks, new ArrayList<ItemInfo>(), currentAppWidgets,
+                        mainExecutor, true /* visiblePage */);
+            } else {
+                // Tell the workspace that we're about to start binding items
+                r = new Runnable() {
+                    public void run() {
+                        Callbacks callbacks = tryGetCallbacks(oldCallbacks);
+                        if (callbacks != null) {
+                            callbacks.clearPendingBinds();
+                            callbacks.startBinding();
+                        }
+                    }
+                };
+                runOnMainThread(r);
 
-            bindWorkspaceScreens(oldCallbacks, orderedScreenIds);
+                bindWorkspaceScreens(oldCallbacks, orderedScreenIds);
 
-            Executor mainExecutor = new DeferredMainThreadExecutor();
-            // Load items on the current page.
-            bindWorkspaceItems(oldCallbacks, currentWorkspaceItems, currentAppWidgets, mainExecutor);
+                // Load items on the current page.
+                bindWorkspaceItems(oldCallbacks, currentWorkspaceItems, currentAppWidgets,
+                        mainExecutor, true /* visiblePage */);
+            }
 
             // In case of validFirstPage, only bind the first screen, and defer binding the
             // remaining screens after first onDraw (and an optional the fade animation whichever
@@ -1550,7 +1722,8 @@ public class LauncherModel extends BroadcastReceiver
                 }
             });
 
-            bindWorkspaceItems(oldCallbacks, otherWorkspaceItems, otherAppWidgets, deferredExecutor);
+            bindWorkspaceItems(oldCallbacks, otherWorkspaceItems, otherAppWidgets, deferredExecutor,
+                    false /* visiblePage */);
 
             // Tell the workspace that we're done binding items
             r = new Runnable() {
@@ -1597,18 +1770,16 @@ public class LauncherModel extends BroadcastReceiver
         private void updateIconCache() {
             // Ignore packages which have a promise icon.
             HashSet<String> packagesToIgnore = new HashSet<>();
-            synchronized (sBgDataModel) {
-                for (ItemInfo info : sBgDataModel.itemsIdMap) {
-                    if (info instanceof ShortcutInfo) {
-                        ShortcutInfo si = (ShortcutInfo) info;
-                        if (si.isPromise() && si.getTargetComponent() != null) {
-                            packagesToIgnore.add(si.getTargetComponent().getPackageName());
-                        }
-                    } else if (info instanceof LauncherAppWidgetInfo) {
-                        LauncherAppWidgetInfo lawi = (LauncherAppWidgetInfo) info;
-                        if (lawi.hasRestoreFlag(LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY)) {
-                            packagesToIgnore.add(lawi.providerName.getPackageName());
-                        }
+            for (ItemInfo info : sBgDataModel.getSnapshot().items) {
+                if (info instanceof ShortcutInfo) {
+                    ShortcutInfo si = (ShortcutInfo) info;
+                    if (si.isPromise() && si.getTargetComponent() != null) {
+                        packagesToIgnore.add(si.getTargetComponent().getPackageName());
+                    }
+                } else if (info instanceof LauncherAppWidgetInfo) {
+                    LauncherAppWidgetInfo lawi = (LauncherAppWidgetInfo) info;
+                    if (lawi.hasRestoreFlag(LauncherAppWidgetInfo.FLAG_PROVIDER_NOT_READY)) {
+                        packagesToIgnore.add(lawi.providerName.getPackageName());
                     }
                 }
             }
@@ -1628,10 +1799,11 @@ public class LauncherModel extends BroadcastReceiver
                     = (ArrayList<AppInfo>) mBgAllAppsList.data.clone();
             Runnable r = new Runnable() {
                 public void run() {
-                    final long t = SystemClock.uptimeMillis();
                     final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
                     if (callbacks != null) {
+                        TraceHelper.beginSection("bindAllApplications");
                         callbacks.bindAllApplications(list);
+                        TraceHelper.endSection("bindAllApplications");
                     }
                 }
             };
@@ -1680,8 +1852,6 @@ public class LauncherModel extends BroadcastReceiver
         }
 
         private void loadAllApps() {
-            final long loadTime = 0;
-
             final Callbacks oldCallbacks = mCallbacks.get();
             if (oldCallbacks == null) {
                 // This launcher has exited and nobody bothered to tell us.  Just bail.
@@ -1694,8 +1864,7 @@ public class LauncherModel extends BroadcastReceiver
             mBgAllAppsList.clear();
             for (UserHandle user : profiles) {
                 // Query for the set of apps
-                final long qiaTime = 0;
-                final List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(null, user);
+                final List<LauncherActivityInfo> apps = mQueries.getActivityList(user);
 
                 // Fail if we don't have any apps
                 // TODO: Fix this. Only fail for the current user.
@@ -1721,12 +1890,11 @@ public class LauncherModel extends BroadcastReceiver
             // Post callback on main thread
             mHandler.post(new Runnable() {
                 public void run() {
-
-                    final long bindTime = SystemClock.uptimeMillis();
                     final Callbacks callbacks = tryGetCallbacks(oldCallbacks);
                     if (callbacks != null) {
+                        TraceHelper.beginSection("bindAllApplications");
                         callbacks.bindAllApplications(added);
-
+                        TraceHelper.endSection("bindAllApplications");
                     }
                 }
             });
@@ -1741,8 +1909,7 @@ public class LauncherModel extends BroadcastReceiver
             if (mHasShortcutHostPermission) {
                 for (UserHandle user : mUserManager.getUserProfiles()) {
                     if (mUserManager.isUserUnlocked(user)) {
-                        List<ShortcutInfoCompat> shortcuts =
-                                shortcutManager.queryForAllShortcuts(user);
+                        List<ShortcutInfoCompat> shortcuts = mQueries.getAllShortcuts(user);
                         sBgDataModel.updateDeepShortcutMap(null, user, shortcuts);
                     }
                 }
@@ -1787,6 +1954,36 @@ public class LauncherModel extends BroadcastReceiver
                 CacheDataUpdatedTask.OP_CACHE_UPDATE, user, updatedPackages));
     }
 
+    /**
+     * Writes the snapshot of the workspace which is bound on the next cold start.
+     */
+    public void writeModelSnapshot() {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                // The items are modified on the main thread, copy them here
+                final ModelSnapshot snapshot = ModelSnapshot.capture(sBgDataModel);
+                runOnWorkerThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mModelLoaded) {
+                            TraceHelper.beginSection("writeModelSnapshot");
+                            snapshot.write(mApp.getContext());
+                            TraceHelper.endSection("writeModelSnapshot");
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Called when packages have been hidden from or shown again in all apps.
+     */
+    public void onHiddenAppsChanged(Set<String> hiddenPackages, Set<String> shownPackages) {
+        enqueueModelUpdateTask(new HiddenAppsChangedTask(hiddenPackages, shownPackages));
+    }
+
     void enqueueModelUpdateTask(BaseModelUpdateTask task) {
         if (!mModelLoaded && mLoaderTask == null) {
             return;
@@ -1824,6 +2021,8 @@ public class LauncherModel extends BroadcastReceiver
                 // Loader has not yet run.
                 return;
             }
+            // Make sure that the task sees the pending item updates
+            ModelWriter.commitPendingUpdates();
             execute(mModel.mApp, sBgDataModel, mModel.mBgAllAppsList);
         }
 
@@ -1902,16 +2101,25 @@ public class LauncherModel extends BroadcastReceiver
                 if (bindFirst && !mBgWidgetsModel.isEmpty()) {
                     bindWidgetsModel(callbacks);
                 }
-                ArrayList<WidgetItem> widgets = mBgWidgetsModel.update(
-                        mApp.getContext(), packageUser);
-                bindWidgetsModel(callbacks);
-
-                // update the Widget entries inside DB on the worker thread.
-                mApp.getWidgetCache().removeObsoletePreviews(widgets, packageUser);
+                updateAndBindWidgetsModel(callbacks, packageUser,
+                        WidgetsModel.queryWidgetsAndShortcuts(mApp.getContext(), packageUser));
             }
         });
     }
 
+    @Thunk void updateAndBindWidgetsModel(Callbacks callbacks,
+            @Nullable PackageUserKey packageUser,
+            @Nullable ArrayList<WidgetItem> widgetsAndShortcuts) {
+        ArrayList<WidgetItem> widgets = mBgWidgetsModel.update(
+                mApp.getContext(), packageUser, widgetsAndShortcuts);
+        bindWidgetsModel(callbacks);
+
+        // update the Widget entries inside DB on the worker thread.
+        if (widgets != null) {
+            mApp.getWidgetCache().removeObsoletePreviews(widgets, packageUser);
+        }
+    }
+
     static boolean isValidProvider(AppWidgetProviderInfo provider) {
         return (provider != null) && (provider.provider != null)
                 && (provider.provider.getPackageName() != null);
@@ -1926,6 +2134,7 @@ public class LauncherModel extends BroadcastReceiver
             }
         }
         sBgDataModel.dump(prefix, fd, writer, args);
+        TraceHelper.dump(prefix, writer);
     }
 
     public Callbacks getCallback() {
@@ -1936,9 +2145,7 @@ public class LauncherModel extends BroadcastReceiver
      * @return {@link FolderInfo} if its already loaded.
      */
     public FolderInfo findFolderById(Long folderId) {
-        synchronized (sBgDataModel) {
-            return sBgDataModel.folders.get(folderId);
-        }
+        return sBgDataModel.getSnapshot().getFolder(folderId);
     }
 
     @Thunk private class DeferredMainThreadExecutor implements Executor {
@@ -64,11 +64,8 @@ public class MultiSelectRecyclerViewActivity extends Activity implements MultiSe
 
     private void updateHiddenApps() {
 
+        // The app filter picks up the change and updates the model
         mAdapter.addSelectionsToHideList(MultiSelectRecyclerViewActivity.this);
-        LauncherAppState appState = LauncherAppState.getInstanceNoCreate();
-        if (appState != null) {
-            appState.getModel().forceReload();
-        }
 
         finish();
     }
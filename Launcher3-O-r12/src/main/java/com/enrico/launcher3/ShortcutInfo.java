@@ -157,6 +157,23 @@ public class ShortcutInfo extends ItemInfoWithIcon {
         updateFromDeepShortcutInfo(shortcutInfo, context);
     }
 
+    /**
+     * Replaces all the data of this shortcut with the one of {@param info}, so that the views
+     * bound to this object can be kept.
+     */
+    public void updateFrom(ShortcutInfo info) {
+        copyFrom(info);
+        title = info.title;
+        iconBitmap = info.iconBitmap;
+        usingLowResIcon = info.usingLowResIcon;
+        intent = info.intent;
+        iconResource = info.iconResource;
+        status = info.status;
+        mInstallProgress = info.mInstallProgress;
+        isDisabled = info.isDisabled;
+        disabledMessage = info.disabledMessage;
+    }
+
     @Override
     public void onAddToDatabase(ContentWriter writer) {
         super.onAddToDatabase(writer);
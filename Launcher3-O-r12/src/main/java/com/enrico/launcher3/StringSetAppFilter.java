@@ -1,16 +1,64 @@
 package com.enrico.launcher3;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
-class StringSetAppFilter implements AppFilter {
+/**
+ * Hides the apps whose package is in the hidden-app set. The set is read once and then kept up to
+ * date by listening for preference changes, which only the changed packages are pushed through
+ * the model for.
+ */
+class StringSetAppFilter implements AppFilter, SharedPreferences.OnSharedPreferenceChangeListener {
+
+    private final Context mContext;
+
+    // Immutable snapshot of the hidden packages, replaced whenever the preference changes
+    private volatile Set<String> mHiddenApps;
+
+    StringSetAppFilter(Context context) {
+        mContext = context;
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mHiddenApps = readHiddenApps(prefs);
+        // The prefs only keep a weak reference to the listener, which is held by the model
+        prefs.registerOnSharedPreferenceChangeListener(this);
+    }
 
     @Override
     public boolean shouldShowApp(String packageName, Context context) {
+        return !mHiddenApps.contains(packageName);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (!HiddenAppUtils.KEY_HIDDEN_APPS_SET.equals(key)) {
+            return;
+        }
+        Set<String> oldHiddenApps = mHiddenApps;
+        Set<String> newHiddenApps = readHiddenApps(prefs);
+        mHiddenApps = newHiddenApps;
+
+        HashSet<String> hidden = new HashSet<>(newHiddenApps);
+        hidden.removeAll(oldHiddenApps);
+        HashSet<String> shown = new HashSet<>(oldHiddenApps);
+        shown.removeAll(newHiddenApps);
+        if (hidden.isEmpty() && shown.isEmpty()) {
+            return;
+        }
+
+        LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+        if (app != null) {
+            app.getModel().onHiddenAppsChanged(hidden, shown);
+        }
+    }
 
-        Set<String> hiddenApps = PreferenceManager.getDefaultSharedPreferences(context).getStringSet(HiddenAppUtils.KEY_HIDDEN_APPS_SET, null);
-        return hiddenApps == null || !hiddenApps.contains(packageName);
+    private static Set<String> readHiddenApps(SharedPreferences prefs) {
+        Set<String> hiddenApps = prefs.getStringSet(HiddenAppUtils.KEY_HIDDEN_APPS_SET, null);
+        return hiddenApps == null ? Collections.<String>emptySet()
+                : Collections.unmodifiableSet(new HashSet<>(hiddenApps));
     }
 }
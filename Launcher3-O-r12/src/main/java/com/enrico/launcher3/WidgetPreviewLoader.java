@@ -41,6 +41,7 @@ import com.enrico.launcher3.util.ComponentKey;
 import com.enrico.launcher3.util.PackageUserKey;
 import com.enrico.launcher3.util.SQLiteCacheHelper;
 import com.enrico.launcher3.util.Thunk;
+import com.enrico.launcher3.util.TraceHelper;
 import com.enrico.launcher3.widget.WidgetCell;
 
 import java.util.ArrayList;
@@ -147,7 +148,7 @@ public class WidgetPreviewLoader {
         values.put(CacheDb.COLUMN_VERSION, versions[0]);
         values.put(CacheDb.COLUMN_LAST_UPDATED, versions[1]);
         values.put(CacheDb.COLUMN_PREVIEW_BITMAP, Utilities.flattenBitmap(preview));
-        mDb.insertOrReplace(values);
+        mDb.insertOrReplaceInBatch(values);
     }
 
     public void removePackage(String packageName, UserHandle user) {
@@ -191,6 +192,8 @@ public class WidgetPreviewLoader {
         LongSparseArray<HashSet<String>> packagesToDelete = new LongSparseArray<>();
         long passedUserId = packageUser == null ? 0
                 : mUserManager.getSerialNumberForUser(packageUser.mUser);
+        // The scan below must see every row, this runs on the worker thread
+        mDb.commitBatch();
         Cursor c = null;
         try {
             c = mDb.query(
@@ -247,32 +250,34 @@ public class WidgetPreviewLoader {
      * Reads the preview bitmap from the DB or null if the preview is not in the DB.
      */
     @Thunk private Bitmap readFromDb(WidgetCacheKey key, Bitmap recycle, PreviewLoadTask loadTask) {
+        String[] keyColumns = new String[]{
+                CacheDb.COLUMN_COMPONENT, CacheDb.COLUMN_USER, CacheDb.COLUMN_SIZE};
+        String[] keyValues = new String[]{
+                key.componentName.flattenToShortString(),
+                Long.toString(mUserManager.getSerialNumberForUser(key.user)),
+                key.size
+        };
+
+        // Previews generated while scrolling may not be committed yet
+        ContentValues pending = mDb.getPendingRow(keyColumns, keyValues);
+        if (pending != null) {
+            return decodePreview(
+                    pending.getAsByteArray(CacheDb.COLUMN_PREVIEW_BITMAP), recycle, loadTask);
+        }
+
         Cursor cursor = null;
         try {
             cursor = mDb.query(
                     new String[]{CacheDb.COLUMN_PREVIEW_BITMAP},
-                    CacheDb.COLUMN_COMPONENT + " = ? AND " + CacheDb.COLUMN_USER + " = ? AND "
-                            + CacheDb.COLUMN_SIZE + " = ?",
-                    new String[]{
-                            key.componentName.flattenToShortString(),
-                            Long.toString(mUserManager.getSerialNumberForUser(key.user)),
-                            key.size
-                    });
+                    keyColumns[0] + " = ? AND " + keyColumns[1] + " = ? AND "
+                            + keyColumns[2] + " = ?",
+                    keyValues);
             // If cancelled, skip getting the blob and decoding it into a bitmap
             if (loadTask.isCancelled()) {
                 return null;
             }
             if (cursor.moveToNext()) {
-                byte[] blob = cursor.getBlob(0);
-                BitmapFactory.Options opts = new BitmapFactory.Options();
-                opts.inBitmap = recycle;
-                try {
-                    if (!loadTask.isCancelled()) {
-                        return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
-                    }
-                } catch (Exception e) {
-                    return null;
-                }
+                return decodePreview(cursor.getBlob(0), recycle, loadTask);
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -284,6 +289,19 @@ public class WidgetPreviewLoader {
         return null;
     }
 
+    private Bitmap decodePreview(byte[] blob, Bitmap recycle, PreviewLoadTask loadTask) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inBitmap = recycle;
+        try {
+            if (!loadTask.isCancelled()) {
+                return BitmapFactory.decodeByteArray(blob, 0, blob.length, opts);
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        return null;
+    }
+
     private Bitmap generatePreview(BaseActivity launcher, WidgetItem item, Bitmap recycle,
             int previewWidth, int previewHeight) {
         if (item.widgetInfo != null) {
@@ -590,7 +608,9 @@ public class WidgetPreviewLoader {
                         : null;
 
                 // it's not in the db... we need to generate it
+                TraceHelper.beginSystraceSection("generatePreview");
                 preview = generatePreview(mActivity, mInfo, unusedBitmap, mPreviewWidth, mPreviewHeight);
+                TraceHelper.endSection("generatePreview");
             }
             return preview;
         }
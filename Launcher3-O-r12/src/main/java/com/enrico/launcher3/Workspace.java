@@ -252,6 +252,8 @@ public class Workspace extends PagedView
     public static final int REORDER_TIMEOUT = 350;
     private final Alarm mFolderCreationAlarm = new Alarm();
     private final Alarm mReorderAlarm = new Alarm();
+    private final ReorderAlarmListener mReorderAlarmListener = new ReorderAlarmListener();
+    private final int[] mTempReorderSpan = new int[2];
     private FolderIcon.PreviewBackground mFolderCreateBg;
     private FolderIcon mDragOverFolderIcon = null;
     private boolean mCreateUserFolderOnDrop = false;
@@ -2926,16 +2928,14 @@ public class Workspace extends PagedView
                     && !mReorderAlarm.alarmPending() && (mLastReorderX != reorderX ||
                     mLastReorderY != reorderY)) {
 
-                int[] resultSpan = new int[2];
                 mDragTargetLayout.performReorder((int) mDragViewVisualCenter[0],
                         (int) mDragViewVisualCenter[1], minSpanX, minSpanY, item.spanX, item.spanY,
-                        child, mTargetCell, resultSpan, CellLayout.MODE_SHOW_REORDER_HINT);
+                        child, mTargetCell, mTempReorderSpan, CellLayout.MODE_SHOW_REORDER_HINT);
 
                 // Otherwise, if we aren't adding to or creating a folder and there's no pending
                 // reorder, then we schedule a reorder
-                ReorderAlarmListener listener = new ReorderAlarmListener(mDragViewVisualCenter,
-                        minSpanX, minSpanY, item.spanX, item.spanY, d, child);
-                mReorderAlarm.setOnAlarmListener(listener);
+                mReorderAlarmListener.set(minSpanX, minSpanY, item.spanX, item.spanY, d, child);
+                mReorderAlarm.setOnAlarmListener(mReorderAlarmListener);
                 mReorderAlarm.setAlarm(REORDER_TIMEOUT);
             }
 
@@ -3092,15 +3092,18 @@ public class Workspace extends PagedView
         }
     }
 
+    /**
+     * Performs the reorder once the drag has rested over a cell. A single instance is reused for
+     * every drag over event, as the alarm is only set when it is not pending.
+     */
     private class ReorderAlarmListener implements OnAlarmListener {
-        float[] dragViewCenter;
         int minSpanX, minSpanY, spanX, spanY;
         DragObject dragObject;
         View child;
+        final int[] resultSpan = new int[2];
 
-        ReorderAlarmListener(float[] dragViewCenter, int minSpanX, int minSpanY, int spanX,
-                int spanY, DragObject dragObject, View child) {
-            this.dragViewCenter = dragViewCenter;
+        void set(int minSpanX, int minSpanY, int spanX, int spanY, DragObject dragObject,
+                View child) {
             this.minSpanX = minSpanX;
             this.minSpanY = minSpanY;
             this.spanX = spanX;
@@ -3110,7 +3113,6 @@ public class Workspace extends PagedView
         }
 
         public void onAlarm(Alarm alarm) {
-            int[] resultSpan = new int[2];
             mTargetCell = findNearestArea((int) mDragViewVisualCenter[0],
                     (int) mDragViewVisualCenter[1], minSpanX, minSpanY, mDragTargetLayout,
                     mTargetCell);
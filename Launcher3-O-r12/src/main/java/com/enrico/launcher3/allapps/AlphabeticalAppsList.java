@@ -16,16 +16,19 @@
 package com.enrico.launcher3.allapps;
 
 import android.content.Context;
+import android.support.v7.util.DiffUtil;
 
 import com.enrico.launcher3.AppInfo;
 import com.enrico.launcher3.Launcher;
-import com.enrico.launcher3.compat.AlphabeticIndexCompat;
+import com.enrico.launcher3.LauncherAppState;
+import com.enrico.launcher3.util.AppTitleSortKeys;
 import com.enrico.launcher3.util.ComponentKey;
 import com.enrico.launcher3.util.LabelComparator;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -36,6 +39,9 @@ import java.util.TreeMap;
  */
 class AlphabeticalAppsList {
 
+    // Updates with more apps than this are resorted instead of inserted one by one
+    private static final int MAX_APPS_FOR_SORTED_INSERT = 10;
+
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_ROWS_FRACTION = 0;
     private static final int FAST_SCROLL_FRACTION_DISTRIBUTE_BY_NUM_SECTIONS = 1;
 
@@ -126,6 +132,8 @@ class AlphabeticalAppsList {
     // The set of apps from the system
     private final List<AppInfo> mApps = new ArrayList<>();
     private final HashMap<ComponentKey, AppInfo> mComponentToAppMap = new HashMap<>();
+    // The word-boundary prefix index used by the search, kept in sync with the set of apps
+    private final AppSearchIndex<ComponentKey> mSearchIndex = new AppSearchIndex<>();
 
     // The set of filtered apps with the current filter
     private final List<AppInfo> mFilteredApps = new ArrayList<>();
@@ -133,19 +141,20 @@ class AlphabeticalAppsList {
     private final ArrayList<AdapterItem> mAdapterItems = new ArrayList<>();
     // The set of sections that we allow fast-scrolling to (includes non-merged sections)
     private final List<FastScrollSectionInfo> mFastScrollerSections = new ArrayList<>();
+    // The apps which were updated since the adapter items were last computed, and need rebinding
+    private final HashSet<ComponentKey> mUpdatedApps = new HashSet<>();
 
     // The of ordered component names as a result of a search query
     private ArrayList<ComponentKey> mSearchResults;
-    private HashMap<CharSequence, String> mCachedSectionNames = new HashMap<>();
     private AllAppsGridAdapter mAdapter;
-    private AlphabeticIndexCompat mIndexer;
+    private AppTitleSortKeys mTitleSortKeys;
     private AppInfoComparator mAppNameComparator;
     private int mNumAppsPerRow;
     private int mNumAppRowsInAdapter;
 
     AlphabeticalAppsList(Context context) {
         mLauncher = Launcher.getLauncher(context);
-        mIndexer = new AlphabeticIndexCompat(context);
+        mTitleSortKeys = LauncherAppState.getInstance(context).getIconCache().getTitleSortKeys();
         mAppNameComparator = new AppInfoComparator(context);
     }
 
@@ -155,7 +164,12 @@ class AlphabeticalAppsList {
     void setNumAppsPerRow(int numAppsPerRow) {
         mNumAppsPerRow = numAppsPerRow;
 
-        updateAdapterItems();
+        // The items stay the same but all the rows change, so rebind everything
+        refillAdapterItems();
+        mUpdatedApps.clear();
+        if (mAdapter != null) {
+            mAdapter.notifyDataSetChanged();
+        }
     }
 
     /**
@@ -172,6 +186,13 @@ class AlphabeticalAppsList {
         return mApps;
     }
 
+    /**
+     * Returns the search index over the titles of all the apps.
+     */
+    AppSearchIndex<ComponentKey> getSearchIndex() {
+        return mSearchIndex;
+    }
+
     /**
      * Returns fast scroller sections of all the current filtered applications.
      */
@@ -225,7 +246,9 @@ class AlphabeticalAppsList {
         if (mSearchResults != f) {
             boolean same = mSearchResults != null && mSearchResults.equals(f);
             mSearchResults = f;
-            updateAdapterItems();
+            // Search results change on every key stroke, detecting moves between them is
+            // quadratic in the number of apps
+            updateAdapterItems(false);
             return !same;
         }
         return false;
@@ -236,6 +259,8 @@ class AlphabeticalAppsList {
      */
     public void setApps(List<AppInfo> apps) {
         mComponentToAppMap.clear();
+        mSearchIndex.clear();
+        mApps.clear();
         addApps(apps);
     }
 
@@ -250,8 +275,28 @@ class AlphabeticalAppsList {
      * Updates existing apps in the list
      */
     void updateApps(List<AppInfo> apps) {
+        // Small updates are inserted in place in the sorted list, larger ones are resorted. With
+        // coalesced sections, the list is always resorted in onAppsUpdated().
+        boolean coalesceSections = localeRequiresSectionSorting();
+        boolean resort = coalesceSections || apps.size() > MAX_APPS_FOR_SORTED_INSERT;
         for (AppInfo app : apps) {
-            mComponentToAppMap.put(app.toComponentKey(), app);
+            ComponentKey key = app.toComponentKey();
+            AppInfo oldApp = mComponentToAppMap.put(key, app);
+            if (oldApp != null && !resort) {
+                removeSorted(oldApp);
+            }
+            // The title may have changed in place, so the key is only updated once the app is
+            // out of the sorted list
+            mTitleSortKeys.update(app);
+            mSearchIndex.addOrUpdate(key, app.title);
+            mUpdatedApps.add(key);
+        }
+        if (!resort) {
+            for (AppInfo app : apps) {
+                insertSorted(app);
+            }
+        } else if (!coalesceSections) {
+            sortApps();
         }
         onAppsUpdated();
     }
@@ -261,7 +306,12 @@ class AlphabeticalAppsList {
      */
     void removeApps(List<AppInfo> apps) {
         for (AppInfo app : apps) {
-            mComponentToAppMap.remove(app.toComponentKey());
+            ComponentKey key = app.toComponentKey();
+            AppInfo oldApp = mComponentToAppMap.remove(key);
+            if (oldApp != null) {
+                removeSorted(oldApp);
+            }
+            mSearchIndex.remove(key);
         }
         onAppsUpdated();
     }
@@ -270,22 +320,17 @@ class AlphabeticalAppsList {
      * Updates internals when the set of apps are updated.
      */
     private void onAppsUpdated() {
-        // Sort the list of apps
-        mApps.clear();
-        mApps.addAll(mComponentToAppMap.values());
-        Collections.sort(mApps, mAppNameComparator);
-
         // As a special case for some languages (currently only Simplified Chinese), we may need to
         // coalesce sections
-        Locale curLocale = mLauncher.getResources().getConfiguration().locale;
-        boolean localeRequiresSectionSorting = curLocale.equals(Locale.SIMPLIFIED_CHINESE);
-        if (localeRequiresSectionSorting) {
+        if (localeRequiresSectionSorting()) {
+            // Start again from the sorted list of apps since the sections were coalesced before
+            sortApps();
+
             // Compute the section headers. We use a TreeMap with the section name comparator to
             // ensure that the sections are ordered when we iterate over it later
             TreeMap<String, ArrayList<AppInfo>> sectionMap = new TreeMap<>(new LabelComparator());
             for (AppInfo info : mApps) {
-                // Add the section to the cache
-                String sectionName = getAndUpdateCachedSectionName(info.title);
+                String sectionName = info.sectionName;
 
                 // Add it to the mapping
                 ArrayList<AppInfo> sectionApps = sectionMap.get(sectionName);
@@ -301,30 +346,127 @@ class AlphabeticalAppsList {
             for (Map.Entry<String, ArrayList<AppInfo>> entry : sectionMap.entrySet()) {
                 mApps.addAll(entry.getValue());
             }
-        } else {
-            // Just compute the section headers for use below
-            for (AppInfo info : mApps) {
-                // Add the section to the cache
-                getAndUpdateCachedSectionName(info.title);
-            }
         }
 
         // Recompose the set of adapter items from the current set of apps
-        updateAdapterItems();
+        updateAdapterItems(!hasFilter());
+    }
+
+    private void sortApps() {
+        mApps.clear();
+        mApps.addAll(mComponentToAppMap.values());
+        Collections.sort(mApps, mAppNameComparator);
+    }
+
+    private boolean localeRequiresSectionSorting() {
+        Locale curLocale = mLauncher.getResources().getConfiguration().locale;
+        return curLocale.equals(Locale.SIMPLIFIED_CHINESE);
+    }
+
+    /**
+     * Inserts the app at its position in the sorted list of apps.
+     */
+    private void insertSorted(AppInfo app) {
+        int index = Collections.binarySearch(mApps, app, mAppNameComparator);
+        mApps.add(index < 0 ? -index - 1 : index, app);
+    }
+
+    /**
+     * Removes the app from the sorted list of apps.
+     */
+    private void removeSorted(AppInfo app) {
+        int index = Collections.binarySearch(mApps, app, mAppNameComparator);
+        if (index < 0 || mApps.get(index) != app) {
+            // The app was not found at its sorted position, like after a locale change
+            index = mApps.indexOf(app);
+        }
+        if (index >= 0) {
+            mApps.remove(index);
+        }
     }
 
     /**
      * Updates the set of filtered apps with the current filter.  At this point, we expect
-     * mCachedSectionNames to have been calculated for the set of all apps in mApps.
+     * the section names to have been calculated for the set of all apps in mApps.
+     *
+     * @param detectMoves whether the apps which moved are animated to their new position, instead
+     *        of being removed and inserted again
      */
-    private void updateAdapterItems() {
+    private void updateAdapterItems(boolean detectMoves) {
+        ArrayList<AdapterItem> oldItems = new ArrayList<>(mAdapterItems);
         refillAdapterItems();
-        refreshRecyclerView();
+        refreshRecyclerView(oldItems, detectMoves);
     }
 
-    private void refreshRecyclerView() {
+    private void refreshRecyclerView(List<AdapterItem> oldItems, boolean detectMoves) {
         if (mAdapter != null) {
-            mAdapter.notifyDataSetChanged();
+            if (oldItems.isEmpty()) {
+                mAdapter.notifyDataSetChanged();
+            } else {
+                // Only notify the items which actually changed, so that the views of the other
+                // items are reused without being rebound
+                DiffUtil.calculateDiff(new AdapterItemDiffCallback(oldItems, mAdapterItems,
+                        mUpdatedApps), detectMoves).dispatchUpdatesTo(mAdapter);
+            }
+        }
+        mUpdatedApps.clear();
+    }
+
+    /**
+     * Compares two lists of adapter items. App items are the same if they hold the same app, and
+     * their contents only change if the app was updated in between.
+     */
+    private static class AdapterItemDiffCallback extends DiffUtil.Callback {
+
+        private final List<AdapterItem> mOldItems;
+        private final List<AdapterItem> mNewItems;
+        private final HashSet<ComponentKey> mUpdatedApps;
+
+        AdapterItemDiffCallback(List<AdapterItem> oldItems, List<AdapterItem> newItems,
+                HashSet<ComponentKey> updatedApps) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+            mUpdatedApps = updatedApps;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            AdapterItem oldItem = mOldItems.get(oldItemPosition);
+            AdapterItem newItem = mNewItems.get(newItemPosition);
+            if (oldItem.viewType != newItem.viewType) {
+                return false;
+            }
+            if (oldItem.appInfo == null || newItem.appInfo == null) {
+                return oldItem.appInfo == newItem.appInfo;
+            }
+            return oldItem.appInfo.componentName.equals(newItem.appInfo.componentName)
+                    && oldItem.appInfo.user.equals(newItem.appInfo.user);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            AdapterItem newItem = mNewItems.get(newItemPosition);
+            switch (newItem.viewType) {
+                case AllAppsGridAdapter.VIEW_TYPE_ICON:
+                    return mOldItems.get(oldItemPosition).appInfo == newItem.appInfo
+                            && !mUpdatedApps.contains(newItem.appInfo.toComponentKey());
+                case AllAppsGridAdapter.VIEW_TYPE_SEARCH_DIVIDER:
+                case AllAppsGridAdapter.VIEW_TYPE_SEARCH_MARKET_DIVIDER:
+                    return true;
+                default:
+                    // The empty search message and the market search depend on the query
+                    return false;
+            }
         }
     }
 
@@ -345,7 +487,7 @@ class AlphabeticalAppsList {
         // Recreate the filtered and sectioned apps (for convenience for the grid layout) from the
         // ordered set of sections
         for (AppInfo info : getFiltersAppInfos()) {
-            String sectionName = getAndUpdateCachedSectionName(info.title);
+            String sectionName = info.sectionName;
 
             // Create a new section if the section names do not match
             if (!sectionName.equals(lastSectionName)) {
@@ -441,22 +583,9 @@ class AlphabeticalAppsList {
                 result.add(match);
             }
         }
-        Collections.sort(result, mAppNameComparator);
+        // Keep the order of the search results, which are ranked by relevance. The fast scroller
+        // is disabled while searching, so the sections built from this order are not scrolled to.
 
         return result;
     }
-
-    /**
-     * Returns the cached section name for the given title, recomputing and updating the cache if
-     * the title has no cached section name.
-     */
-    private String getAndUpdateCachedSectionName(CharSequence title) {
-        String sectionName = mCachedSectionNames.get(title);
-        if (sectionName == null) {
-            sectionName = mIndexer.computeSectionName(title);
-            mCachedSectionNames.put(title, sectionName);
-        }
-        return sectionName;
-    }
-
 }
@@ -21,7 +21,7 @@ import android.os.UserHandle;
 
 import com.enrico.launcher3.AppInfo;
 import com.enrico.launcher3.compat.UserManagerCompat;
-import com.enrico.launcher3.util.LabelComparator;
+import com.enrico.launcher3.util.AppTitleSortKeys;
 
 import java.util.Comparator;
 
@@ -32,18 +32,16 @@ class AppInfoComparator implements Comparator<AppInfo> {
 
     private final UserManagerCompat mUserManager;
     private final UserHandle mMyUser;
-    private final LabelComparator mLabelComparator;
 
     AppInfoComparator(Context context) {
         mUserManager = UserManagerCompat.getInstance(context);
         mMyUser = Process.myUserHandle();
-        mLabelComparator = new LabelComparator();
     }
 
     @Override
     public int compare(AppInfo a, AppInfo b) {
-        // Order by the title in the current locale
-        int result = mLabelComparator.compare(a.title.toString(), b.title.toString());
+        // Order by the precomputed title sort keys
+        int result = AppTitleSortKeys.compareTitles(a, b);
         if (result != 0) {
             return result;
         }
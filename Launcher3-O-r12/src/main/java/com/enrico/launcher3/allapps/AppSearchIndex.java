@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enrico.launcher3.allapps;
+
+import com.enrico.launcher3.allapps.AppTitleNormalizer.SearchTitle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A word-boundary prefix index over the app titles. Every title is folded with
+ * {@link AppTitleNormalizer} and split at the search break points, and each suffix starting at a
+ * break point is kept in a sorted map, so that a query is a range lookup instead of a scan over
+ * all the apps. Matches are scored so that the best ones can be shown first.
+ *
+ * The index is updated on the UI thread and queried on the search thread, so all access to it is
+ * synchronized on the index.
+ *
+ * @param <K> the key of the apps, a {@link com.enrico.launcher3.util.ComponentKey} in the
+ *        launcher
+ */
+class AppSearchIndex<K> {
+
+    // Match scores, higher is better
+    static final int SCORE_NONE = 0;
+    static final int SCORE_FUZZY = 10;
+    static final int SCORE_WORD_START = 20;
+    static final int SCORE_PREFIX = 30;
+
+    // Minimum query length for allowing one and two typos respectively
+    private static final int MIN_QUERY_LENGTH_ONE_TYPO = 3;
+    private static final int MIN_QUERY_LENGTH_TWO_TYPOS = 6;
+
+    // Sorted break-point suffixes to the components whose title contains them
+    private final TreeMap<String, ArrayList<K>> mSuffixToKeys = new TreeMap<>();
+    // The search titles of the indexed apps, which the suffixes were computed from
+    private final HashMap<K, SearchTitle> mKeyToTitle = new HashMap<>();
+    // Incremented on every change so that cached search results can detect they are stale
+    private int mVersion;
+
+    // Rows reused by the edit distance computation
+    private int[] mPrevPrevRow = new int[0];
+    private int[] mPrevRow = new int[0];
+    private int[] mRow = new int[0];
+
+    /**
+     * Adds the app to the index, replacing any entries for a previous title.
+     */
+    synchronized void addOrUpdate(K key, CharSequence title) {
+        remove(key);
+        mVersion++;
+
+        SearchTitle searchTitle = AppTitleNormalizer.getSearchTitle(title);
+        mKeyToTitle.put(key, searchTitle);
+        for (int start : searchTitle.wordStarts) {
+            String suffix = searchTitle.text.substring(start);
+            ArrayList<K> keys = mSuffixToKeys.get(suffix);
+            if (keys == null) {
+                keys = new ArrayList<>(1);
+                mSuffixToKeys.put(suffix, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Removes all the entries for the given component.
+     */
+    synchronized void remove(K key) {
+        SearchTitle searchTitle = mKeyToTitle.remove(key);
+        if (searchTitle == null) {
+            return;
+        }
+        mVersion++;
+        for (int start : searchTitle.wordStarts) {
+            String suffix = searchTitle.text.substring(start);
+            ArrayList<K> keys = mSuffixToKeys.get(suffix);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    mSuffixToKeys.remove(suffix);
+                }
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mSuffixToKeys.clear();
+        mKeyToTitle.clear();
+        mVersion++;
+    }
+
+    /**
+     * Returns the number of indexed components.
+     */
+    synchronized int size() {
+        return mKeyToTitle.size();
+    }
+
+    synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns the search title of the component, or null if it is not indexed.
+     */
+    synchronized String getSearchTitle(K key) {
+        SearchTitle searchTitle = mKeyToTitle.get(key);
+        return searchTitle == null ? null : searchTitle.text;
+    }
+
+    /**
+     * Returns the components which have a word in their title starting with the normalized query.
+     */
+    synchronized ArrayList<K> lookup(String query) {
+        ArrayList<K> result = new ArrayList<>();
+        if (query.isEmpty()) {
+            return result;
+        }
+        HashSet<K> seen = new HashSet<>();
+        for (Map.Entry<String, ArrayList<K>> entry
+                : mSuffixToKeys.tailMap(query, true).entrySet()) {
+            if (!entry.getKey().startsWith(query)) {
+                break;
+            }
+            for (K key : entry.getValue()) {
+                if (seen.add(key)) {
+                    result.add(key);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@link #SCORE_PREFIX} if the title starts with the normalized query,
+     * {@link #SCORE_WORD_START} if another word of the title does and {@link #SCORE_NONE}
+     * otherwise.
+     */
+    synchronized int getExactScore(K key, String query) {
+        SearchTitle searchTitle = mKeyToTitle.get(key);
+        if (searchTitle == null || query.isEmpty()) {
+            return SCORE_NONE;
+        }
+        String title = searchTitle.text;
+        if (title.startsWith(query)) {
+            return SCORE_PREFIX;
+        }
+        for (int start : searchTitle.wordStarts) {
+            if (title.startsWith(query, start)) {
+                return SCORE_WORD_START;
+            }
+        }
+        return SCORE_NONE;
+    }
+
+    /**
+     * Returns the number of typos allowed in the normalized query.
+     */
+    static int getMaxTypos(String query) {
+        return query.length() >= MIN_QUERY_LENGTH_TWO_TYPOS ? 2
+                : query.length() >= MIN_QUERY_LENGTH_ONE_TYPO ? 1 : 0;
+    }
+
+    /**
+     * Adds the components which do not match the normalized query exactly but have a word
+     * starting within {@link #getMaxTypos} typos of it to {@param outKeys}, and their scores to
+     * {@param outScores} at the same positions. Fewer typos score higher but always below
+     * {@link #SCORE_WORD_START}. {@param outScores} must have room for {@link #size()} more
+     * scores.
+     *
+     * @param candidates the components to check, or null to check all the indexed ones
+     * @param exclude the exact matches of the query, which are not added again
+     */
+    synchronized void addFuzzyMatches(String query, List<K> candidates, List<K> exclude,
+            ArrayList<K> outKeys, int[] outScores) {
+        int maxTypos = getMaxTypos(query);
+        if (maxTypos == 0) {
+            return;
+        }
+        Iterable<K> keys = candidates != null ? candidates : mKeyToTitle.keySet();
+        for (K key : keys) {
+            SearchTitle searchTitle = mKeyToTitle.get(key);
+            if (searchTitle == null) {
+                continue;
+            }
+            int bestTypos = maxTypos + 1;
+            for (int start : searchTitle.wordStarts) {
+                bestTypos = Math.min(bestTypos,
+                        prefixEditDistance(query, searchTitle.text, start, bestTypos - 1));
+                if (bestTypos == 0) {
+                    break;
+                }
+            }
+            if (bestTypos <= maxTypos && !exclude.contains(key)) {
+                outScores[outKeys.size()] = SCORE_FUZZY - bestTypos;
+                outKeys.add(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest number of edits (insertions, deletions, substitutions and adjacent
+     * transpositions) turning the query into a prefix of the title starting at {@param start},
+     * or {@param maxEdits} + 1 if it is more than {@param maxEdits}.
+     */
+    private int prefixEditDistance(String query, String title, int start, int maxEdits) {
+        int queryLength = query.length();
+        int textLength = Math.min(title.length() - start, queryLength + maxEdits);
+        if (textLength < queryLength - maxEdits) {
+            return maxEdits + 1;
+        }
+        ensureRowCapacity(queryLength + 1);
+
+        // Each row holds the edit distances of the query prefixes to the title prefix of length j
+        for (int i = 0; i <= queryLength; i++) {
+            mPrevRow[i] = i;
+        }
+        int best = mPrevRow[queryLength];
+        for (int j = 1; j <= textLength; j++) {
+            char t = title.charAt(start + j - 1);
+            mRow[0] = j;
+            int rowMin = mRow[0];
+            for (int i = 1; i <= queryLength; i++) {
+                char q = query.charAt(i - 1);
+                int cost = q == t ? 0 : 1;
+                int value = Math.min(Math.min(mRow[i - 1] + 1, mPrevRow[i] + 1),
+                        mPrevRow[i - 1] + cost);
+                if (i > 1 && j > 1 && q == title.charAt(start + j - 2)
+                        && query.charAt(i - 2) == t) {
+                    value = Math.min(value, mPrevPrevRow[i - 2] + 1);
+                }
+                mRow[i] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            best = Math.min(best, mRow[queryLength]);
+            if (rowMin > maxEdits) {
+                break;
+            }
+
+            int[] recycled = mPrevPrevRow;
+            mPrevPrevRow = mPrevRow;
+            mPrevRow = mRow;
+            mRow = recycled;
+        }
+        return Math.min(best, maxEdits + 1);
+    }
+
+    private void ensureRowCapacity(int capacity) {
+        if (mRow.length < capacity) {
+            mPrevPrevRow = new int[capacity];
+            mPrevRow = new int[capacity];
+            mRow = new int[capacity];
+        }
+    }
+
+    /**
+     * Returns true if the current point should be a break point. Following cases
+     * are considered as break points:
+     *      1) Any non space character after a space character
+     *      2) Any digit after a non-digit character
+     *      3) Any capital character after a digit or small character
+     *      4) Any capital character before a small character
+     */
+    static boolean isBreak(int thisType, int prevType, int nextType) {
+        switch (thisType) {
+            case Character.UPPERCASE_LETTER:
+                if (nextType == Character.UPPERCASE_LETTER) {
+                    return true;
+                }
+                // Follow through
+            case Character.TITLECASE_LETTER:
+                // Break point if previous was not a upper case
+                return prevType != Character.UPPERCASE_LETTER;
+            case Character.LOWERCASE_LETTER:
+                // Break point if previous was not a letter.
+                return prevType > Character.OTHER_LETTER || prevType <= Character.UNASSIGNED;
+            case Character.DECIMAL_DIGIT_NUMBER:
+            case Character.LETTER_NUMBER:
+            case Character.OTHER_NUMBER:
+                // Break point if previous was not a number
+                return !(prevType == Character.DECIMAL_DIGIT_NUMBER
+                        || prevType == Character.LETTER_NUMBER
+                        || prevType == Character.OTHER_NUMBER);
+            case Character.MATH_SYMBOL:
+            case Character.CURRENCY_SYMBOL:
+            case Character.OTHER_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+                // Always a break point for a symbol
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enrico.launcher3.allapps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Matches a query against the {@link AppSearchIndex}. Results are ordered by how well the title
+ * matches: title prefix, then word prefix, then matches with typos. Used by
+ * {@link DefaultAppSearchAlgorithm} on its search thread, it does not depend on the Android
+ * framework so that it can be benchmarked on the JVM.
+ *
+ * @param <K> the key of the apps in the index
+ */
+class AppSearchMatcher<K> {
+
+    // Below this number of exact matches, apps matching with typos are included as well
+    private static final int MAX_RESULTS_FOR_FUZZY_SEARCH = 5;
+
+    private final AppSearchIndex<K> mIndex;
+
+    // The last query and its matches, used to narrow down the search as the query is extended.
+    private String mLastQuery;
+    private ArrayList<K> mLastExactResult;
+    private int mLastIndexVersion;
+
+    // The apps within the allowed typos of a query, used to narrow down the fuzzy search as that
+    // query is extended: an app further from the query is also further from its extensions.
+    private String mFuzzyQuery;
+    private ArrayList<K> mFuzzyCandidates;
+    private int mFuzzyMaxTypos;
+    private int mFuzzyIndexVersion;
+
+    // The matches of the current query, and their scores at the same positions
+    private final ArrayList<K> mMatches = new ArrayList<>();
+    private int[] mScores = new int[0];
+
+    // Orders the matches which have the same score by title and then by key
+    private final Comparator<K> mTitleComparator;
+
+    /**
+     * @param keyComparator orders the matches which have the same score and title
+     */
+    AppSearchMatcher(AppSearchIndex<K> index, final Comparator<K> keyComparator) {
+        mIndex = index;
+        mTitleComparator = new Comparator<K>() {
+            @Override
+            public int compare(K a, K b) {
+                int result = mIndex.getSearchTitle(a).compareTo(mIndex.getSearchTitle(b));
+                if (result != 0) {
+                    return result;
+                }
+                return keyComparator.compare(a, b);
+            }
+        };
+    }
+
+    ArrayList<K> getTitleMatchResult(String query) {
+        final String queryText = AppTitleNormalizer.normalizeQuery(query);
+        final ArrayList<K> exactResult = new ArrayList<>();
+        final ArrayList<K> result;
+        synchronized (mIndex) {
+            final ArrayList<K> candidates;
+            if (mLastQuery != null && mLastIndexVersion == mIndex.getVersion()
+                    && queryText.startsWith(mLastQuery)) {
+                // The query was extended, so the new matches are a subset of the previous ones.
+                candidates = mLastExactResult;
+            } else {
+                // Look up the apps which have a word in their title starting with the query.
+                candidates = mIndex.lookup(queryText);
+            }
+
+            // Every candidate and every other indexed app may match
+            int capacity = candidates.size() + mIndex.size();
+            if (mScores.length < capacity) {
+                mScores = new int[capacity];
+            }
+            mMatches.clear();
+            for (K key : candidates) {
+                int score = mIndex.getExactScore(key, queryText);
+                if (score != AppSearchIndex.SCORE_NONE) {
+                    exactResult.add(key);
+                    mScores[mMatches.size()] = score;
+                    mMatches.add(key);
+                }
+            }
+            int maxTypos = AppSearchIndex.getMaxTypos(queryText);
+            if (exactResult.size() < MAX_RESULTS_FOR_FUZZY_SEARCH && maxTypos > 0) {
+                // Likely a typo, also include the apps which almost match. Only the apps which
+                // almost matched a shorter query with as many typos allowed are checked, and all
+                // of them otherwise.
+                boolean narrow = mFuzzyQuery != null
+                        && mFuzzyIndexVersion == mIndex.getVersion()
+                        && queryText.startsWith(mFuzzyQuery) && maxTypos <= mFuzzyMaxTypos;
+                int fuzzyStart = mMatches.size();
+                mIndex.addFuzzyMatches(queryText, narrow ? mFuzzyCandidates : null, exactResult,
+                        mMatches, mScores);
+
+                // The exact matches are within the typos as well.
+                mFuzzyCandidates = new ArrayList<>(exactResult);
+                mFuzzyCandidates.addAll(mMatches.subList(fuzzyStart, mMatches.size()));
+                mFuzzyQuery = queryText;
+                mFuzzyMaxTypos = maxTypos;
+                mFuzzyIndexVersion = mIndex.getVersion();
+            }
+
+            result = sortByScore();
+            mMatches.clear();
+            mLastIndexVersion = mIndex.getVersion();
+        }
+
+        mLastQuery = queryText;
+        mLastExactResult = exactResult;
+        return result;
+    }
+
+    /**
+     * Returns the matches ordered by descending score, then by title and then by key. There are
+     * only a few distinct scores, so the matches are bucketed by score and each bucket is sorted.
+     */
+    private ArrayList<K> sortByScore() {
+        int count = mMatches.size();
+        ArrayList<K> result = new ArrayList<>(count);
+        for (int score = AppSearchIndex.SCORE_PREFIX; score > AppSearchIndex.SCORE_NONE
+                && result.size() < count; score--) {
+            int bucketStart = result.size();
+            for (int i = 0; i < count; i++) {
+                if (mScores[i] == score) {
+                    result.add(mMatches.get(i));
+                }
+            }
+            if (result.size() - bucketStart > 1) {
+                Collections.sort(result.subList(bucketStart, result.size()), mTitleComparator);
+            }
+        }
+        return result;
+    }
+}
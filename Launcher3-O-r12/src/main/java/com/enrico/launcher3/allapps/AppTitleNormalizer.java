@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enrico.launcher3.allapps;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Folds app titles and search queries to the form used for matching: accents are removed,
+ * Cyrillic and Greek letters are transliterated to Latin and everything is lower-cased.
+ * It does not depend on the Android framework, so that the search can be benchmarked on the JVM.
+ */
+class AppTitleNormalizer {
+
+    private static final int[] EMPTY_WORD_STARTS = new int[0];
+
+    // The short i decomposes to an i and a breve, so it is transliterated before the
+    // decomposition to keep its own transliteration.
+    private static final char CYRILLIC_SHORT_I = '\u0439';
+
+    // Lower-case letters to their Latin transliteration, indexed by the letter. The letters are
+    // all below U+0492 so a plain array is both smaller and faster than a map.
+    private static final String[] sTransliterations = new String['\u0492'];
+    static {
+        // Cyrillic, the Russian alphabet and the Ukrainian letters
+        addTransliterations('\u0430', new String[] {
+                "a", "b", "v", "g", "d", "e", "zh", "z", "i", "y", "k", "l", "m", "n", "o", "p",
+                "r", "s", "t", "u", "f", "kh", "ts", "ch", "sh", "shch", "", "y", "", "e", "yu",
+                "ya"});
+        addTransliterations('\u0454', new String[] {"ye", "", "i"});
+        addTransliterations('\u0491', new String[] {"g"});
+        // Greek alphabet, accents are already removed by the decomposition.
+        addTransliterations('\u03b1', new String[] {
+                "a", "v", "g", "d", "e", "z", "i", "th", "i", "k", "l", "m", "n", "x", "o", "p",
+                "r", "s", "s", "t", "y", "f", "ch", "ps", "o"});
+    }
+
+    private static void addTransliterations(char firstLetter, String[] latin) {
+        for (int i = 0; i < latin.length; i++) {
+            sTransliterations[firstLetter + i] = latin[i];
+        }
+    }
+
+    /**
+     * The title of an app folded for the search, and the offsets in it where words start.
+     */
+    static final class SearchTitle {
+        final String text;
+        final int[] wordStarts;
+
+        SearchTitle(String text, int[] wordStarts) {
+            this.text = text;
+            this.wordStarts = wordStarts;
+        }
+    }
+
+    /**
+     * Computes the search title of an app and the offsets in it where words start.
+     */
+    static SearchTitle getSearchTitle(CharSequence title) {
+        String folded = fold(title);
+        int length = folded.length();
+        if (length == 0) {
+            return new SearchTitle(folded, EMPTY_WORD_STARTS);
+        }
+
+        int[] wordStarts = new int[length];
+        int numWordStarts = 0;
+        int lastType;
+        int thisType = Character.UNASSIGNED;
+        int nextType = Character.getType(folded.codePointAt(0));
+        for (int i = 0; i < length; i++) {
+            lastType = thisType;
+            thisType = nextType;
+            nextType = i < (length - 1) ?
+                    Character.getType(folded.codePointAt(i + 1)) : Character.UNASSIGNED;
+            if (AppSearchIndex.isBreak(thisType, lastType, nextType)) {
+                wordStarts[numWordStarts++] = i;
+            }
+        }
+
+        return new SearchTitle(toLowerCase(folded), Arrays.copyOf(wordStarts, numWordStarts));
+    }
+
+    /**
+     * Returns the query in the same form as {@link SearchTitle#text}.
+     */
+    static String normalizeQuery(String query) {
+        return toLowerCase(fold(query));
+    }
+
+    /**
+     * Removes accents and transliterates the text, keeping the case of the letters so that the
+     * word breaks can still be computed.
+     */
+    private static String fold(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(transliterateShortI(text),
+                Normalizer.Form.NFD);
+        StringBuilder out = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            appendTransliteration(out, c);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Transliterates the short i letters of the text, before it is decomposed.
+     */
+    private static CharSequence transliterateShortI(CharSequence text) {
+        StringBuilder out = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.toLowerCase(c) == CYRILLIC_SHORT_I) {
+                if (out == null) {
+                    out = new StringBuilder(text.length()).append(text, 0, i);
+                }
+                appendTransliteration(out, c);
+            } else if (out != null) {
+                out.append(c);
+            }
+        }
+        return out == null ? text : out;
+    }
+
+    /**
+     * Appends the transliteration of the letter, keeping its case, or the letter itself if it
+     * has none.
+     */
+    private static void appendTransliteration(StringBuilder out, char c) {
+        char lower = Character.toLowerCase(c);
+        String latin = lower < sTransliterations.length ? sTransliterations[lower] : null;
+        if (latin == null) {
+            out.append(c);
+        } else if (lower != c && !latin.isEmpty()) {
+            out.append(Character.toUpperCase(latin.charAt(0)))
+                    .append(latin, 1, latin.length());
+        } else {
+            out.append(latin);
+        }
+    }
+
+    /**
+     * Lower-cases the text char by char so that offsets in it stay valid.
+     */
+    private static String toLowerCase(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+}
@@ -16,121 +16,86 @@
 package com.enrico.launcher3.allapps;
 
 import android.os.Handler;
+import android.os.HandlerThread;
 
-import com.enrico.launcher3.AppInfo;
 import com.enrico.launcher3.util.ComponentKey;
 
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Comparator;
 
 /**
- * The default search implementation.
+ * The default search implementation. Matching runs on a dedicated search thread and only the
+ * result of the latest query is delivered back on the thread which created the algorithm.
+ * The matching itself is done by {@link AppSearchMatcher}.
  */
 class DefaultAppSearchAlgorithm {
 
-    private final List<AppInfo> mApps;
+    private static final HandlerThread sSearchThread = new HandlerThread("all-apps-search");
+    static {
+        sSearchThread.start();
+    }
+
+    // Only accessed on the search thread
+    private final AppSearchMatcher<ComponentKey> mMatcher;
     private final Handler mResultHandler;
+    private final Handler mSearchHandler;
+
+    // Incremented for every new query or cancellation, so that stale searches can be dropped
+    private volatile int mGeneration;
+    // The search which is posted but has not started yet, replaced when a new query comes in
+    private Runnable mPendingSearch;
 
-    DefaultAppSearchAlgorithm(List<AppInfo> apps) {
-        mApps = apps;
+    DefaultAppSearchAlgorithm(AppSearchIndex<ComponentKey> index) {
+        mMatcher = new AppSearchMatcher<>(index, new Comparator<ComponentKey>() {
+            @Override
+            public int compare(ComponentKey a, ComponentKey b) {
+                return a.componentName.compareTo(b.componentName);
+            }
+        });
         mResultHandler = new Handler();
+        mSearchHandler = new Handler(sSearchThread.getLooper());
     }
 
     public void cancel(boolean interruptActiveRequests) {
         if (interruptActiveRequests) {
+            mGeneration++;
+            removePendingSearch();
             mResultHandler.removeCallbacksAndMessages(null);
         }
     }
 
     void doSearch(final String query,
             final AllAppsSearchBarController.Callbacks callback) {
-        final ArrayList<ComponentKey> result = getTitleMatchResult(query);
-        mResultHandler.post(new Runnable() {
+        final int generation = ++mGeneration;
+
+        // Coalesce with any search which has not started yet, only the latest query matters.
+        removePendingSearch();
+        mPendingSearch = new Runnable() {
 
             @Override
             public void run() {
-                callback.onSearchResult(query, result);
-            }
-        });
-    }
-
-    private ArrayList<ComponentKey> getTitleMatchResult(String query) {
-        // Do an intersection of the words in the query and each title, and filter out all the
-        // apps that don't match all of the words in the query.
-        final String queryTextLower = query.toLowerCase();
-        final ArrayList<ComponentKey> result = new ArrayList<>();
-        for (AppInfo info : mApps) {
-            if (matches(info, queryTextLower)) {
-                result.add(info.toComponentKey());
-            }
-        }
-        return result;
-    }
-
-    private boolean matches(AppInfo info, String query) {
-        int queryLength = query.length();
-
-        String title = info.title.toString();
-        int titleLength = title.length();
-
-        if (titleLength < queryLength || queryLength <= 0) {
-            return false;
-        }
-
-        int lastType;
-        int thisType = Character.UNASSIGNED;
-        int nextType = Character.getType(title.codePointAt(0));
-
-        int end = titleLength - queryLength;
-        for (int i = 0; i <= end; i++) {
-            lastType = thisType;
-            thisType = nextType;
-            nextType = i < (titleLength - 1) ?
-                    Character.getType(title.codePointAt(i + 1)) : Character.UNASSIGNED;
-            if (isBreak(thisType, lastType, nextType) &&
-                    title.substring(i, i + queryLength).equalsIgnoreCase(query)) {
-                return true;
+                if (generation != mGeneration) {
+                    return;
+                }
+                final ArrayList<ComponentKey> result = mMatcher.getTitleMatchResult(query);
+                mResultHandler.post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (generation == mGeneration) {
+                            callback.onSearchResult(query, result);
+                        }
+                    }
+                });
             }
-        }
-        return false;
+        };
+        mSearchHandler.post(mPendingSearch);
     }
 
-    /**
-     * Returns true if the current point should be a break point. Following cases
-     * are considered as break points:
-     *      1) Any non space character after a space character
-     *      2) Any digit after a non-digit character
-     *      3) Any capital character after a digit or small character
-     *      4) Any capital character before a small character
-     */
-    private boolean isBreak(int thisType, int prevType, int nextType) {
-        switch (thisType) {
-            case Character.UPPERCASE_LETTER:
-                if (nextType == Character.UPPERCASE_LETTER) {
-                    return true;
-                }
-                // Follow through
-            case Character.TITLECASE_LETTER:
-                // Break point if previous was not a upper case
-                return prevType != Character.UPPERCASE_LETTER;
-            case Character.LOWERCASE_LETTER:
-                // Break point if previous was not a letter.
-                return prevType > Character.OTHER_LETTER || prevType <= Character.UNASSIGNED;
-            case Character.DECIMAL_DIGIT_NUMBER:
-            case Character.LETTER_NUMBER:
-            case Character.OTHER_NUMBER:
-                // Break point if previous was not a number
-                return !(prevType == Character.DECIMAL_DIGIT_NUMBER
-                        || prevType == Character.LETTER_NUMBER
-                        || prevType == Character.OTHER_NUMBER);
-            case Character.MATH_SYMBOL:
-            case Character.CURRENCY_SYMBOL:
-            case Character.OTHER_PUNCTUATION:
-            case Character.DASH_PUNCTUATION:
-                // Always a break point for a symbol
-                return true;
-            default:
-                return false;
+    private void removePendingSearch() {
+        if (mPendingSearch != null) {
+            mSearchHandler.removeCallbacks(mPendingSearch);
+            mPendingSearch = null;
         }
     }
 }
@@ -37,6 +37,7 @@ import com.enrico.launcher3.LauncherAppState;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Random;
 
 class IconNormalizer {
@@ -59,8 +60,12 @@ class IconNormalizer {
     private static final float PIXEL_DIFF_PERCENTAGE_THRESHOLD = 0.005f;
     private static final float SCALE_NOT_INITIALIZED = 0;
 
+    // Instances are a few MB each, only this many are kept once released
+    private static final int MAX_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
     private static final Object LOCK = new Object();
-    private static IconNormalizer sIconNormalizer;
+    // Released instances, guarded by {@link #LOCK}
+    private static final ArrayList<IconNormalizer> sPool = new ArrayList<>();
 
     private final int mMaxSize;
     private final Bitmap mBitmap;
@@ -200,7 +205,7 @@ class IconNormalizer {
      *
      * @param outBounds optional rect to receive the fraction distance from each edge.
      */
-    synchronized float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
+    float getScale(@NonNull Drawable d, @Nullable RectF outBounds,
             @Nullable Path path, @Nullable boolean[] outMaskShape) {
         if (AndroidVersion.isAtLeastOreo() && d instanceof AdaptiveIconDrawable &&
                 mAdaptiveIconScale != SCALE_NOT_INITIALIZED) {
@@ -380,12 +385,24 @@ class IconNormalizer {
         }
     }
 
-    public static IconNormalizer getInstance(Context context) {
+    /**
+     * Returns an instance for the calling thread only, so that icons can be normalized on several
+     * threads at once. It must be given back with {@link #recycle()}.
+     */
+    public static IconNormalizer obtain(Context context) {
+        synchronized (LOCK) {
+            if (!sPool.isEmpty()) {
+                return sPool.remove(sPool.size() - 1);
+            }
+        }
+        return new IconNormalizer(context);
+    }
+
+    public void recycle() {
         synchronized (LOCK) {
-            if (sIconNormalizer == null) {
-                sIconNormalizer = new IconNormalizer(context);
+            if (sPool.size() < MAX_POOL_SIZE) {
+                sPool.add(this);
             }
         }
-        return sIconNormalizer;
     }
 }
@@ -48,37 +48,36 @@ public class ShadowGenerator {
 
     private final int mIconSize;
 
-    private final Canvas mCanvas;
+    // Only read while drawing, so that shadows can be drawn on several threads at once
     private final Paint mBlurPaint;
-    private final Paint mDrawPaint;
 
     private ShadowGenerator(Context context) {
         mIconSize = LauncherAppState.getIDP(context).iconBitmapSize;
-        mCanvas = new Canvas();
         mBlurPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
         mBlurPaint.setMaskFilter(new BlurMaskFilter(mIconSize * BLUR_FACTOR, Blur.NORMAL));
-        mDrawPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
     }
 
-    public synchronized Bitmap recreateIcon(Bitmap icon) {
+    public Bitmap recreateIcon(Bitmap icon) {
         int[] offset = new int[2];
         Bitmap shadow = icon.extractAlpha(mBlurPaint, offset);
         Bitmap result = Bitmap.createBitmap(mIconSize, mIconSize, Config.ARGB_8888);
-        mCanvas.setBitmap(result);
+        Canvas canvas = new Canvas(result);
+        Paint drawPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
 
         // Draw ambient shadow
-        mDrawPaint.setAlpha(AMBIENT_SHADOW_ALPHA);
-        mCanvas.drawBitmap(shadow, offset[0], offset[1], mDrawPaint);
+        drawPaint.setAlpha(AMBIENT_SHADOW_ALPHA);
+        canvas.drawBitmap(shadow, offset[0], offset[1], drawPaint);
 
         // Draw key shadow
-        mDrawPaint.setAlpha(KEY_SHADOW_ALPHA);
-        mCanvas.drawBitmap(shadow, offset[0], offset[1] + KEY_SHADOW_DISTANCE * mIconSize, mDrawPaint);
+        drawPaint.setAlpha(KEY_SHADOW_ALPHA);
+        canvas.drawBitmap(shadow, offset[0], offset[1] + KEY_SHADOW_DISTANCE * mIconSize,
+                drawPaint);
 
         // Draw the icon
-        mDrawPaint.setAlpha(255);
-        mCanvas.drawBitmap(icon, 0, 0, mDrawPaint);
+        drawPaint.setAlpha(255);
+        canvas.drawBitmap(icon, 0, 0, drawPaint);
 
-        mCanvas.setBitmap(null);
+        canvas.setBitmap(null);
         return result;
     }
 
@@ -16,6 +16,8 @@
 
 package com.enrico.launcher3.icons;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.ContentValues;
 import android.content.Context;
@@ -61,10 +63,12 @@ import com.enrico.launcher3.compat.UserManagerCompat;
 import com.enrico.launcher3.graphics.LauncherIcons;
 import com.enrico.launcher3.model.PackageItemInfo;
 import com.enrico.launcher3.theme.ThemeUtils;
+import com.enrico.launcher3.util.AppTitleSortKeys;
 import com.enrico.launcher3.util.ComponentKey;
 import com.enrico.launcher3.util.Provider;
 import com.enrico.launcher3.util.SQLiteCacheHelper;
 import com.enrico.launcher3.util.Thunk;
+import com.enrico.launcher3.util.TraceHelper;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -72,9 +76,19 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Cache of application icons.  Icons can be made from any thread.
+ *
+ * Cache hits only take the short lock of the in-memory cache. Cache misses, which can go to the
+ * icon DB and the PackageManager, are serialized per component (and per package for package
+ * entries) through striped locks, so that a slow miss does not block other components.
  */
 public class IconCache {
 
@@ -85,8 +99,48 @@ public class IconCache {
 
     private static final int LOW_RES_SCALE_FACTOR = 5;
 
+    // Fraction of the app memory class which full-res icons can use in memory, low-res icons can
+    // use a quarter of that
+    private static final int FULL_RES_MEMORY_FRACTION = 8;
+    private static final int LOW_RES_MEMORY_FRACTION = 4 * FULL_RES_MEMORY_FRACTION;
+
     @Thunk private static final Object ICON_UPDATE_TOKEN = new Object();
 
+    // Maximum number of icons rendered in parallel when updating the DB
+    @Thunk static final int MAX_PARALLEL_RENDERS =
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /**
+     * Renders the icons when updating the DB, on at most {@link #MAX_PARALLEL_RENDERS} background
+     * threads. It is not shared with {@link Utilities#THREAD_POOL_EXECUTOR}, so that the renders
+     * and the loader's prefetch do not wait for each other.
+     */
+    @Thunk static final ThreadPoolExecutor RENDER_EXECUTOR = new ThreadPoolExecutor(
+            MAX_PARALLEL_RENDERS, MAX_PARALLEL_RENDERS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "icon-render");
+                }
+            });
+    static {
+        RENDER_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    // Number of locks serializing the cache misses, for components and packages respectively.
+    // A component lock can be held while taking a package lock, never the other way around.
+    private static final int NUM_LOCK_STRIPES = 16;
+
+    /**
+     * An icon and label. Entries are filled before being put in the memory cache and are not
+     * modified afterwards, so that they can be read from any thread.
+     */
     public static class CacheEntry {
         public Bitmap icon;
         public CharSequence title = "";
@@ -94,7 +148,9 @@ public class IconCache {
         boolean isLowResIcon;
     }
 
-    private final HashMap<UserHandle, Bitmap> mDefaultIcons = new HashMap<>();
+    private final ConcurrentHashMap<UserHandle, Bitmap> mDefaultIcons = new ConcurrentHashMap<>();
+    private final Object[] mComponentLocks = createLockStripes();
+    private final Object[] mPackageLocks = createLockStripes();
     @Thunk private final MainThreadExecutor mMainThreadExecutor = new MainThreadExecutor();
 
     private final Context mContext;
@@ -104,12 +160,13 @@ public class IconCache {
 
     @Thunk private final UserManagerCompat mUserManager;
     private final LauncherAppsCompat mLauncherApps;
-    private final HashMap<ComponentKey, CacheEntry> mCache =
-            new HashMap<ComponentKey, CacheEntry>(INITIAL_ICON_CACHE_CAPACITY);
+    private final IconLruCache mCache;
     private final int mIconDpi;
     @Thunk private final IconDB mIconDb;
 
     @Thunk private final Handler mWorkerHandler;
+    // Incremented whenever the icon update tasks are cancelled, read by the render threads
+    @Thunk volatile int mIconUpdateGeneration;
 
     // The background color used for activity icons. Since these icons are displayed in all-apps
     // and folders, this would be same as the light quantum panel background. This color
@@ -119,9 +176,10 @@ public class IconCache {
     // has a dark quantum panel background.
     private final int mPackageBgColor;
     private final BitmapFactory.Options mLowResOptions;
+    private final AppTitleSortKeys mTitleSortKeys;
 
-    private Canvas mLowResCanvas;
-    private Paint mLowResPaint;
+    // Only read while drawing, so that low res icons can be drawn on several threads at once
+    private final Paint mLowResPaint;
 
     private static IconsManager sIconsManager;
 
@@ -132,7 +190,6 @@ public class IconCache {
         mLauncherApps = LauncherAppsCompat.getInstance(mContext);
         mIconDpi = inv.fillResIconDpi;
         mIconDb = new IconDB(context, inv.iconBitmapSize);
-        mLowResCanvas = new Canvas();
         mLowResPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
         mIconProvider = IconThemer.loadByName(context.getString(R.string.icon_provider_class), context);
@@ -146,6 +203,56 @@ public class IconCache {
         // Always prefer RGB_565 config for low res. If the bitmap has transparency, it will
         // automatically be loaded as ALPHA_8888.
         mLowResOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+
+        mTitleSortKeys = new AppTitleSortKeys(context);
+
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryClassBytes = am.getMemoryClass() * 1024L * 1024L;
+        mCache = new IconLruCache(INITIAL_ICON_CACHE_CAPACITY,
+                memoryClassBytes / FULL_RES_MEMORY_FRACTION,
+                memoryClassBytes / LOW_RES_MEMORY_FRACTION,
+                new IconLruCache.LowResDemoter() {
+                    @Override
+                    public CacheEntry demoteToLowRes(ComponentKey key, CacheEntry entry) {
+                        return createLowResEntry(key, entry);
+                    }
+                });
+    }
+
+    /**
+     * Returns a copy of the entry with the low-res version of its icon, or null if it has the
+     * default icon which is shared and should rather be dropped.
+     * Called by the memory cache without holding its lock.
+     */
+    private CacheEntry createLowResEntry(ComponentKey key, CacheEntry entry) {
+        if (entry.icon == null || isDefaultIcon(entry.icon, key.user)) {
+            return null;
+        }
+        ComponentName cn = key.componentName;
+        boolean isPackageEntry = cn.getClassName().equals(cn.getPackageName() + EMPTY_CLASS_NAME);
+        CacheEntry lowResEntry = new CacheEntry();
+        lowResEntry.icon = generateLowResIcon(entry.icon,
+                isPackageEntry ? mPackageBgColor : mActivityBgColor);
+        lowResEntry.title = entry.title;
+        lowResEntry.contentDescription = entry.contentDescription;
+        lowResEntry.isLowResIcon = true;
+        return lowResEntry;
+    }
+
+    /**
+     * Shrinks the in-memory cache according to the {@link ComponentCallbacks2} trim level.
+     */
+    public void onTrimMemory(int level) {
+        long maxFullRes = mCache.getMaxFullResBytes();
+        long maxLowRes = mCache.getMaxLowResBytes();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            // We are next to be killed, drop everything without demoting, which would allocate
+            mCache.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mCache.trimToSize(0, maxLowRes);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(maxFullRes / 2, maxLowRes);
+        }
     }
 
     private Drawable getFullResDefaultActivityIcon() {
@@ -165,7 +272,7 @@ public class IconCache {
 
     Bitmap getNonNullIcon(CacheEntry entry, UserHandle user) {
 
-        return entry.icon == null ? getDefaultIcon(user) : entry.icon;
+        return entry == null || entry.icon == null ? getDefaultIcon(user) : entry.icon;
     }
 
     public Drawable getFullResIcon(String packageName, int iconId) {
@@ -213,30 +320,14 @@ public class IconCache {
     /**
      * Remove any records for the supplied ComponentName.
      */
-    public synchronized void remove(ComponentName componentName, UserHandle user) {
+    public void remove(ComponentName componentName, UserHandle user) {
         mCache.remove(new ComponentKey(componentName, user));
     }
 
-    /**
-     * Remove any records for the supplied package name from memory.
-     */
-    private void removeFromMemCacheLocked(String packageName, UserHandle user) {
-        HashSet<ComponentKey> forDeletion = new HashSet<ComponentKey>();
-        for (ComponentKey key: mCache.keySet()) {
-            if (key.componentName.getPackageName().equals(packageName)
-                    && key.user.equals(user)) {
-                forDeletion.add(key);
-            }
-        }
-        for (ComponentKey condemned: forDeletion) {
-            mCache.remove(condemned);
-        }
-    }
-
     /**
      * Updates the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void updateIconsForPkg(String packageName, UserHandle user) {
+    public void updateIconsForPkg(String packageName, UserHandle user) {
         removeIconsForPkg(packageName, user);
         try {
             int uninstalled = android.os.Build.VERSION.SDK_INT >= 24 ? PackageManager.MATCH_UNINSTALLED_PACKAGES : PackageManager.GET_UNINSTALLED_PACKAGES;
@@ -245,7 +336,8 @@ public class IconCache {
                     uninstalled);
             long userSerial = mUserManager.getSerialNumberForUser(user);
             for (LauncherActivityInfo app : mLauncherApps.getActivityList(packageName, user)) {
-                addIconToDBAndMemCache(app, info, userSerial, false /*replace existing*/);
+                // Replace any entry loaded from the old DB rows while they were being removed
+                addIconToDBAndMemCache(app, info, userSerial, true /*replace existing*/);
             }
         } catch (NameNotFoundException e) {
             e.printStackTrace();
@@ -253,9 +345,12 @@ public class IconCache {
         }
     }
 
+    /**
+     * Returns the entry of the app if it is in memory, or null. It does not load the entry from
+     * the DB or the package manager, so that it can be called from the UI thread.
+     */
     public CacheEntry getCacheEntry(LauncherActivityInfo app) {
-        final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        return mCache.get(key);
+        return mCache.get(new ComponentKey(app.getComponentName(), app.getUser()));
     }
 
     public static IconsManager getIconsManager(Context context) {
@@ -268,7 +363,13 @@ public class IconCache {
     public void addCustomInfoToDataBase(Drawable icon, ItemInfo info, CharSequence title) {
         LauncherActivityInfo app = mLauncherApps.resolveActivity(info.getIntent(), info.user);
         final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry = mCache.get(key);
+        synchronized (getComponentLock(key)) {
+            addCustomInfoToDataBaseLocked(icon, app, key, title);
+        }
+    }
+
+    private void addCustomInfoToDataBaseLocked(Drawable icon, LauncherActivityInfo app,
+            ComponentKey key, CharSequence title) {
         PackageInfo packageInfo = null;
         try {
             packageInfo = mPackageManager.getPackageInfo(
@@ -276,20 +377,18 @@ public class IconCache {
         } catch (NameNotFoundException e) {
             e.printStackTrace();
         }
-        // We can't reuse the entry if the high-res icon is not present.
-        if (entry == null || entry.isLowResIcon || entry.icon == null) {
-            entry = new CacheEntry();
-        }
+        // The cached entry is not modified, it is replaced by a new one
+        CacheEntry entry = new CacheEntry();
         entry.icon = LauncherIcons.createIconBitmap(icon, mContext);
 
         entry.title = title != null ? title : app.getLabel();
 
         entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(key, entry);
 
         Bitmap lowResIcon = generateLowResIcon(entry.icon, mActivityBgColor);
         ContentValues values = newContentValues(entry.icon, lowResIcon, entry.title.toString(),
                 app.getApplicationInfo().packageName);
+        mCache.put(key, entry);
         if (packageInfo != null) {
             addIconToDB(values, app.getComponentName(), packageInfo,
                     mUserManager.getSerialNumberForUser(app.getUser()));
@@ -299,17 +398,20 @@ public class IconCache {
     /**
      * Removes the entries related to the given package in memory and persistent DB.
      */
-    public synchronized void removeIconsForPkg(String packageName, UserHandle user) {
-        removeFromMemCacheLocked(packageName, user);
+    public void removeIconsForPkg(String packageName, UserHandle user) {
+        mCache.removePackage(packageName, user);
         long userSerial = mUserManager.getSerialNumberForUser(user);
         mIconDb.delete(
                 IconDB.COLUMN_COMPONENT + " LIKE ? AND " + IconDB.COLUMN_USER + " = ?",
                 new String[]{packageName + "/%", Long.toString(userSerial)});
+        // A miss before the rows were deleted could have loaded them again in memory
+        mCache.removePackage(packageName, user);
     }
 
     public void updateDbIcons(Set<String> ignorePackagesForMainUser) {
         // Remove all active icon update tasks.
         mWorkerHandler.removeCallbacksAndMessages(ICON_UPDATE_TOKEN);
+        mIconUpdateGeneration++;
 
         mIconProvider.updateSystemStateString();
         for (UserHandle user : mUserManager.getUserProfiles()) {
@@ -352,6 +454,8 @@ public class IconCache {
         HashSet<Integer> itemsToRemove = new HashSet<Integer>();
         Stack<LauncherActivityInfo> appsToUpdate = new Stack<>();
 
+        // The scan below must see every row, this runs on the worker thread
+        mIconDb.commitBatch();
         Cursor c = null;
         try {
             c = mIconDb.query(
@@ -426,30 +530,47 @@ public class IconCache {
      *                        the memory. This is useful then the previous bitmap was created using
      *                        old data.
      */
-    @Thunk private synchronized void addIconToDBAndMemCache(LauncherActivityInfo app,
+    @Thunk void addIconToDBAndMemCache(LauncherActivityInfo app,
+            PackageInfo info, long userSerial, boolean replaceExisting) {
+        mIconDb.insertOrReplace(addIconToMemCache(app, info, userSerial, replaceExisting));
+    }
+
+    /**
+     * Adds an entry into the in-memory cache.
+     * @return the {@link ContentValues} to be written to the DB for the entry.
+     */
+    @Thunk ContentValues addIconToMemCache(LauncherActivityInfo app,
             PackageInfo info, long userSerial, boolean replaceExisting) {
         final ComponentKey key = new ComponentKey(app.getComponentName(), app.getUser());
-        CacheEntry entry = null;
+        synchronized (getComponentLock(key)) {
+            return addIconToMemCacheLocked(app, key, info, userSerial, replaceExisting);
+        }
+    }
+
+    private ContentValues addIconToMemCacheLocked(LauncherActivityInfo app, ComponentKey key,
+            PackageInfo info, long userSerial, boolean replaceExisting) {
+        CacheEntry oldEntry = null;
         if (!replaceExisting) {
-            entry = mCache.get(key);
+            oldEntry = mCache.get(key);
             // We can't reuse the entry if the high-res icon is not present.
-            if (entry == null || entry.isLowResIcon || entry.icon == null) {
-                entry = null;
+            if (oldEntry == null || oldEntry.isLowResIcon || oldEntry.icon == null) {
+                oldEntry = null;
             }
         }
-        if (entry == null) {
-            entry = new CacheEntry();
-            entry.icon = LauncherIcons.createBadgedIconBitmap(getFullResIcon(app), app.getUser(),
-                    mContext,  app.getApplicationInfo().targetSdkVersion);
-        }
+        // The cached entry is not modified, it is replaced by a new one
+        CacheEntry entry = new CacheEntry();
+        entry.icon = oldEntry != null ? oldEntry.icon : LauncherIcons.createBadgedIconBitmap(
+                getFullResIcon(app), app.getUser(), mContext,
+                app.getApplicationInfo().targetSdkVersion);
         entry.title = app.getLabel();
         entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, app.getUser());
-        mCache.put(key, entry);
 
         Bitmap lowResIcon = generateLowResIcon(entry.icon, mActivityBgColor);
         ContentValues values = newContentValues(entry.icon, lowResIcon, entry.title.toString(),
                 app.getApplicationInfo().packageName);
-        addIconToDB(values, app.getComponentName(), info, userSerial);
+        mCache.put(key, entry);
+        addVersionInfo(values, app.getComponentName(), info, userSerial);
+        return values;
     }
 
     /**
@@ -458,11 +579,16 @@ public class IconCache {
      */
     private void addIconToDB(ContentValues values, ComponentName key,
             PackageInfo info, long userSerial) {
+        addVersionInfo(values, key, info, userSerial);
+        mIconDb.insertOrReplace(values);
+    }
+
+    private void addVersionInfo(ContentValues values, ComponentName key,
+            PackageInfo info, long userSerial) {
         values.put(IconDB.COLUMN_COMPONENT, key.flattenToString());
         values.put(IconDB.COLUMN_USER, userSerial);
         values.put(IconDB.COLUMN_LAST_UPDATED, info.lastUpdateTime);
         values.put(IconDB.COLUMN_VERSION, info.versionCode);
-        mIconDb.insertOrReplace(values);
     }
 
     /**
@@ -496,8 +622,8 @@ public class IconCache {
     /**
      * Updates {@param application} only if a valid entry is found.
      */
-    public synchronized void updateTitleAndIcon(AppInfo application) {
-        CacheEntry entry = cacheLocked(application.componentName,
+    public void updateTitleAndIcon(AppInfo application) {
+        CacheEntry entry = getOrLoadEntry(application.componentName,
                 Provider.<LauncherActivityInfo>of(null),
                 application.user, false, application.usingLowResIcon);
         if (entry.icon != null && !isDefaultIcon(entry.icon, application.user)) {
@@ -508,7 +634,7 @@ public class IconCache {
     /**
      * Fill in {@param info} with the icon and label for {@param activityInfo}
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info,
+    public void getTitleAndIcon(ItemInfoWithIcon info,
             LauncherActivityInfo activityInfo, boolean useLowResIcon) {
 
         // If we already have activity info, no need to use package icon
@@ -519,7 +645,7 @@ public class IconCache {
      * Fill in {@param info} with the icon and label. If the
      * corresponding activity is not found, it reverts to the package icon.
      */
-    public synchronized void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
+    public void getTitleAndIcon(ItemInfoWithIcon info, boolean useLowResIcon) {
         // null info means not installed, but if we have a component from the intent then
         // we should still look in the cache for restored app icons.
         if (info.getTargetComponent() == null) {
@@ -536,11 +662,11 @@ public class IconCache {
     /**
      * Fill in {@param shortcutInfo} with the icon and label for {@param info}
      */
-    private synchronized void getTitleAndIcon(
+    private void getTitleAndIcon(
             @NonNull ItemInfoWithIcon infoInOut,
             @NonNull Provider<LauncherActivityInfo> activityInfoProvider,
             boolean usePkgIcon, boolean useLowResIcon) {
-        CacheEntry entry = cacheLocked(infoInOut.getTargetComponent(), activityInfoProvider,
+        CacheEntry entry = getOrLoadEntry(infoInOut.getTargetComponent(), activityInfoProvider,
                 infoInOut.user, usePkgIcon, useLowResIcon);
         applyCacheEntry(entry, infoInOut);
     }
@@ -548,9 +674,9 @@ public class IconCache {
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
-    public synchronized void getTitleAndIconForApp(
+    public void getTitleAndIconForApp(
             PackageItemInfo infoInOut, boolean useLowResIcon) {
-        CacheEntry entry = getEntryForPackageLocked(
+        CacheEntry entry = getEntryForPackage(
                 infoInOut.packageName, infoInOut.user, useLowResIcon);
         applyCacheEntry(entry, infoInOut);
     }
@@ -560,13 +686,31 @@ public class IconCache {
         info.contentDescription = entry.contentDescription;
         info.iconBitmap = entry.icon == null ? getDefaultIcon(info.user) : entry.icon;
         info.usingLowResIcon = entry.isLowResIcon;
+        if (info instanceof AppInfo) {
+            // The titles of bound apps change in place, their keys are updated by the all apps
+            // list once they are out of its sorted list
+            mTitleSortKeys.initialize((AppInfo) info);
+        }
     }
 
-    public synchronized Bitmap getDefaultIcon(UserHandle user) {
-        if (!mDefaultIcons.containsKey(user)) {
-            mDefaultIcons.put(user, makeDefaultIcon(user));
+    /**
+     * Returns the helper computing the sort keys of app titles.
+     */
+    public AppTitleSortKeys getTitleSortKeys() {
+        return mTitleSortKeys;
+    }
+
+    public Bitmap getDefaultIcon(UserHandle user) {
+        Bitmap icon = mDefaultIcons.get(user);
+        if (icon == null) {
+            // Keep the first icon made if several threads race, so that isDefaultIcon works
+            Bitmap newIcon = makeDefaultIcon(user);
+            icon = mDefaultIcons.putIfAbsent(user, newIcon);
+            if (icon == null) {
+                icon = newIcon;
+            }
         }
-        return mDefaultIcons.get(user);
+        return icon;
     }
 
     public boolean isDefaultIcon(Bitmap icon, UserHandle user) {
@@ -574,19 +718,39 @@ public class IconCache {
     }
 
     /**
-     * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * Retrieves the entry from the cache. If the entry is not present, it creates a new entry
+     * while holding the lock of the component.
      */
-    private CacheEntry cacheLocked(
+    private CacheEntry getOrLoadEntry(
             @NonNull ComponentName componentName,
             @NonNull Provider<LauncherActivityInfo> infoProvider,
             UserHandle user, boolean usePackageIcon, boolean useLowResIcon) {
 
         ComponentKey cacheKey = new ComponentKey(componentName, user);
         CacheEntry entry = mCache.get(cacheKey);
+        if (entry != null && !(entry.isLowResIcon && !useLowResIcon)) {
+            return entry;
+        }
+        synchronized (getComponentLock(cacheKey)) {
+            return cacheLocked(cacheKey, infoProvider, usePackageIcon, useLowResIcon);
+        }
+    }
+
+    /**
+     * Retrieves the entry from the cache. If the entry is not present, it creates a new entry.
+     * This method must be called while holding the lock of the component.
+     */
+    private CacheEntry cacheLocked(ComponentKey cacheKey,
+            @NonNull Provider<LauncherActivityInfo> infoProvider,
+            boolean usePackageIcon, boolean useLowResIcon) {
+        ComponentName componentName = cacheKey.componentName;
+        UserHandle user = cacheKey.user;
+
+        // Another thread might have loaded the entry while we were waiting for the lock
+        CacheEntry entry = mCache.get(cacheKey);
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
+            TraceHelper.beginSystraceSection("IconCache.cacheLocked");
             entry = new CacheEntry();
-            mCache.put(cacheKey, entry);
 
             // Check the DB first.
             LauncherActivityInfo info = null;
@@ -602,7 +766,7 @@ public class IconCache {
                             infoProvider.get().getApplicationInfo().targetSdkVersion);
                 } else {
                     if (usePackageIcon) {
-                        CacheEntry packageEntry = getEntryForPackageLocked(
+                        CacheEntry packageEntry = getEntryForPackage(
                                 componentName.getPackageName(), user, false);
                         if (packageEntry != null) {
                             entry.icon = packageEntry.icon;
@@ -626,11 +790,14 @@ public class IconCache {
                     entry.contentDescription = mUserManager.getBadgedLabelForUser(entry.title, user);
                 }
             }
+            // Only added once filled, so that the memory cache accounts for the icon size
+            mCache.put(cacheKey, entry);
+            TraceHelper.endSection("IconCache.cacheLocked");
         }
         return entry;
     }
 
-    public synchronized void clear() {
+    public void clear() {
         mIconDb.clear();
     }
 
@@ -638,24 +805,47 @@ public class IconCache {
      * Adds a default package entry in the cache. This entry is not persisted and will be removed
      * when the cache is flushed.
      */
-    public synchronized void cachePackageInstallInfo(String packageName, UserHandle user,
+    public void cachePackageInstallInfo(String packageName, UserHandle user,
             Bitmap icon, CharSequence title) {
-        removeFromMemCacheLocked(packageName, user);
+        mCache.removePackage(packageName, user);
 
         ComponentKey cacheKey = getPackageKey(packageName, user);
-        CacheEntry entry = mCache.get(cacheKey);
-
-        // For icon caching, do not go through DB. Just update the in-memory entry.
-        if (entry == null) {
-            entry = new CacheEntry();
+        synchronized (getPackageLock(cacheKey)) {
+            CacheEntry oldEntry = mCache.get(cacheKey);
+
+            // For icon caching, do not go through DB. Just replace the in-memory entry.
+            CacheEntry entry = new CacheEntry();
+            if (oldEntry != null) {
+                entry.icon = oldEntry.icon;
+                entry.title = oldEntry.title;
+                entry.contentDescription = oldEntry.contentDescription;
+                entry.isLowResIcon = oldEntry.isLowResIcon;
+            }
+            if (!TextUtils.isEmpty(title)) {
+                entry.title = title;
+            }
+            if (icon != null) {
+                entry.icon = LauncherIcons.createIconBitmap(icon, mContext);
+                entry.isLowResIcon = false;
+            }
             mCache.put(cacheKey, entry);
         }
-        if (!TextUtils.isEmpty(title)) {
-            entry.title = title;
-        }
-        if (icon != null) {
-            entry.icon = LauncherIcons.createIconBitmap(icon, mContext);
+    }
+
+    private static Object[] createLockStripes() {
+        Object[] locks = new Object[NUM_LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
         }
+        return locks;
+    }
+
+    private Object getComponentLock(ComponentKey key) {
+        return mComponentLocks[(key.hashCode() & Integer.MAX_VALUE) % NUM_LOCK_STRIPES];
+    }
+
+    private Object getPackageLock(ComponentKey packageKey) {
+        return mPackageLocks[(packageKey.hashCode() & Integer.MAX_VALUE) % NUM_LOCK_STRIPES];
     }
 
     private static ComponentKey getPackageKey(String packageName, UserHandle user) {
@@ -665,12 +855,28 @@ public class IconCache {
 
     /**
      * Gets an entry for the package, which can be used as a fallback entry for various components.
-     * This method is not thread safe, it must be called from a synchronized method.
+     * On a miss, the entry is created while holding the lock of the package.
      */
-    private CacheEntry getEntryForPackageLocked(String packageName, UserHandle user,
+    private CacheEntry getEntryForPackage(String packageName, UserHandle user,
             boolean useLowResIcon) {
         ComponentKey cacheKey = getPackageKey(packageName, user);
         CacheEntry entry = mCache.get(cacheKey);
+        if (entry != null && !(entry.isLowResIcon && !useLowResIcon)) {
+            return entry;
+        }
+        synchronized (getPackageLock(cacheKey)) {
+            return getEntryForPackageLocked(packageName, cacheKey, useLowResIcon);
+        }
+    }
+
+    /**
+     * This method must be called while holding the lock of the package.
+     */
+    private CacheEntry getEntryForPackageLocked(String packageName, ComponentKey cacheKey,
+            boolean useLowResIcon) {
+        UserHandle user = cacheKey.user;
+        // Another thread might have loaded the entry while we were waiting for the lock
+        CacheEntry entry = mCache.get(cacheKey);
 
         if (entry == null || (entry.isLowResIcon && !useLowResIcon)) {
             entry = new CacheEntry();
@@ -719,25 +925,29 @@ public class IconCache {
     }
 
     private boolean getEntryFromDB(ComponentKey cacheKey, CacheEntry entry, boolean lowRes) {
+        String iconColumn = lowRes ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON;
+        String[] keyValues = new String[]{cacheKey.componentName.flattenToString(),
+                Long.toString(mUserManager.getSerialNumberForUser(cacheKey.user))};
+
+        // Rows rendered by the icon update task may not be committed yet
+        ContentValues pending = mIconDb.getPendingRow(
+                new String[]{IconDB.COLUMN_COMPONENT, IconDB.COLUMN_USER}, keyValues);
+        if (pending != null) {
+            entry.icon = loadIconNoResize(pending.getAsByteArray(iconColumn),
+                    lowRes ? mLowResOptions : null);
+            setEntryTitle(cacheKey, entry, lowRes, pending.getAsString(IconDB.COLUMN_LABEL));
+            return true;
+        }
+
         Cursor c = null;
         try {
             c = mIconDb.query(
-                new String[]{lowRes ? IconDB.COLUMN_ICON_LOW_RES : IconDB.COLUMN_ICON,
-                        IconDB.COLUMN_LABEL},
+                new String[]{iconColumn, IconDB.COLUMN_LABEL},
                 IconDB.COLUMN_COMPONENT + " = ? AND " + IconDB.COLUMN_USER + " = ?",
-                new String[]{cacheKey.componentName.flattenToString(),
-                        Long.toString(mUserManager.getSerialNumberForUser(cacheKey.user))});
+                keyValues);
             if (c.moveToNext()) {
-                entry.icon = loadIconNoResize(c, 0, lowRes ? mLowResOptions : null);
-                entry.isLowResIcon = lowRes;
-                entry.title = c.getString(1);
-                if (entry.title == null) {
-                    entry.title = "";
-                    entry.contentDescription = "";
-                } else {
-                    entry.contentDescription = mUserManager.getBadgedLabelForUser(
-                            entry.title, cacheKey.user);
-                }
+                entry.icon = loadIconNoResize(c.getBlob(0), lowRes ? mLowResOptions : null);
+                setEntryTitle(cacheKey, entry, lowRes, c.getString(1));
                 return true;
             }
         } catch (SQLiteException e) {
@@ -750,14 +960,26 @@ public class IconCache {
         return false;
     }
 
+    private void setEntryTitle(ComponentKey cacheKey, CacheEntry entry, boolean lowRes,
+            String title) {
+        entry.isLowResIcon = lowRes;
+        entry.title = title;
+        if (entry.title == null) {
+            entry.title = "";
+            entry.contentDescription = "";
+        } else {
+            entry.contentDescription = mUserManager.getBadgedLabelForUser(
+                    entry.title, cacheKey.user);
+        }
+    }
+
     void clearIconDataBase() {
-        mIconDb.clearDB(mIconDb.getDatabase());
+        // Also drops the pending batch, which would otherwise be committed into the new table
+        mIconDb.clear();
     }
 
     void flush() {
-        synchronized (mCache) {
-            mCache.clear();
-        }
+        mCache.clear();
     }
 
     public static class IconLoadRequest {
@@ -774,22 +996,46 @@ public class IconCache {
         }
     }
 
+    /**
+     * An icon rendered by {@link SerializedIconUpdateTask}, waiting to be written to the DB.
+     */
+    private static class RenderedIcon {
+        final String packageName;
+        final ContentValues values;
+        final boolean isUpdate;
+
+        RenderedIcon(String packageName, ContentValues values, boolean isUpdate) {
+            this.packageName = packageName;
+            this.values = values;
+            this.isUpdate = isUpdate;
+        }
+    }
+
     /**
      * A runnable that updates invalid icons and adds missing icons in the DB for the provided
-     * LauncherActivityInfo list. Items are updated/added one at a time, so that the
-     * worker thread doesn't get blocked.
+     * LauncherActivityInfo list. The icons are rendered in parallel on {@link #RENDER_EXECUTOR},
+     * with at most {@link #MAX_PARALLEL_RENDERS} at a time, while the DB writes all happen on the
+     * worker thread, in batches. The model is notified once all the icons to update are written.
      */
     @Thunk private class SerializedIconUpdateTask implements Runnable {
         private final long mUserSerial;
+        private final int mGeneration;
         private final HashMap<String, PackageInfo> mPkgInfoMap;
         private final Stack<LauncherActivityInfo> mAppsToAdd;
         private final Stack<LauncherActivityInfo> mAppsToUpdate;
         private final HashSet<String> mUpdatedPackages = new HashSet<String>();
 
+        // Filled by the render threads, drained on the worker thread
+        private final ConcurrentLinkedQueue<RenderedIcon> mRenderedIcons =
+                new ConcurrentLinkedQueue<>();
+        private int mRendersInFlight;
+        private int mUpdatesInFlight;
+
         @Thunk SerializedIconUpdateTask(long userSerial, HashMap<String, PackageInfo> pkgInfoMap,
                 Stack<LauncherActivityInfo> appsToAdd,
                 Stack<LauncherActivityInfo> appsToUpdate) {
             mUserSerial = userSerial;
+            mGeneration = mIconUpdateGeneration;
             mPkgInfoMap = pkgInfoMap;
             mAppsToAdd = appsToAdd;
             mAppsToUpdate = appsToUpdate;
@@ -797,34 +1043,80 @@ public class IconCache {
 
         @Override
         public void run() {
-            if (!mAppsToUpdate.isEmpty()) {
-                LauncherActivityInfo app = mAppsToUpdate.pop();
-                String pkg = app.getComponentName().getPackageName();
-                PackageInfo info = mPkgInfoMap.get(pkg);
-                addIconToDBAndMemCache(app, info, mUserSerial, true /*replace existing*/);
-                mUpdatedPackages.add(pkg);
-
-                if (mAppsToUpdate.isEmpty() && !mUpdatedPackages.isEmpty()) {
-                    // No more app to update. Notify model.
-                    LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
-                            mUpdatedPackages, mUserManager.getUserForSerialNumber(mUserSerial));
+            if (isCancelled()) {
+                return;
+            }
+
+            RenderedIcon icon;
+            while ((icon = mRenderedIcons.poll()) != null) {
+                mRendersInFlight--;
+                if (icon.values != null) {
+                    mIconDb.insertOrReplaceInBatch(icon.values);
+                }
+                if (icon.isUpdate) {
+                    mUpdatesInFlight--;
+                    mUpdatedPackages.add(icon.packageName);
                 }
+            }
 
-                // Let it run one more time.
-                scheduleNext();
-            } else if (!mAppsToAdd.isEmpty()) {
-                LauncherActivityInfo app = mAppsToAdd.pop();
-                PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
-                // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although every
-                // app should have package info, this is not guaranteed by the api
-                if (info != null) {
-                    addIconToDBAndMemCache(app, info, mUserSerial, false /*replace existing*/);
+            if (mAppsToUpdate.isEmpty() && mUpdatesInFlight == 0
+                    && !mUpdatedPackages.isEmpty()) {
+                mIconDb.commitBatch();
+
+                // No more app to update. Notify model.
+                LauncherAppState.getInstance(mContext).getModel().onPackageIconsUpdated(
+                        new HashSet<>(mUpdatedPackages),
+                        mUserManager.getUserForSerialNumber(mUserSerial));
+                mUpdatedPackages.clear();
+            }
+
+            // Keep the render threads busy, updating the invalid icons first.
+            while (mRendersInFlight < MAX_PARALLEL_RENDERS) {
+                if (!mAppsToUpdate.isEmpty()) {
+                    LauncherActivityInfo app = mAppsToUpdate.pop();
+                    PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
+                    render(app, info, true /* isUpdate */);
+                } else if (!mAppsToAdd.isEmpty()) {
+                    LauncherActivityInfo app = mAppsToAdd.pop();
+                    PackageInfo info = mPkgInfoMap.get(app.getComponentName().getPackageName());
+                    // We do not check the mPkgInfoMap when generating the mAppsToAdd. Although
+                    // every app should have package info, this is not guaranteed by the api
+                    if (info != null) {
+                        render(app, info, false /* isUpdate */);
+                    }
+                } else {
+                    break;
                 }
+            }
+            if (mRendersInFlight == 0) {
+                // All done
+                mIconDb.commitBatch();
+            }
+        }
 
-                if (!mAppsToAdd.isEmpty()) {
+        private void render(final LauncherActivityInfo app, final PackageInfo info,
+                final boolean isUpdate) {
+            mRendersInFlight++;
+            if (isUpdate) {
+                mUpdatesInFlight++;
+            }
+            RENDER_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ContentValues values = null;
+                    if (!isCancelled()) {
+                        values = addIconToMemCache(app, info, mUserSerial,
+                                isUpdate /* replace existing */);
+                    }
+                    mRenderedIcons.add(new RenderedIcon(
+                            app.getComponentName().getPackageName(), values, isUpdate));
                     scheduleNext();
                 }
-            }
+            });
+        }
+
+        @Thunk boolean isCancelled() {
+            return mGeneration != mIconUpdateGeneration;
         }
 
         void scheduleNext() {
@@ -868,11 +1160,6 @@ public class IconCache {
                     "PRIMARY KEY (" + COLUMN_COMPONENT + ", " + COLUMN_USER + ") " +
                     ");");
         }
-
-        private void clearDB(SQLiteDatabase sqLiteDatabase) {
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-            onCreateTable(sqLiteDatabase);
-        }
     }
 
     private ContentValues newContentValues(Bitmap icon, Bitmap lowResIcon, String label,
@@ -898,20 +1185,17 @@ public class IconCache {
         } else {
             Bitmap lowResIcon = Bitmap.createBitmap(icon.getWidth() / LOW_RES_SCALE_FACTOR,
                     icon.getHeight() / LOW_RES_SCALE_FACTOR, Bitmap.Config.RGB_565);
-            synchronized (this) {
-                mLowResCanvas.setBitmap(lowResIcon);
-                mLowResCanvas.drawColor(lowResBackgroundColor);
-                mLowResCanvas.drawBitmap(icon, new Rect(0, 0, icon.getWidth(), icon.getHeight()),
-                        new Rect(0, 0, lowResIcon.getWidth(), lowResIcon.getHeight()),
-                        mLowResPaint);
-                mLowResCanvas.setBitmap(null);
-            }
+            Canvas canvas = new Canvas(lowResIcon);
+            canvas.drawColor(lowResBackgroundColor);
+            canvas.drawBitmap(icon, new Rect(0, 0, icon.getWidth(), icon.getHeight()),
+                    new Rect(0, 0, lowResIcon.getWidth(), lowResIcon.getHeight()),
+                    mLowResPaint);
+            canvas.setBitmap(null);
             return lowResIcon;
         }
     }
 
-    private static Bitmap loadIconNoResize(Cursor c, int iconIndex, BitmapFactory.Options options) {
-        byte[] data = c.getBlob(iconIndex);
+    private static Bitmap loadIconNoResize(byte[] data, BitmapFactory.Options options) {
         try {
             return BitmapFactory.decodeByteArray(data, 0, data.length, options);
         } catch (Exception e) {
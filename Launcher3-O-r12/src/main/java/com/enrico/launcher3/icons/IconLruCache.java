@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.icons;
+
+import android.os.UserHandle;
+
+import com.enrico.launcher3.icons.IconCache.CacheEntry;
+import com.enrico.launcher3.util.ComponentKey;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory part of the {@link IconCache}, bounded by the size of the icon bitmaps it holds.
+ * When the full-res icons go over their budget, the least recently used ones are demoted to
+ * their low-res version instead of being dropped. Low-res icons going over their own budget are
+ * dropped, and will be loaded again from the icon DB when needed.
+ *
+ * The entries are never modified once they are put in the cache, a demoted entry is replaced by
+ * a new one. All the methods are short and synchronized, except for the demotion of the entries
+ * which creates the low-res bitmaps outside of the lock.
+ */
+class IconLruCache {
+
+    /**
+     * Creates the low-res version of an entry.
+     */
+    interface LowResDemoter {
+
+        /**
+         * @return a new entry with the low-res icon, or null if the entry can't be demoted and
+         *         should be dropped instead.
+         */
+        CacheEntry demoteToLowRes(ComponentKey key, CacheEntry entry);
+    }
+
+    /**
+     * The entry of a key, and its size and resolution when it was accounted.
+     */
+    private static class Slot {
+        CacheEntry entry;
+        int accountedBytes;
+        boolean accountedLowRes;
+        // Set while the entry is demoted outside of the lock, the slot is not accounted then
+        boolean demoting;
+        // Set once the slot is no longer in the cache
+        boolean removed;
+
+        Slot(CacheEntry entry) {
+            this.entry = entry;
+        }
+    }
+
+    private final LinkedHashMap<ComponentKey, Slot> mEntries;
+    private final LowResDemoter mDemoter;
+    private final long mMaxFullResBytes;
+    private final long mMaxLowResBytes;
+
+    private long mFullResBytes;
+    private long mLowResBytes;
+
+    IconLruCache(int initialCapacity, long maxFullResBytes, long maxLowResBytes,
+            LowResDemoter demoter) {
+        // Access ordered, so that the eldest entry is the least recently used one
+        mEntries = new LinkedHashMap<>(initialCapacity, 0.75f, true);
+        mMaxFullResBytes = maxFullResBytes;
+        mMaxLowResBytes = maxLowResBytes;
+        mDemoter = demoter;
+    }
+
+    synchronized CacheEntry get(ComponentKey key) {
+        Slot slot = mEntries.get(key);
+        return slot == null ? null : slot.entry;
+    }
+
+    /**
+     * Adds the entry, which must not be modified afterwards, and trims the cache to its budget.
+     */
+    void put(ComponentKey key, CacheEntry entry) {
+        synchronized (this) {
+            Slot slot = new Slot(entry);
+            Slot old = mEntries.put(key, slot);
+            if (old != null) {
+                removed(old);
+            }
+            account(slot);
+        }
+        trimToSize(mMaxFullResBytes, mMaxLowResBytes);
+    }
+
+    synchronized void remove(ComponentKey key) {
+        Slot slot = mEntries.remove(key);
+        if (slot != null) {
+            removed(slot);
+        }
+    }
+
+    synchronized void clear() {
+        for (Slot slot : mEntries.values()) {
+            slot.removed = true;
+        }
+        mEntries.clear();
+        mFullResBytes = 0;
+        mLowResBytes = 0;
+    }
+
+    /**
+     * Removes all the entries of the given package and user.
+     */
+    synchronized void removePackage(String packageName, UserHandle user) {
+        Iterator<Map.Entry<ComponentKey, Slot>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ComponentKey, Slot> e = it.next();
+            ComponentKey key = e.getKey();
+            if (key.componentName.getPackageName().equals(packageName)
+                    && key.user.equals(user)) {
+                removed(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Demotes the least recently used full-res icons until they fit in
+     * {@param maxFullResBytes}, and drops low-res icons until they fit in {@param maxLowResBytes}.
+     * The low-res icons are created without holding the lock.
+     */
+    void trimToSize(long maxFullResBytes, long maxLowResBytes) {
+        ArrayList<ComponentKey> keys = null;
+        ArrayList<Slot> slots = null;
+        synchronized (this) {
+            if (mFullResBytes > maxFullResBytes) {
+                keys = new ArrayList<>();
+                slots = new ArrayList<>();
+                Iterator<Map.Entry<ComponentKey, Slot>> it = mEntries.entrySet().iterator();
+                while (mFullResBytes > maxFullResBytes && it.hasNext()) {
+                    Map.Entry<ComponentKey, Slot> e = it.next();
+                    Slot slot = e.getValue();
+                    if (slot.accountedLowRes || slot.demoting || slot.entry.icon == null) {
+                        continue;
+                    }
+                    unaccount(slot);
+                    slot.demoting = true;
+                    keys.add(e.getKey());
+                    slots.add(slot);
+                }
+            }
+            trimLowResLocked(maxLowResBytes);
+        }
+        if (slots == null) {
+            return;
+        }
+
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            CacheEntry entry;
+            synchronized (this) {
+                entry = slot.entry;
+            }
+            CacheEntry lowResEntry = mDemoter.demoteToLowRes(keys.get(i), entry);
+            synchronized (this) {
+                slot.demoting = false;
+                if (slot.removed || slot.entry != entry) {
+                    // The entry was replaced or removed while it was demoted
+                    continue;
+                }
+                if (lowResEntry == null) {
+                    mEntries.remove(keys.get(i));
+                    slot.removed = true;
+                } else {
+                    // Replaced in the slot, so that the entry keeps its place in the LRU order
+                    slot.entry = lowResEntry;
+                    account(slot);
+                }
+            }
+        }
+        synchronized (this) {
+            trimLowResLocked(maxLowResBytes);
+        }
+    }
+
+    private void trimLowResLocked(long maxLowResBytes) {
+        if (mLowResBytes > maxLowResBytes) {
+            Iterator<Slot> it = mEntries.values().iterator();
+            while (mLowResBytes > maxLowResBytes && it.hasNext()) {
+                Slot slot = it.next();
+                if (slot.accountedLowRes) {
+                    removed(slot);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    long getMaxFullResBytes() {
+        return mMaxFullResBytes;
+    }
+
+    long getMaxLowResBytes() {
+        return mMaxLowResBytes;
+    }
+
+    private void removed(Slot slot) {
+        unaccount(slot);
+        slot.removed = true;
+    }
+
+    private void account(Slot slot) {
+        CacheEntry entry = slot.entry;
+        slot.accountedBytes = entry.icon == null ? 0 : entry.icon.getByteCount();
+        slot.accountedLowRes = entry.isLowResIcon;
+        if (slot.accountedLowRes) {
+            mLowResBytes += slot.accountedBytes;
+        } else {
+            mFullResBytes += slot.accountedBytes;
+        }
+    }
+
+    private void unaccount(Slot slot) {
+        if (slot.accountedLowRes) {
+            mLowResBytes -= slot.accountedBytes;
+        } else {
+            mFullResBytes -= slot.accountedBytes;
+        }
+        slot.accountedBytes = 0;
+    }
+}
@@ -23,6 +23,7 @@ import android.os.AsyncTask;
 import android.util.Pair;
 
 import com.enrico.launcher3.ItemInfo;
+import com.enrico.launcher3.ItemInfoWithIcon;
 import com.enrico.launcher3.LauncherAppState;
 import com.enrico.launcher3.R;
 import com.enrico.launcher3.Utilities;
@@ -512,7 +513,11 @@ public class IconsManager {
     }
 
     public Bitmap getAppliedIconBitmap(Context context, IconCache iconCache, LauncherActivityInfo app, ItemInfo info) {
-        Drawable defaultIcon = new BitmapDrawable(context.getResources(), iconCache.getNonNullIcon(iconCache.getCacheEntry(app), info.user));
+        IconCache.CacheEntry entry = iconCache.getCacheEntry(app);
+        // The entry may have been dropped from memory, fall back to the bound icon
+        Bitmap icon = entry == null && info instanceof ItemInfoWithIcon
+                ? ((ItemInfoWithIcon) info).iconBitmap : iconCache.getNonNullIcon(entry, info.user);
+        Drawable defaultIcon = new BitmapDrawable(context.getResources(), icon);
         return LauncherIcons.createBadgedIconBitmap(defaultIcon, info.user, context, app.getApplicationInfo().targetSdkVersion);
     }
 }
@@ -18,7 +18,6 @@ package com.enrico.launcher3.model;
 import android.content.Context;
 import android.content.Intent;
 import android.os.UserHandle;
-import android.util.LongSparseArray;
 import android.util.Pair;
 
 import com.enrico.launcher3.AllAppsList;
@@ -68,40 +67,47 @@ public class AddWorkspaceItemsTask extends ExtendedModelTask {
         // can not use sBgWorkspaceScreens because loadWorkspace() may not have been
         // called.
         ArrayList<Long> workspaceScreens = LauncherModel.loadWorkspaceScreensDb(context);
-        synchronized(dataModel) {
-            for (ItemInfo item : workspaceApps) {
-                if (item.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION ||
-                        item.itemType == LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT) {
-                    // Short-circuit this logic if the icon exists somewhere on the workspace
-                    if (shortcutExists(dataModel, item.getIntent(), item.user)) {
-                        continue;
+        // The items are added to the model on this thread, publish them in a single snapshot
+        dataModel.beginBatchUpdate();
+        try {
+            synchronized(dataModel) {
+                for (ItemInfo item : workspaceApps) {
+                    if (item.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION ||
+                            item.itemType == LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT) {
+                        // Short-circuit this logic if the icon exists somewhere on the workspace
+                        if (shortcutExists(dataModel, addedItemsFinal, item.getIntent(),
+                                item.user)) {
+                            continue;
+                        }
                     }
-                }
 
-                // Find appropriate space for the item.
-                Pair<Long, int[]> coords = findSpaceForItem(app, dataModel, workspaceScreens,
-                        addedWorkspaceScreensFinal, item.spanX, item.spanY);
-                long screenId = coords.first;
-                int[] cordinates = coords.second;
+                    // Find appropriate space for the item.
+                    Pair<Long, int[]> coords = findSpaceForItem(app, dataModel, workspaceScreens,
+                            addedWorkspaceScreensFinal, addedItemsFinal, item.spanX, item.spanY);
+                    long screenId = coords.first;
+                    int[] cordinates = coords.second;
 
-                ItemInfo itemInfo;
-                if (item instanceof ShortcutInfo || item instanceof FolderInfo ||
-                        item instanceof LauncherAppWidgetInfo) {
-                    itemInfo = item;
-                } else if (item instanceof AppInfo) {
-                    itemInfo = ((AppInfo) item).makeShortcut();
-                } else {
-                    throw new RuntimeException("Unexpected info type");
-                }
+                    ItemInfo itemInfo;
+                    if (item instanceof ShortcutInfo || item instanceof FolderInfo ||
+                            item instanceof LauncherAppWidgetInfo) {
+                        itemInfo = item;
+                    } else if (item instanceof AppInfo) {
+                        itemInfo = ((AppInfo) item).makeShortcut();
+                    } else {
+                        throw new RuntimeException("Unexpected info type");
+                    }
 
-                // Add the shortcut to the db
-                getModelWriter().addItemToDatabase(itemInfo,
-                        LauncherSettings.Favorites.CONTAINER_DESKTOP, screenId,
-                        cordinates[0], cordinates[1]);
+                    // Add the shortcut to the db
+                    getModelWriter().addItemToDatabase(itemInfo,
+                            LauncherSettings.Favorites.CONTAINER_DESKTOP, screenId,
+                            cordinates[0], cordinates[1]);
 
-                // Save the ShortcutInfo for binding in the workspace
-                addedItemsFinal.add(itemInfo);
+                    // Save the ShortcutInfo for binding in the workspace
+                    addedItemsFinal.add(itemInfo);
+                }
             }
+        } finally {
+            dataModel.endBatchUpdate();
         }
 
         // Update the workspace screens
@@ -136,10 +142,12 @@ public class AddWorkspaceItemsTask extends ExtendedModelTask {
     }
 
     /**
-     * Returns true if the shortcuts already exists on the workspace. This must be called after
+     * Returns true if the shortcuts already exists on the workspace, or in {@param addedItems}
+     * which are not yet in the published snapshot of the model. This must be called after
      * the workspace has been loaded. We identify a shortcut by its intent.
      */
-    private boolean shortcutExists(BgDataModel dataModel, Intent intent, UserHandle user) {
+    private boolean shortcutExists(BgDataModel dataModel, ArrayList<ItemInfo> addedItems,
+            Intent intent, UserHandle user) {
         final String intentWithPkg, intentWithoutPkg;
         if (intent == null) {
             // Skip items with null intents
@@ -161,19 +169,34 @@ public class AddWorkspaceItemsTask extends ExtendedModelTask {
             intentWithoutPkg = intent.toUri(0);
         }
 
-        synchronized (dataModel) {
-            for (ItemInfo item : dataModel.itemsIdMap) {
-                if (item instanceof ShortcutInfo) {
-                    ShortcutInfo info = (ShortcutInfo) item;
-                    if (item.getIntent() != null && info.user.equals(user)) {
-                        Intent copyIntent = new Intent(item.getIntent());
-                        copyIntent.setSourceBounds(intent.getSourceBounds());
-                        String s = copyIntent.toUri(0);
-                        if (intentWithPkg.equals(s) || intentWithoutPkg.equals(s)) {
-                            return true;
-                        }
-                    }
-                }
+        // A matching shortcut references the same package, unless the intent has none
+        String packageName = intent.getComponent() != null
+                ? intent.getComponent().getPackageName() : intent.getPackage();
+        BgDataModel.Snapshot snapshot = dataModel.getSnapshot();
+        List<ItemInfo> candidates = packageName != null
+                ? snapshot.getItemsForPackage(packageName, user) : snapshot.items;
+        for (ItemInfo item : candidates) {
+            if (isSameShortcut(item, intent, user, intentWithPkg, intentWithoutPkg)) {
+                return true;
+            }
+        }
+        for (ItemInfo item : addedItems) {
+            if (isSameShortcut(item, intent, user, intentWithPkg, intentWithoutPkg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameShortcut(ItemInfo item, Intent intent, UserHandle user,
+            String intentWithPkg, String intentWithoutPkg) {
+        if (item instanceof ShortcutInfo) {
+            ShortcutInfo info = (ShortcutInfo) item;
+            if (item.getIntent() != null && info.user.equals(user)) {
+                Intent copyIntent = new Intent(item.getIntent());
+                copyIntent.setSourceBounds(intent.getSourceBounds());
+                String s = copyIntent.toUri(0);
+                return intentWithPkg.equals(s) || intentWithoutPkg.equals(s);
             }
         }
         return false;
@@ -187,22 +210,10 @@ public class AddWorkspaceItemsTask extends ExtendedModelTask {
             LauncherAppState app, BgDataModel dataModel,
             ArrayList<Long> workspaceScreens,
             ArrayList<Long> addedWorkspaceScreensFinal,
+            ArrayList<ItemInfo> addedItems,
             int spanX, int spanY) {
-        LongSparseArray<ArrayList<ItemInfo>> screenItems = new LongSparseArray<>();
-
-        // Use sBgItemsIdMap as all the items are already loaded.
-        synchronized (dataModel) {
-            for (ItemInfo info : dataModel.itemsIdMap) {
-                if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
-                    ArrayList<ItemInfo> items = screenItems.get(info.screenId);
-                    if (items == null) {
-                        items = new ArrayList<>();
-                        screenItems.put(info.screenId, items);
-                    }
-                    items.add(info);
-                }
-            }
-        }
+        // All the items are already loaded, the snapshot indexes them per screen.
+        BgDataModel.Snapshot snapshot = dataModel.getSnapshot();
 
         // Find appropriate space for the item.
         long screenId = 0;
@@ -215,7 +226,7 @@ public class AddWorkspaceItemsTask extends ExtendedModelTask {
         if (preferredScreenIndex < screenCount) {
             screenId = workspaceScreens.get(preferredScreenIndex);
             found = findNextAvailableIconSpaceInScreen(
-                    app, screenItems.get(screenId), cordinates, spanX, spanY);
+                    app, snapshot, addedItems, screenId, cordinates, spanX, spanY);
         }
 
         if (!found) {
@@ -223,7 +234,7 @@ public class AddWorkspaceItemsTask extends ExtendedModelTask {
             for (int screen = 1; screen < screenCount; screen++) {
                 screenId = workspaceScreens.get(screen);
                 if (findNextAvailableIconSpaceInScreen(
-                        app, screenItems.get(screenId), cordinates, spanX, spanY)) {
+                        app, snapshot, addedItems, screenId, cordinates, spanX, spanY)) {
                     // We found a space for it
                     found = true;
                     break;
@@ -243,22 +254,27 @@ public class AddWorkspaceItemsTask extends ExtendedModelTask {
 
             // If we still can't find an empty space, then God help us all!!!
             if (!findNextAvailableIconSpaceInScreen(
-                    app, screenItems.get(screenId), cordinates, spanX, spanY)) {
+                    app, snapshot, addedItems, screenId, cordinates, spanX, spanY)) {
                 throw new RuntimeException("Can't find space to add the item");
             }
         }
         return Pair.create(screenId, cordinates);
     }
 
+    /**
+     * @param addedItems the items added by this task, which are not yet in {@param snapshot}.
+     */
     private boolean findNextAvailableIconSpaceInScreen(
-            LauncherAppState app, ArrayList<ItemInfo> occupiedPos,
-            int[] xy, int spanX, int spanY) {
+            LauncherAppState app, BgDataModel.Snapshot snapshot, ArrayList<ItemInfo> addedItems,
+            long screenId, int[] xy, int spanX, int spanY) {
         InvariantDeviceProfile profile = app.getInvariantDeviceProfile();
 
-        GridOccupancy occupied = new GridOccupancy(profile.numColumns, profile.numRows);
-        if (occupiedPos != null) {
-            for (ItemInfo r : occupiedPos) {
-                occupied.markCells(r, true);
+        GridOccupancy occupied =
+                snapshot.getScreenOccupancy(screenId, profile.numColumns, profile.numRows);
+        for (ItemInfo info : addedItems) {
+            if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP
+                    && info.screenId == screenId) {
+                occupied.markCells(info.cellX, info.cellY, info.spanX, info.spanY, true);
             }
         }
         return occupied.findVacantCell(xy, spanX, spanY);
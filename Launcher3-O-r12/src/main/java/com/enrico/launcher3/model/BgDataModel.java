@@ -15,7 +15,9 @@
  */
 package com.enrico.launcher3.model;
 
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
 import android.os.UserHandle;
 import android.text.TextUtils;
 import android.util.MutableInt;
@@ -30,23 +32,220 @@ import com.enrico.launcher3.shortcuts.DeepShortcutManager;
 import com.enrico.launcher3.shortcuts.ShortcutInfoCompat;
 import com.enrico.launcher3.shortcuts.ShortcutKey;
 import com.enrico.launcher3.util.ComponentKey;
+import com.enrico.launcher3.util.GridOccupancy;
 import com.enrico.launcher3.util.LongArrayMap;
 import com.enrico.launcher3.util.MultiHashMap;
+import com.enrico.launcher3.util.PackageUserKey;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * All the data stored in-memory and managed by the LauncherModel
+ * All the data stored in-memory and managed by the LauncherModel.
+ *
+ * The collections below are guarded by the model lock. Readers which don't modify them should
+ * use {@link #getSnapshot()} instead, which does not lock. Code modifying the collections
+ * directly must call {@link #publishSnapshot()} once done, while still holding the lock.
  */
 public class BgDataModel {
 
+    /**
+     * An immutable copy of the item collections, published after every change. The
+     * {@link ItemInfo}s themselves are shared with the model and are not copied.
+     */
+    public static final class Snapshot {
+
+        /**
+         * Incremented for every published snapshot.
+         */
+        public final int version;
+
+        /**
+         * All the items of {@link BgDataModel#itemsIdMap}.
+         */
+        public final List<ItemInfo> items;
+        public final List<ItemInfo> workspaceItems;
+        public final List<LauncherAppWidgetInfo> appWidgets;
+        public final List<FolderInfo> folders;
+
+        private final LongArrayMap<ItemInfo> mItemsIdMap;
+        private final LongArrayMap<FolderInfo> mFolders;
+
+        // Secondary indexes over the items, built on first use and guarded by the snapshot
+        private HashMap<PackageUserKey, ArrayList<ItemInfo>> mItemsByPackage;
+        private HashMap<ComponentKey, ArrayList<ItemInfo>> mItemsByComponent;
+        private LongArrayMap<ArrayList<ItemInfo>> mItemsByContainer;
+        private LongArrayMap<ArrayList<ItemInfo>> mDesktopItemsByScreen;
+
+        Snapshot(int version, BgDataModel dataModel) {
+            this.version = version;
+            mItemsIdMap = dataModel.itemsIdMap.clone();
+            mFolders = dataModel.folders.clone();
+            items = Collections.unmodifiableList(valuesOf(mItemsIdMap));
+            workspaceItems = Collections.unmodifiableList(
+                    new ArrayList<>(dataModel.workspaceItems));
+            appWidgets = Collections.unmodifiableList(new ArrayList<>(dataModel.appWidgets));
+            folders = Collections.unmodifiableList(valuesOf(mFolders));
+        }
+
+        public ItemInfo getItem(long id) {
+            return mItemsIdMap.get(id);
+        }
+
+        public FolderInfo getFolder(long id) {
+            return mFolders.get(id);
+        }
+
+        /**
+         * @return the items which reference the package: through their target component or
+         * intent package, their icon resource, or their widget provider.
+         */
+        public synchronized List<ItemInfo> getItemsForPackage(String packageName,
+                UserHandle user) {
+            buildIndexesLocked();
+            return unmodifiableOrEmpty(mItemsByPackage.get(new PackageUserKey(packageName, user)));
+        }
+
+        /**
+         * @return the items which reference any of the packages, each item listed once.
+         */
+        public synchronized List<ItemInfo> getItemsForPackages(Collection<String> packageNames,
+                UserHandle user) {
+            buildIndexesLocked();
+            Set<ItemInfo> seen =
+                    Collections.newSetFromMap(new IdentityHashMap<ItemInfo, Boolean>());
+            ArrayList<ItemInfo> result = new ArrayList<>();
+            for (String packageName : packageNames) {
+                ArrayList<ItemInfo> items =
+                        mItemsByPackage.get(new PackageUserKey(packageName, user));
+                if (items != null) {
+                    for (ItemInfo info : items) {
+                        if (seen.add(info)) {
+                            result.add(info);
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return the shortcuts and widgets targeting the component.
+         */
+        public synchronized List<ItemInfo> getItemsForComponent(ComponentKey key) {
+            buildIndexesLocked();
+            return unmodifiableOrEmpty(mItemsByComponent.get(key));
+        }
+
+        /**
+         * @return the items in the container: the desktop, the hotseat or a folder id.
+         */
+        public synchronized List<ItemInfo> getChildren(long container) {
+            buildIndexesLocked();
+            return unmodifiableOrEmpty(mItemsByContainer.get(container));
+        }
+
+        /**
+         * @return a new occupancy grid with the cells of the desktop items on the screen marked.
+         */
+        public synchronized GridOccupancy getScreenOccupancy(long screenId, int countX,
+                int countY) {
+            buildIndexesLocked();
+            GridOccupancy occupancy = new GridOccupancy(countX, countY);
+            ArrayList<ItemInfo> items = mDesktopItemsByScreen.get(screenId);
+            if (items != null) {
+                for (ItemInfo info : items) {
+                    occupancy.markCells(info.cellX, info.cellY, info.spanX, info.spanY, true);
+                }
+            }
+            return occupancy;
+        }
+
+        private void buildIndexesLocked() {
+            if (mItemsByPackage != null) {
+                return;
+            }
+            mItemsByPackage = new HashMap<>();
+            mItemsByComponent = new HashMap<>();
+            mItemsByContainer = new LongArrayMap<>();
+            mDesktopItemsByScreen = new LongArrayMap<>();
+
+            ArrayList<String> packageNames = new ArrayList<>(3);
+            for (ItemInfo info : items) {
+                addToList(mItemsByContainer, info.container, info);
+                if (info.container == LauncherSettings.Favorites.CONTAINER_DESKTOP) {
+                    addToList(mDesktopItemsByScreen, info.screenId, info);
+                }
+
+                ComponentName cn = info instanceof LauncherAppWidgetInfo
+                        ? ((LauncherAppWidgetInfo) info).providerName : info.getTargetComponent();
+                packageNames.clear();
+                if (cn != null) {
+                    addToList(mItemsByComponent, new ComponentKey(cn, info.user), info);
+                    packageNames.add(cn.getPackageName());
+                }
+                Intent intent = info.getIntent();
+                if (intent != null && intent.getPackage() != null
+                        && !packageNames.contains(intent.getPackage())) {
+                    packageNames.add(intent.getPackage());
+                }
+                if (info instanceof ShortcutInfo && ((ShortcutInfo) info).iconResource != null) {
+                    String iconPackage = ((ShortcutInfo) info).iconResource.packageName;
+                    if (iconPackage != null && !packageNames.contains(iconPackage)) {
+                        packageNames.add(iconPackage);
+                    }
+                }
+                for (String packageName : packageNames) {
+                    addToList(mItemsByPackage, new PackageUserKey(packageName, info.user), info);
+                }
+            }
+        }
+
+        private static <K> void addToList(Map<K, ArrayList<ItemInfo>> map, K key,
+                ItemInfo info) {
+            ArrayList<ItemInfo> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                map.put(key, list);
+            }
+            list.add(info);
+        }
+
+        private static void addToList(LongArrayMap<ArrayList<ItemInfo>> map, long key,
+                ItemInfo info) {
+            ArrayList<ItemInfo> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                map.put(key, list);
+            }
+            list.add(info);
+        }
+
+        private static List<ItemInfo> unmodifiableOrEmpty(List<ItemInfo> list) {
+            return list == null ? Collections.<ItemInfo>emptyList()
+                    : Collections.unmodifiableList(list);
+        }
+
+        private static <T> ArrayList<T> valuesOf(LongArrayMap<T> map) {
+            int size = map.size();
+            ArrayList<T> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(map.valueAt(i));
+            }
+            return values;
+        }
+    }
+
     /**
      * Map of all the ItemInfos (shortcuts, folders, and widgets) created by
      * LauncherModel to their ids
@@ -84,6 +283,40 @@ public class BgDataModel {
      */
     public final MultiHashMap<ComponentKey, String> deepShortcutMap = new MultiHashMap<>();
 
+    private volatile Snapshot mSnapshot = new Snapshot(0, this);
+
+    // Number of nested batch updates, guarded by the model lock
+    private int mBatchUpdateDepth;
+
+    /**
+     * @return the last published copy of the item collections. Does not lock.
+     */
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Publishes a new snapshot of the item collections, unless a batch update is in progress.
+     */
+    public synchronized void publishSnapshot() {
+        if (mBatchUpdateDepth == 0) {
+            mSnapshot = new Snapshot(mSnapshot.version + 1, this);
+        }
+    }
+
+    /**
+     * Defers publishing the snapshots until {@link #endBatchUpdate()}, so that a bulk update
+     * does not copy the collections for every item. Readers keep seeing the previous snapshot.
+     */
+    public synchronized void beginBatchUpdate() {
+        mBatchUpdateDepth++;
+    }
+
+    public synchronized void endBatchUpdate() {
+        mBatchUpdateDepth--;
+        publishSnapshot();
+    }
+
     /**
      * Clears all the data
      */
@@ -95,45 +328,51 @@ public class BgDataModel {
         workspaceScreens.clear();
         pinnedShortcutCounts.clear();
         deepShortcutMap.clear();
+        publishSnapshot();
     }
 
-     public synchronized void dump(String prefix, FileDescriptor fd, PrintWriter writer,
+     public void dump(String prefix, FileDescriptor fd, PrintWriter writer,
              String[] args) {
         if (args.length > 0 && TextUtils.equals(args[0], "--proto")) {
 
             return;
         }
-        writer.println(prefix + "Data Model:");
-        writer.print(prefix + " ---- workspace screens: ");
-        for (int i = 0; i < workspaceScreens.size(); i++) {
-            writer.print(" " + workspaceScreens.get(i).toString());
+        Snapshot snapshot = mSnapshot;
+        writer.println(prefix + "Data Model: version=" + snapshot.version);
+        synchronized (this) {
+            writer.print(prefix + " ---- workspace screens: ");
+            for (int i = 0; i < workspaceScreens.size(); i++) {
+                writer.print(" " + workspaceScreens.get(i).toString());
+            }
         }
         writer.println();
         writer.println(prefix + " ---- workspace items ");
-        for (int i = 0; i < workspaceItems.size(); i++) {
-            writer.println(prefix + '\t' + workspaceItems.get(i).toString());
+        for (ItemInfo info : snapshot.workspaceItems) {
+            writer.println(prefix + '\t' + info.toString());
         }
         writer.println(prefix + " ---- appwidget items ");
-        for (int i = 0; i < appWidgets.size(); i++) {
-            writer.println(prefix + '\t' + appWidgets.get(i).toString());
+        for (LauncherAppWidgetInfo info : snapshot.appWidgets) {
+            writer.println(prefix + '\t' + info.toString());
         }
         writer.println(prefix + " ---- folder items ");
-        for (int i = 0; i< folders.size(); i++) {
-            writer.println(prefix + '\t' + folders.valueAt(i).toString());
+        for (FolderInfo info : snapshot.folders) {
+            writer.println(prefix + '\t' + info.toString());
         }
         writer.println(prefix + " ---- items id map ");
-        for (int i = 0; i< itemsIdMap.size(); i++) {
-            writer.println(prefix + '\t' + itemsIdMap.valueAt(i).toString());
+        for (ItemInfo info : snapshot.items) {
+            writer.println(prefix + '\t' + info.toString());
         }
 
         if (args.length > 0 && TextUtils.equals(args[0], "--all")) {
-            writer.println(prefix + "shortcuts");
-            for (ArrayList<String> map : deepShortcutMap.values()) {
-                writer.print(prefix + "  ");
-                for (String str : map) {
-                    writer.print(str.toString() + ", ");
+            synchronized (this) {
+                writer.println(prefix + "shortcuts");
+                for (ArrayList<String> map : deepShortcutMap.values()) {
+                    writer.print(prefix + "  ");
+                    for (String str : map) {
+                        writer.print(str.toString() + ", ");
+                    }
+                    writer.println();
                 }
-                writer.println();
             }
         }
     }
@@ -172,6 +411,7 @@ public class BgDataModel {
             }
             itemsIdMap.remove(item.id);
         }
+        publishSnapshot();
     }
 
     synchronized void addItem(Context context, ItemInfo item, boolean newItem) {
@@ -219,6 +459,7 @@ public class BgDataModel {
                 appWidgets.add((LauncherAppWidgetInfo) item);
                 break;
         }
+        publishSnapshot();
     }
 
     /**
@@ -232,6 +473,7 @@ public class BgDataModel {
             // No placeholder -- create a new instance
             folderInfo = new FolderInfo();
             folders.put(id, folderInfo);
+            publishSnapshot();
         }
         return folderInfo;
     }
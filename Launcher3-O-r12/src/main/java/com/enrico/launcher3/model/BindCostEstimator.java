@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.model;
+
+import com.enrico.launcher3.LauncherSettings.Favorites;
+
+import java.util.Arrays;
+
+/**
+ * Estimates how long binding a workspace item takes on the UI thread, per item type, from the
+ * duration of the previous bind batches. Only used from the UI thread.
+ */
+public class BindCostEstimator {
+
+    private static final long MIN_COST_NANOS = 20_000;
+    private static final long MAX_COST_NANOS = 50_000_000;
+
+    // Weight of the last batch in the running estimates
+    private static final float SMOOTHING = 0.25f;
+
+    private final long[] mCostNanos = new long[Favorites.ITEM_TYPE_DEEP_SHORTCUT + 1];
+
+    public BindCostEstimator() {
+        Arrays.fill(mCostNanos, 500_000);
+        mCostNanos[Favorites.ITEM_TYPE_FOLDER] = 1_500_000;
+        mCostNanos[Favorites.ITEM_TYPE_APPWIDGET] = 5_000_000;
+        mCostNanos[Favorites.ITEM_TYPE_CUSTOM_APPWIDGET] = 5_000_000;
+    }
+
+    /**
+     * @return the array to count the items of a batch in, indexed by item type.
+     */
+    public int[] newBatchCounts() {
+        return new int[mCostNanos.length];
+    }
+
+    public long getCostNanos(int itemType) {
+        return mCostNanos[getIndex(itemType)];
+    }
+
+    /**
+     * Adds an item to the counts of the current batch.
+     * @return the estimated cost of the item.
+     */
+    public long addToBatch(int[] batchCounts, int itemType) {
+        int index = getIndex(itemType);
+        batchCounts[index]++;
+        return mCostNanos[index];
+    }
+
+    /**
+     * Scales the estimates of the item types present in the batch by how much the batch was over
+     * or under its estimated cost.
+     */
+    public void onBatchBound(int[] batchCounts, long elapsedNanos) {
+        long estimated = 0;
+        for (int i = 0; i < batchCounts.length; i++) {
+            estimated += batchCounts[i] * mCostNanos[i];
+        }
+        if (estimated <= 0) {
+            return;
+        }
+        float ratio = (float) elapsedNanos / estimated;
+        for (int i = 0; i < batchCounts.length; i++) {
+            if (batchCounts[i] > 0) {
+                long measured = (long) (mCostNanos[i] * ratio);
+                long cost = mCostNanos[i] + (long) (SMOOTHING * (measured - mCostNanos[i]));
+                mCostNanos[i] = Math.max(MIN_COST_NANOS, Math.min(MAX_COST_NANOS, cost));
+            }
+        }
+    }
+
+    private int getIndex(int itemType) {
+        return itemType >= 0 && itemType < mCostNanos.length
+                ? itemType : Favorites.ITEM_TYPE_APPLICATION;
+    }
+}
@@ -56,21 +56,19 @@ public class CacheDataUpdatedTask extends ExtendedModelTask {
         final ArrayList<AppInfo> updatedApps = new ArrayList<>();
 
         ArrayList<ShortcutInfo> updatedShortcuts = new ArrayList<>();
-        synchronized (dataModel) {
-            for (ItemInfo info : dataModel.itemsIdMap) {
-                if (info instanceof ShortcutInfo && mUser.equals(info.user)) {
-                    ShortcutInfo si = (ShortcutInfo) info;
-                    ComponentName cn = si.getTargetComponent();
-                    if (si.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
-                            && isValidShortcut(si) && cn != null
-                            && mPackages.contains(cn.getPackageName())) {
-                        iconCache.getTitleAndIcon(si, si.usingLowResIcon);
-                        updatedShortcuts.add(si);
-                    }
+        for (ItemInfo info : dataModel.getSnapshot().getItemsForPackages(mPackages, mUser)) {
+            if (info instanceof ShortcutInfo && mUser.equals(info.user)) {
+                ShortcutInfo si = (ShortcutInfo) info;
+                ComponentName cn = si.getTargetComponent();
+                if (si.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+                        && isValidShortcut(si) && cn != null
+                        && mPackages.contains(cn.getPackageName())) {
+                    iconCache.getTitleAndIcon(si, si.usingLowResIcon);
+                    updatedShortcuts.add(si);
                 }
             }
-            apps.updateIconsAndLabels(mPackages, mUser, updatedApps);
         }
+        apps.updateIconsAndLabels(mPackages, mUser, updatedApps);
         bindUpdatedShortcuts(updatedShortcuts, mUser);
 
         if (!updatedApps.isEmpty()) {
@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.model;
+
+import com.enrico.launcher3.util.GridOccupancy;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Finds the placement of a set of items on a grid which loses the least weight, and then
+ * moves the items the least. Used by {@link GridSizeMigrationTask}, it does not depend on the
+ * Android framework so that it can be benchmarked on the JVM.
+ *
+ * A greedy pass first places every widget at its closest vacant position, which always
+ * completes and seeds the best placement. A branch-and-bound search then improves on it until
+ * the deadline, by iterative deepening: each pass tries the widgets at the positions within a
+ * radius of their original position, and the radius grows until the last pass tries the whole
+ * grid. The placements which move the widgets the least are thereby found first, and tighten the
+ * bound of the following passes. The search prunes branches whose weight loss plus a lower bound
+ * of the loss of the remaining items cannot beat the best placement, and branches reaching an
+ * already visited grid state at a higher cost.
+ */
+public class GridPlacementSolver {
+
+    private static final int MAX_VISITED_STATES = 4096;
+    private static final float BOUND_TOLERANCE = 0.001f;
+
+    private final GridOccupancy mOccupied;
+    private final int mCountX;
+    private final int mCountY;
+
+    // The first row in the grid from where the placement should start.
+    private final int mStartY;
+
+    // If set to true, item movement are not considered in move cost, leading to a more
+    // linear placement.
+    private final boolean mIgnoreMove;
+
+    private final long mDeadlineNanos;
+
+    // The items, in the order they are placed. The positions and spans change during the search.
+    private int mItemCount;
+    private int[] mCellX = new int[0];
+    private int[] mCellY = new int[0];
+    private int[] mSpanX = new int[0];
+    private int[] mSpanY = new int[0];
+    private int[] mMinSpanX = new int[0];
+    private int[] mMinSpanY = new int[0];
+    private float[] mWeight = new float[0];
+
+    private float mLowestWeightLoss = Float.MAX_VALUE;
+    private float mLowestMoveCost = Float.MAX_VALUE;
+
+    // Whether each item is placed in the current branch, and the position and span of the
+    // placed items in the best placement found so far.
+    private boolean[] mPlaced;
+    private boolean[] mBestPlaced;
+    private int[] mBestCells;
+
+    // The smallest area each item can be placed in, and the items by increasing weight per
+    // cell, to bound the weight lost by the items which do not fit in the vacant cells.
+    private int[] mMinArea;
+    private int[] mByDensity;
+    private int mVacantCells;
+
+    // Zobrist keys of the grid cells and of the item index. The state key identifies the
+    // cells occupied by the placed items, and the costs at which each state was visited.
+    private long[] mCellKeys;
+    private long[] mIndexKeys;
+    private long mStateKey;
+    private final HashMap<Long, float[]> mVisitedStates = new HashMap<>();
+
+    private boolean mGreedy;
+    // The distance from their original position at which widgets are tried in the current pass,
+    // and the distance at which a pass tries the whole grid for every widget.
+    private int mRadius;
+    private int mMaxRadius;
+    private int mVisitedNodes;
+    private boolean mTimedOut;
+
+    /**
+     * @param occupied the cells which are not available, modified during the search
+     * @param deadlineNanos the {@link System#nanoTime()} after which the best placement found so
+     *        far is used
+     */
+    public GridPlacementSolver(GridOccupancy occupied, int countX, int countY, int startY,
+            boolean ignoreMove, long deadlineNanos) {
+        mOccupied = occupied;
+        mCountX = countX;
+        mCountY = countY;
+        mStartY = startY;
+        mIgnoreMove = ignoreMove;
+        mDeadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Adds an item to place. Items are placed in the order they are added, larger widgets
+     * should come first followed by 1x1 items by decreasing weight.
+     */
+    public void addItem(int cellX, int cellY, int spanX, int spanY, int minSpanX, int minSpanY,
+            float weight) {
+        if (mItemCount == mCellX.length) {
+            int capacity = Math.max(8, mItemCount * 2);
+            mCellX = Arrays.copyOf(mCellX, capacity);
+            mCellY = Arrays.copyOf(mCellY, capacity);
+            mSpanX = Arrays.copyOf(mSpanX, capacity);
+            mSpanY = Arrays.copyOf(mSpanY, capacity);
+            mMinSpanX = Arrays.copyOf(mMinSpanX, capacity);
+            mMinSpanY = Arrays.copyOf(mMinSpanY, capacity);
+            mWeight = Arrays.copyOf(mWeight, capacity);
+        }
+        mCellX[mItemCount] = cellX;
+        mCellY[mItemCount] = cellY;
+        mSpanX[mItemCount] = spanX;
+        mSpanY[mItemCount] = spanY;
+        mMinSpanX[mItemCount] = minSpanX;
+        mMinSpanY[mItemCount] = minSpanY;
+        mWeight[mItemCount] = weight;
+        mItemCount++;
+    }
+
+    public void solve() {
+        init();
+
+        mGreedy = true;
+        find(0, 0, 0);
+
+        mGreedy = false;
+        for (mRadius = 0; mRadius <= mMaxRadius; mRadius++) {
+            if (System.nanoTime() >= mDeadlineNanos) {
+                break;
+            }
+            // The states of the previous pass were only explored within a smaller radius.
+            mVisitedStates.clear();
+            find(0, 0, 0);
+        }
+        mVisitedStates.clear();
+    }
+
+    public float getWeightLoss() {
+        return mLowestWeightLoss;
+    }
+
+    public float getMoveCost() {
+        return mLowestMoveCost;
+    }
+
+    /**
+     * @return whether the item at {@param index} is placed in the best placement.
+     */
+    public boolean isPlaced(int index) {
+        return mBestPlaced[index];
+    }
+
+    public int getCellX(int index) {
+        return mBestCells[index * 4];
+    }
+
+    public int getCellY(int index) {
+        return mBestCells[index * 4 + 1];
+    }
+
+    public int getSpanX(int index) {
+        return mBestCells[index * 4 + 2];
+    }
+
+    public int getSpanY(int index) {
+        return mBestCells[index * 4 + 3];
+    }
+
+    private void init() {
+        final int count = mItemCount;
+        mPlaced = new boolean[count];
+        mBestPlaced = new boolean[count];
+        mBestCells = new int[count * 4];
+
+        mMinArea = new int[count];
+        Integer[] byDensity = new Integer[count];
+        mMaxRadius = 0;
+        for (int i = 0; i < count; i++) {
+            if (mSpanX[i] > 1 || mSpanY[i] > 1) {
+                mMaxRadius = Math.max(mMaxRadius, Math.max(
+                        Math.max(mCellX[i], mCountX - 1 - mCellX[i]),
+                        Math.max(mCellY[i] - mStartY, mCountY - 1 - mCellY[i])));
+            }
+            int minX = mSpanX[i] > mMinSpanX[i] ? mSpanX[i] - 1 : mSpanX[i];
+            int minY = mSpanY[i] > mMinSpanY[i] ? mSpanY[i] - 1 : mSpanY[i];
+            mMinArea[i] = Math.max(1, minX * minY);
+            byDensity[i] = i;
+        }
+        Arrays.sort(byDensity, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(mWeight[a] / mMinArea[a], mWeight[b] / mMinArea[b]);
+            }
+        });
+        mByDensity = new int[count];
+        for (int i = 0; i < count; i++) {
+            mByDensity[i] = byDensity[i];
+        }
+
+        mVacantCells = 0;
+        for (int y = mStartY; y < mCountY; y++) {
+            for (int x = 0; x < mCountX; x++) {
+                if (!mOccupied.isOccupied(x, y)) {
+                    mVacantCells++;
+                }
+            }
+        }
+
+        // A fixed seed keeps the migration deterministic
+        Random random = new Random(mCountX * 31 + mCountY);
+        mCellKeys = new long[mCountX * mCountY];
+        for (int i = 0; i < mCellKeys.length; i++) {
+            mCellKeys[i] = random.nextLong();
+        }
+        mIndexKeys = new long[count + 1];
+        for (int i = 0; i < mIndexKeys.length; i++) {
+            mIndexKeys[i] = random.nextLong();
+        }
+        mStateKey = 0;
+    }
+
+    /**
+     * Recursively finds a placement for the provided items.
+     * @param index the position in the items to start looking at.
+     * @param weightLoss total weight loss upto this point
+     * @param moveCost total move cost upto this point
+     */
+    private void find(int index, float weightLoss, float moveCost) {
+        if (!mGreedy && (++mVisitedNodes & 0xFF) == 0 && System.nanoTime() > mDeadlineNanos) {
+            mTimedOut = true;
+        }
+        if (mTimedOut) {
+            // Keep the best placement found so far.
+            return;
+        }
+
+        float lossBound = weightLoss + getWeightLossLowerBound(index);
+        if ((lossBound > mLowestWeightLoss) ||
+                ((lossBound == mLowestWeightLoss) && (moveCost >= mLowestMoveCost))) {
+            // Abort, as we already have a better solution.
+            return;
+
+        } else if (index >= mItemCount) {
+            // End loop.
+            mLowestWeightLoss = weightLoss;
+            mLowestMoveCost = moveCost;
+
+            // Record the current configuration as it can change during recursion.
+            for (int i = 0; i < mItemCount; i++) {
+                mBestPlaced[i] = mPlaced[i];
+                if (mPlaced[i]) {
+                    mBestCells[i * 4] = mCellX[i];
+                    mBestCells[i * 4 + 1] = mCellY[i];
+                    mBestCells[i * 4 + 2] = mSpanX[i];
+                    mBestCells[i * 4 + 3] = mSpanY[i];
+                }
+            }
+            return;
+        }
+
+        if (!mGreedy && isVisitedAtLowerCost(index, weightLoss, moveCost)) {
+            // The remaining items were already placed from the same grid state.
+            return;
+        }
+
+        final int myX = mCellX[index];
+        final int myY = mCellY[index];
+        final int myW = mSpanX[index];
+        final int myH = mSpanY[index];
+
+        if (myW > 1 || myH > 1) {
+            // If the current item is a widget (and it greater than 1x1), try to place it at
+            // all possible positions. This is because a widget placed at one position can
+            // affect the placement of a different widget.
+
+            if (mGreedy) {
+                // Only try the closest position at which the widget fits without resizing.
+                int newDistance = Integer.MAX_VALUE;
+                int newX = -1, newY = -1;
+                for (int y = mStartY; y < mCountY; y++) {
+                    for (int x = 0; x < mCountX; x++) {
+                        int dist = (myX - x) * (myX - x) + (myY - y) * (myY - y);
+                        if (dist < newDistance && mOccupied.isRegionVacant(x, y, myW, myH)) {
+                            newX = x;
+                            newY = y;
+                            newDistance = dist;
+                        }
+                    }
+                }
+                if (newX >= 0) {
+                    mCellX[index] = newX;
+                    mCellY[index] = newY;
+                    placeAndFind(index, weightLoss, getMoveCost(index, myX, myY, moveCost));
+                    mCellX[index] = myX;
+                    mCellY[index] = myY;
+                } else {
+                    find(index + 1, weightLoss + mWeight[index], moveCost);
+                }
+                return;
+            }
+
+            int maxX = Math.min(mCountX - 1, myX + mRadius);
+            int maxY = Math.min(mCountY - 1, myY + mRadius);
+            for (int y = Math.max(mStartY, myY - mRadius); y <= maxY; y++) {
+                for (int x = Math.max(0, myX - mRadius); x <= maxX; x++) {
+                    mCellX[index] = x;
+                    mCellY[index] = y;
+                    float newMoveCost = getMoveCost(index, myX, myY, moveCost);
+
+                    if (mOccupied.isRegionVacant(x, y, myW, myH)) {
+                        // place at this position and continue search.
+                        placeAndFind(index, weightLoss, newMoveCost);
+                    }
+
+                    // Try resizing horizontally
+                    if (myW > mMinSpanX[index] && mOccupied.isRegionVacant(x, y, myW - 1, myH)) {
+                        mSpanX[index]--;
+                        // 1 extra move cost
+                        placeAndFind(index, weightLoss, newMoveCost + 1);
+                        mSpanX[index]++;
+                    }
+
+                    // Try resizing vertically
+                    if (myH > mMinSpanY[index] && mOccupied.isRegionVacant(x, y, myW, myH - 1)) {
+                        mSpanY[index]--;
+                        // 1 extra move cost
+                        placeAndFind(index, weightLoss, newMoveCost + 1);
+                        mSpanY[index]++;
+                    }
+
+                    // Try resizing horizontally & vertically
+                    if (myH > mMinSpanY[index] && myW > mMinSpanX[index] &&
+                            mOccupied.isRegionVacant(x, y, myW - 1, myH - 1)) {
+                        mSpanX[index]--;
+                        mSpanY[index]--;
+                        // 2 extra move cost
+                        placeAndFind(index, weightLoss, newMoveCost + 2);
+                        mSpanX[index]++;
+                        mSpanY[index]++;
+                    }
+                    mCellX[index] = myX;
+                    mCellY[index] = myY;
+                }
+            }
+
+            // Finally also try a solution when this item is not included. Trying it in the end
+            // causes it to get skipped in most cases due to higher weight loss.
+            find(index + 1, weightLoss + mWeight[index], moveCost);
+        } else {
+            // Since this is a 1x1 item and all the following items are also 1x1, just place
+            // it at 'the most appropriate position' and hope for the best.
+            // The most appropriate position: one with lease straight line distance
+            int newDistance = Integer.MAX_VALUE;
+            int newX = Integer.MAX_VALUE, newY = Integer.MAX_VALUE;
+
+            for (int y = mStartY; y < mCountY; y++) {
+                for (int x = 0; x < mCountX; x++) {
+                    if (!mOccupied.isOccupied(x, y)) {
+                        int dist = mIgnoreMove ? 0 :
+                                ((myX - x) * (myX - x) + (myY - y) * (myY - y));
+                        if (dist < newDistance) {
+                            newX = x;
+                            newY = y;
+                            newDistance = dist;
+                        }
+                    }
+                }
+            }
+
+            if (newX < mCountX && newY < mCountY) {
+                mCellX[index] = newX;
+                mCellY[index] = newY;
+                placeAndFind(index, weightLoss, getMoveCost(index, myX, myY, moveCost));
+                mCellX[index] = myX;
+                mCellY[index] = myY;
+
+                // Try to find a solution without this item, only if
+                //  1) there was at least one space, i.e., we were able to place this item
+                //  2) if the next item has the same weight (all items are already sorted), as
+                //     if it has lower weight, that solution will automatically get discarded.
+                //  3) ignoreMove false otherwise, move cost is ignored and the weight will
+                //      anyway be same.
+                if (!mGreedy && index + 1 < mItemCount
+                        && mWeight[index + 1] >= mWeight[index] && !mIgnoreMove) {
+                    find(index + 1, weightLoss + mWeight[index], moveCost);
+                }
+            } else {
+                // No more space. Jump to the end.
+                for (int i = index + 1; i < mItemCount; i++) {
+                    weightLoss += mWeight[i];
+                }
+                find(mItemCount, weightLoss + mWeight[index], moveCost);
+            }
+        }
+    }
+
+    private float getMoveCost(int index, int originalX, int originalY, float moveCost) {
+        if (mIgnoreMove) {
+            return moveCost;
+        }
+        return moveCost + (mCellX[index] != originalX ? 1 : 0)
+                + (mCellY[index] != originalY ? 1 : 0);
+    }
+
+    /**
+     * Places the item at its current position and span, and continues the search with the
+     * next item.
+     */
+    private void placeAndFind(int index, float weightLoss, float moveCost) {
+        markCells(index, true);
+        mPlaced[index] = true;
+        find(index + 1, weightLoss, moveCost);
+        mPlaced[index] = false;
+        markCells(index, false);
+    }
+
+    private void markCells(int index, boolean value) {
+        int cellX = mCellX[index];
+        int cellY = mCellY[index];
+        int spanX = mSpanX[index];
+        int spanY = mSpanY[index];
+        mOccupied.markCells(cellX, cellY, spanX, spanY, value);
+        for (int y = cellY; y < cellY + spanY; y++) {
+            for (int x = cellX; x < cellX + spanX; x++) {
+                mStateKey ^= mCellKeys[y * mCountX + x];
+            }
+        }
+        if (cellY >= mStartY) {
+            mVacantCells += (value ? -1 : 1) * spanX * spanY;
+        }
+    }
+
+    /**
+     * @return a lower bound of the weight lost when placing the items from {@param index},
+     *         as the fractional knapsack of the items which do not fit in the vacant cells.
+     */
+    private float getWeightLossLowerBound(int index) {
+        int excess = -mVacantCells;
+        for (int i = index; i < mItemCount; i++) {
+            excess += mMinArea[i];
+        }
+        if (excess <= 0) {
+            return 0;
+        }
+        float bound = 0;
+        for (int i : mByDensity) {
+            if (i < index) {
+                continue;
+            }
+            if (mMinArea[i] >= excess) {
+                bound += mWeight[i] * excess / mMinArea[i];
+                break;
+            }
+            bound += mWeight[i];
+            excess -= mMinArea[i];
+        }
+        // Allow for rounding, the bound must never exceed the actual loss.
+        return Math.max(0, bound - BOUND_TOLERANCE);
+    }
+
+    /**
+     * Records the costs at which the current grid state is reached for the item at
+     * {@param index}.
+     * @return true if the state was already reached at costs no higher than these.
+     */
+    private boolean isVisitedAtLowerCost(int index, float weightLoss, float moveCost) {
+        long key = mStateKey ^ mIndexKeys[index];
+        float[] costs = mVisitedStates.get(key);
+        if (costs == null) {
+            if (mVisitedStates.size() < MAX_VISITED_STATES) {
+                mVisitedStates.put(key, new float[] {weightLoss, moveCost});
+            }
+            return false;
+        }
+        if (costs[0] <= weightLoss && costs[1] <= moveCost) {
+            return true;
+        }
+        costs[0] = weightLoss;
+        costs[1] = moveCost;
+        return false;
+    }
+}
@@ -53,6 +53,11 @@ public class GridSizeMigrationTask {
     private static final float WT_WIDGET_FACTOR = 0.6f;
     private static final float WT_FOLDER_FACTOR = 0.5f;
 
+    // Wall clock time the placement searches may take for a screen, after which the best
+    // placement found so far is used. Part of it is kept for placing the carried over items.
+    private static final long SCREEN_BUDGET_NANOS = 100_000_000L;
+    private static final long CARRY_OVER_BUDGET_NANOS = 25_000_000L;
+
     private final Context mContext;
     private final InvariantDeviceProfile mIdp;
 
@@ -199,7 +204,8 @@ public class GridSizeMigrationTask {
                 // {@link #mCarryOver}, to prevent an infinite loop. If no item could be removed,
                 // break the loop and abort migration by throwing an exception.
                 OptimalPlacementSolution placement = new OptimalPlacementSolution(
-                        new GridOccupancy(mTrgX, mTrgY), deepCopy(mCarryOver), 0, true);
+                        new GridOccupancy(mTrgX, mTrgY), deepCopy(mCarryOver), 0, true,
+                        System.nanoTime() + SCREEN_BUDGET_NANOS);
                 placement.find();
                 if (placement.finalPlacedItems.size() > 0) {
                     long newScreenId = LauncherSettings.Settings.call(
@@ -240,13 +246,16 @@ public class GridSizeMigrationTask {
      * Migrate a particular screen id.
      * Strategy:
      *   1) For all possible combinations of row and column, pick the one which causes the least
-     *      data loss: {@link #tryRemove(int, int, int, ArrayList, float[])}
+     *      data loss: {@link #tryRemove(int, int, int, ArrayList, float[], long)}
      *   2) Maintain a list of all lost items before this screen, and add any new item lost from
      *      this screen to that list as well.
      *   3) If all those items from the above list can be placed on this screen, place them
      *      (otherwise they are placed on a new screen).
      */
     protected void migrateScreen(long screenId) {
+        long removalDeadlineNanos =
+                System.nanoTime() + SCREEN_BUDGET_NANOS - CARRY_OVER_BUDGET_NANOS;
+
         // If we are migrating the first screen, do not touch the first row.
         int startY = 0;
 
@@ -264,15 +273,24 @@ public class GridSizeMigrationTask {
         float moveWt = Float.MAX_VALUE;
         float[] outLoss = new float[2];
         ArrayList<DbEntry> finalItems = null;
+        int combinationsLeft =
+                (mShouldRemoveX ? mSrcX : 1) * (mShouldRemoveY ? mSrcY - startY : 1);
 
         // Try removing all possible combinations
         for (int x = 0; x < mSrcX; x++) {
             // Try removing the rows first from bottom. This keeps the workspace
             // nicely aligned with hotseat.
             for (int y = mSrcY - 1; y >= startY; y--) {
+                // Split the time left between the remaining combinations, so that the last ones
+                // still get a share and the time unused by a quick search goes to the next ones.
+                long now = System.nanoTime();
+                long deadlineNanos = now
+                        + Math.max(0, removalDeadlineNanos - now) / combinationsLeft--;
+
                 // Use a deep copy when trying out a particular combination as it can change
                 // the underlying object.
-                ArrayList<DbEntry> itemsOnScreen = tryRemove(x, y, startY, deepCopy(items), outLoss);
+                ArrayList<DbEntry> itemsOnScreen =
+                        tryRemove(x, y, startY, deepCopy(items), outLoss, deadlineNanos);
 
                 if ((outLoss[0] < removeWt) || ((outLoss[0] == removeWt) && (outLoss[1] < moveWt))) {
                     removeWt = outLoss[0];
@@ -318,11 +336,12 @@ public class GridSizeMigrationTask {
             GridOccupancy occupied = new GridOccupancy(mTrgX, mTrgY);
             occupied.markCells(0, 0, mTrgX, startY, true);
             for (DbEntry item : finalItems) {
-                occupied.markCells(item, true);
+                occupied.markCells(item.cellX, item.cellY, item.spanX, item.spanY, true);
             }
 
             OptimalPlacementSolution placement = new OptimalPlacementSolution(occupied,
-                    deepCopy(mCarryOver), startY, true);
+                    deepCopy(mCarryOver), startY, true,
+                    System.nanoTime() + CARRY_OVER_BUDGET_NANOS);
             placement.find();
             if (placement.lowestWeightLoss == 0) {
                 // All items got placed
@@ -353,9 +372,10 @@ public class GridSizeMigrationTask {
      * @param items all the items on the screen under operation
      * @param outLoss array of size 2. The first entry is filled with weight loss, and the second
      * with the overall item movement.
+     * @param deadlineNanos the {@link System#nanoTime()} after which the placement search stops
      */
     private ArrayList<DbEntry> tryRemove(int col, int row, int startY,
-            ArrayList<DbEntry> items, float[] outLoss) {
+            ArrayList<DbEntry> items, float[] outLoss, long deadlineNanos) {
         GridOccupancy occupied = new GridOccupancy(mTrgX, mTrgY);
         occupied.markCells(0, 0, mTrgX, startY, true);
 
@@ -375,12 +395,12 @@ public class GridSizeMigrationTask {
                 if (item.cellX > col) item.cellX --;
                 if (item.cellY > row) item.cellY --;
                 finalItems.add(item);
-                occupied.markCells(item, true);
+                occupied.markCells(item.cellX, item.cellY, item.spanX, item.spanY, true);
             }
         }
 
         OptimalPlacementSolution placement =
-                new OptimalPlacementSolution(occupied, removedItems, startY);
+                new OptimalPlacementSolution(occupied, removedItems, startY, deadlineNanos);
         placement.find();
         finalItems.addAll(placement.finalPlacedItems);
         outLoss[0] = placement.lowestWeightLoss;
@@ -388,200 +408,53 @@ public class GridSizeMigrationTask {
         return finalItems;
     }
 
+    /**
+     * Finds the placement of a set of items on a grid which loses the least weight, and then
+     * moves the items the least, until the given deadline. The search itself is done by
+     * {@link GridPlacementSolver}.
+     */
     private class OptimalPlacementSolution {
         private final ArrayList<DbEntry> itemsToPlace;
-        private final GridOccupancy occupied;
-
-        // If set to true, item movement are not considered in move cost, leading to a more
-        // linear placement.
-        private final boolean ignoreMove;
-
-        // The first row in the grid from where the placement should start.
-        private final int startY;
+        private final GridPlacementSolver solver;
 
         float lowestWeightLoss = Float.MAX_VALUE;
         float lowestMoveCost = Float.MAX_VALUE;
         ArrayList<DbEntry> finalPlacedItems;
 
-        OptimalPlacementSolution(
-                GridOccupancy occupied, ArrayList<DbEntry> itemsToPlace, int startY) {
-            this(occupied, itemsToPlace, startY, false);
+        OptimalPlacementSolution(GridOccupancy occupied, ArrayList<DbEntry> itemsToPlace,
+                int startY, long deadlineNanos) {
+            this(occupied, itemsToPlace, startY, false, deadlineNanos);
         }
 
         OptimalPlacementSolution(GridOccupancy occupied, ArrayList<DbEntry> itemsToPlace,
-                int startY, boolean ignoreMove) {
-            this.occupied = occupied;
+                int startY, boolean ignoreMove, long deadlineNanos) {
             this.itemsToPlace = itemsToPlace;
-            this.ignoreMove = ignoreMove;
-            this.startY = startY;
 
             // Sort the items such that larger widgets appear first followed by 1x1 items
             Collections.sort(this.itemsToPlace);
-        }
 
-        public void find() {
-            find(0, 0, 0, new ArrayList<DbEntry>());
-        }
-
-        /**
-         * Recursively finds a placement for the provided items.
-         * @param index the position in {@link #itemsToPlace} to start looking at.
-         * @param weightLoss total weight loss upto this point
-         * @param moveCost total move cost upto this point
-         * @param itemsPlaced all the items already placed upto this point
-         */
-        public void find(int index, float weightLoss, float moveCost,
-                ArrayList<DbEntry> itemsPlaced) {
-            if ((weightLoss >= lowestWeightLoss) ||
-                    ((weightLoss == lowestWeightLoss) && (moveCost >= lowestMoveCost))) {
-                // Abort, as we already have a better solution.
-                return;
-
-            } else if (index >= itemsToPlace.size()) {
-                // End loop.
-                lowestWeightLoss = weightLoss;
-                lowestMoveCost = moveCost;
-
-                // Keep a deep copy of current configuration as it can change during recursion.
-                finalPlacedItems = deepCopy(itemsPlaced);
-                return;
+            solver = new GridPlacementSolver(occupied, mTrgX, mTrgY, startY, ignoreMove,
+                    deadlineNanos);
+            for (DbEntry item : itemsToPlace) {
+                solver.addItem(item.cellX, item.cellY, item.spanX, item.spanY,
+                        item.minSpanX, item.minSpanY, item.weight);
             }
+        }
 
-            DbEntry me = itemsToPlace.get(index);
-            int myX = me.cellX;
-            int myY = me.cellY;
-
-            // List of items to pass over if this item was placed.
-            ArrayList<DbEntry> itemsIncludingMe = new ArrayList<>(itemsPlaced.size() + 1);
-            itemsIncludingMe.addAll(itemsPlaced);
-            itemsIncludingMe.add(me);
-
-            if (me.spanX > 1 || me.spanY > 1) {
-                // If the current item is a widget (and it greater than 1x1), try to place it at
-                // all possible positions. This is because a widget placed at one position can
-                // affect the placement of a different widget.
-                int myW = me.spanX;
-                int myH = me.spanY;
-
-                for (int y = startY; y < mTrgY; y++) {
-                    for (int x = 0; x < mTrgX; x++) {
-                        float newMoveCost = moveCost;
-                        if (x != myX) {
-                            me.cellX = x;
-                            newMoveCost ++;
-                        }
-                        if (y != myY) {
-                            me.cellY = y;
-                            newMoveCost ++;
-                        }
-                        if (ignoreMove) {
-                            newMoveCost = moveCost;
-                        }
-
-                        if (occupied.isRegionVacant(x, y, myW, myH)) {
-                            // place at this position and continue search.
-                            occupied.markCells(me, true);
-                            find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                            occupied.markCells(me, false);
-                        }
-
-                        // Try resizing horizontally
-                        if (myW > me.minSpanX && occupied.isRegionVacant(x, y, myW - 1, myH)) {
-                            me.spanX --;
-                            occupied.markCells(me, true);
-                            // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            occupied.markCells(me, false);
-                            me.spanX ++;
-                        }
-
-                        // Try resizing vertically
-                        if (myH > me.minSpanY && occupied.isRegionVacant(x, y, myW, myH - 1)) {
-                            me.spanY --;
-                            occupied.markCells(me, true);
-                            // 1 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 1, itemsIncludingMe);
-                            occupied.markCells(me, false);
-                            me.spanY ++;
-                        }
-
-                        // Try resizing horizontally & vertically
-                        if (myH > me.minSpanY && myW > me.minSpanX &&
-                                occupied.isRegionVacant(x, y, myW - 1, myH - 1)) {
-                            me.spanX --;
-                            me.spanY --;
-                            occupied.markCells(me, true);
-                            // 2 extra move cost
-                            find(index + 1, weightLoss, newMoveCost + 2, itemsIncludingMe);
-                            occupied.markCells(me, false);
-                            me.spanX ++;
-                            me.spanY ++;
-                        }
-                        me.cellX = myX;
-                        me.cellY = myY;
-                    }
-                }
-
-                // Finally also try a solution when this item is not included. Trying it in the end
-                // causes it to get skipped in most cases due to higher weight loss, and prevents
-                // unnecessary deep copies of various configurations.
-                find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
-            } else {
-                // Since this is a 1x1 item and all the following items are also 1x1, just place
-                // it at 'the most appropriate position' and hope for the best.
-                // The most appropriate position: one with lease straight line distance
-                int newDistance = Integer.MAX_VALUE;
-                int newX = Integer.MAX_VALUE, newY = Integer.MAX_VALUE;
-
-                for (int y = startY; y < mTrgY; y++) {
-                    for (int x = 0; x < mTrgX; x++) {
-                        if (!occupied.cells[x][y]) {
-                            int dist = ignoreMove ? 0 :
-                                ((me.cellX - x) * (me.cellX - x) + (me.cellY - y) * (me.cellY - y));
-                            if (dist < newDistance) {
-                                newX = x;
-                                newY = y;
-                                newDistance = dist;
-                            }
-                        }
-                    }
-                }
-
-                if (newX < mTrgX && newY < mTrgY) {
-                    float newMoveCost = moveCost;
-                    if (newX != myX) {
-                        me.cellX = newX;
-                        newMoveCost ++;
-                    }
-                    if (newY != myY) {
-                        me.cellY = newY;
-                        newMoveCost ++;
-                    }
-                    if (ignoreMove) {
-                        newMoveCost = moveCost;
-                    }
-                    occupied.markCells(me, true);
-                    find(index + 1, weightLoss, newMoveCost, itemsIncludingMe);
-                    occupied.markCells(me, false);
-                    me.cellX = myX;
-                    me.cellY = myY;
-
-                    // Try to find a solution without this item, only if
-                    //  1) there was at least one space, i.e., we were able to place this item
-                    //  2) if the next item has the same weight (all items are already sorted), as
-                    //     if it has lower weight, that solution will automatically get discarded.
-                    //  3) ignoreMove false otherwise, move cost is ignored and the weight will
-                    //      anyway be same.
-                    if (index + 1 < itemsToPlace.size()
-                            && itemsToPlace.get(index + 1).weight >= me.weight && !ignoreMove) {
-                        find(index + 1, weightLoss + me.weight, moveCost, itemsPlaced);
-                    }
-                } else {
-                    // No more space. Jump to the end.
-                    for (int i = index + 1; i < itemsToPlace.size(); i++) {
-                        weightLoss += itemsToPlace.get(i).weight;
-                    }
-                    find(itemsToPlace.size(), weightLoss + me.weight, moveCost, itemsPlaced);
+        public void find() {
+            solver.solve();
+            lowestWeightLoss = solver.getWeightLoss();
+            lowestMoveCost = solver.getMoveCost();
+
+            finalPlacedItems = new ArrayList<>();
+            for (int i = 0; i < itemsToPlace.size(); i++) {
+                if (solver.isPlaced(i)) {
+                    DbEntry item = itemsToPlace.get(i).copy();
+                    item.cellX = solver.getCellX(i);
+                    item.cellY = solver.getCellY(i);
+                    item.spanX = solver.getSpanX(i);
+                    item.spanY = solver.getSpanY(i);
+                    finalPlacedItems.add(item);
                 }
             }
         }
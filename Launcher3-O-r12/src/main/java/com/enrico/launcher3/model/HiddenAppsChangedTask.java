@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enrico.launcher3.model;
+
+import android.content.Context;
+import android.os.UserHandle;
+
+import com.enrico.launcher3.AllAppsList;
+import com.enrico.launcher3.AppInfo;
+import com.enrico.launcher3.LauncherAppState;
+import com.enrico.launcher3.LauncherModel;
+import com.enrico.launcher3.LauncherModel.CallbackTask;
+import com.enrico.launcher3.LauncherModel.Callbacks;
+import com.enrico.launcher3.compat.UserManagerCompat;
+import com.enrico.launcher3.util.PackageUserKey;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Handles packages being hidden from or shown again in all apps. Only the all apps list and the
+ * widgets of these packages are updated, the workspace is left untouched.
+ */
+public class HiddenAppsChangedTask extends ExtendedModelTask {
+
+    private final Set<String> mHiddenPackages;
+    private final Set<String> mShownPackages;
+
+    public HiddenAppsChangedTask(Set<String> hiddenPackages, Set<String> shownPackages) {
+        mHiddenPackages = hiddenPackages;
+        mShownPackages = shownPackages;
+    }
+
+    @Override
+    public void execute(LauncherAppState app, BgDataModel dataModel, AllAppsList appsList) {
+        final Context context = app.getContext();
+        final LauncherModel model = app.getModel();
+        PackageUserKey changedPackage = null;
+        int changedCount = 0;
+        for (UserHandle user : UserManagerCompat.getInstance(context).getUserProfiles()) {
+            for (String packageName : mHiddenPackages) {
+                appsList.removePackage(packageName, user);
+                changedPackage = new PackageUserKey(packageName, user);
+                changedCount++;
+            }
+            for (String packageName : mShownPackages) {
+                appsList.addPackage(context, packageName, user);
+                changedPackage = new PackageUserKey(packageName, user);
+                changedCount++;
+            }
+        }
+
+        // Refresh the widgets once, for all packages and users unless only one has changed
+        if (changedCount > 0) {
+            model.refreshAndBindWidgetsAndShortcuts(model.getCallback(), false /* bindFirst */,
+                    changedCount == 1 ? changedPackage : null /* packageUser */);
+        }
+
+        if (!appsList.added.isEmpty()) {
+            final ArrayList<AppInfo> addedApps = new ArrayList<>(appsList.added);
+            appsList.added.clear();
+            scheduleCallbackTask(new CallbackTask() {
+                @Override
+                public void execute(Callbacks callbacks) {
+                    callbacks.bindAppsAdded(null, null, null, addedApps);
+                }
+            });
+        }
+        if (!appsList.removed.isEmpty()) {
+            final ArrayList<AppInfo> removedApps = new ArrayList<>(appsList.removed);
+            appsList.removed.clear();
+            scheduleCallbackTask(new CallbackTask() {
+                @Override
+                public void execute(Callbacks callbacks) {
+                    callbacks.bindAppInfosRemoved(removedApps);
+                }
+            });
+        }
+    }
+}
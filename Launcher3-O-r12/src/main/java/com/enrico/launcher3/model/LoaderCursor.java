@@ -390,15 +390,15 @@ public class LoaderCursor extends CursorWrapper {
             }
 
             if (hotseatOccupancy != null) {
-                if (hotseatOccupancy.cells[(int) item.screenId][0]) {
+                if (hotseatOccupancy.isOccupied((int) item.screenId, 0)) {
                     return false;
                 } else {
-                    hotseatOccupancy.cells[(int) item.screenId][0] = true;
+                    hotseatOccupancy.markCells((int) item.screenId, 0, 1, 1, true);
                     return true;
                 }
             } else {
                 final GridOccupancy occupancy = new GridOccupancy(mIDP.numHotseatIcons, 1);
-                occupancy.cells[(int) item.screenId][0] = true;
+                occupancy.markCells((int) item.screenId, 0, 1, 1, true);
                 occupied.put((long) LauncherSettings.Favorites.CONTAINER_HOTSEAT, occupancy);
                 return true;
             }
@@ -432,7 +432,7 @@ public class LoaderCursor extends CursorWrapper {
 
         // Check if any workspace icons overlap with each other
         if (occupancy.isRegionVacant(item.cellX, item.cellY, item.spanX, item.spanY)) {
-            occupancy.markCells(item, true);
+            occupancy.markCells(item.cellX, item.cellY, item.spanX, item.spanY, true);
             return true;
         } else {
             return false;
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enrico.launcher3.model;
+
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.os.UserHandle;
+
+import com.enrico.launcher3.compat.LauncherAppsCompat;
+import com.enrico.launcher3.compat.UserManagerCompat;
+import com.enrico.launcher3.shortcuts.DeepShortcutManager;
+import com.enrico.launcher3.shortcuts.ShortcutInfoCompat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The queries to the system services made by the loader which do not depend on the model:
+ * the activities of every profile, the deep shortcuts and the widget providers. They are all
+ * started in parallel when the loader starts, and the loader only waits for each of them at the
+ * step which adds its result to the model. If a query failed, it is run again on the calling
+ * thread.
+ */
+public class LoaderQueries {
+
+    private final HashMap<UserHandle, FutureTask<List<LauncherActivityInfo>>> mActivityLists =
+            new HashMap<>();
+    private final HashMap<UserHandle, FutureTask<List<ShortcutInfoCompat>>> mDeepShortcuts =
+            new HashMap<>();
+    private final FutureTask<ArrayList<WidgetItem>> mWidgetsAndShortcuts;
+
+    private final Context mContext;
+
+    public LoaderQueries(final Context context, Executor executor) {
+        mContext = context;
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        final LauncherAppsCompat launcherApps = LauncherAppsCompat.getInstance(context);
+        final DeepShortcutManager shortcutManager = DeepShortcutManager.getInstance(context);
+        boolean hasShortcutHostPermission = shortcutManager.hasHostPermission();
+
+        for (final UserHandle user : userManager.getUserProfiles()) {
+            FutureTask<List<LauncherActivityInfo>> activityList = new FutureTask<>(
+                    new Callable<List<LauncherActivityInfo>>() {
+                        @Override
+                        public List<LauncherActivityInfo> call() {
+                            return launcherApps.getActivityList(null, user);
+                        }
+                    });
+            mActivityLists.put(user, activityList);
+            executor.execute(activityList);
+
+            if (hasShortcutHostPermission && userManager.isUserUnlocked(user)) {
+                FutureTask<List<ShortcutInfoCompat>> shortcuts = new FutureTask<>(
+                        new Callable<List<ShortcutInfoCompat>>() {
+                            @Override
+                            public List<ShortcutInfoCompat> call() {
+                                return shortcutManager.queryForAllShortcuts(user);
+                            }
+                        });
+                mDeepShortcuts.put(user, shortcuts);
+                executor.execute(shortcuts);
+            }
+        }
+
+        mWidgetsAndShortcuts = new FutureTask<>(new Callable<ArrayList<WidgetItem>>() {
+            @Override
+            public ArrayList<WidgetItem> call() {
+                return WidgetsModel.queryWidgetsAndShortcuts(context, null /* packageUser */);
+            }
+        });
+        executor.execute(mWidgetsAndShortcuts);
+    }
+
+    /**
+     * @see LauncherAppsCompat#getActivityList(String, UserHandle)
+     */
+    public List<LauncherActivityInfo> getActivityList(UserHandle user) {
+        List<LauncherActivityInfo> result = getResult(mActivityLists.get(user));
+        return result != null ? result
+                : LauncherAppsCompat.getInstance(mContext).getActivityList(null, user);
+    }
+
+    /**
+     * @see DeepShortcutManager#queryForAllShortcuts(UserHandle)
+     */
+    public List<ShortcutInfoCompat> getAllShortcuts(UserHandle user) {
+        List<ShortcutInfoCompat> result = getResult(mDeepShortcuts.get(user));
+        return result != null ? result
+                : DeepShortcutManager.getInstance(mContext).queryForAllShortcuts(user);
+    }
+
+    /**
+     * @see WidgetsModel#queryWidgetsAndShortcuts(Context, com.enrico.launcher3.util.PackageUserKey)
+     */
+    public ArrayList<WidgetItem> getWidgetsAndShortcuts() {
+        ArrayList<WidgetItem> result = getResult(mWidgetsAndShortcuts);
+        return result != null ? result
+                : WidgetsModel.queryWidgetsAndShortcuts(mContext, null /* packageUser */);
+    }
+
+    /**
+     * Cancels the queries which have not started yet.
+     */
+    public void cancel() {
+        for (FutureTask<?> task : mActivityLists.values()) {
+            task.cancel(false);
+        }
+        for (FutureTask<?> task : mDeepShortcuts.values()) {
+            task.cancel(false);
+        }
+        mWidgetsAndShortcuts.cancel(false);
+    }
+
+    /**
+     * Waits for the query to complete.
+     * @return its result, or null if it was not started or failed.
+     */
+    private static <T> T getResult(FutureTask<T> task) {
+        if (task == null || task.isCancelled()) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
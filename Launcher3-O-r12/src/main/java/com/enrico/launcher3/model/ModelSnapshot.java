@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enrico.launcher3.model;
+
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.BitmapFactory;
+import android.os.UserHandle;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+
+import com.enrico.launcher3.FolderInfo;
+import com.enrico.launcher3.InvariantDeviceProfile;
+import com.enrico.launcher3.ItemInfo;
+import com.enrico.launcher3.LauncherAppState;
+import com.enrico.launcher3.LauncherFiles;
+import com.enrico.launcher3.LauncherSettings;
+import com.enrico.launcher3.ShortcutInfo;
+import com.enrico.launcher3.Utilities;
+import com.enrico.launcher3.compat.UserManagerCompat;
+import com.enrico.launcher3.icons.IconCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compact copy of the workspace shortcuts and folders, written after the model is loaded and
+ * read on the next cold start, so that the first page can be bound before the workspace is
+ * loaded from the DB. Icons of apps are not stored, they are looked up in the icon cache.
+ * Widgets are not part of the snapshot.
+ *
+ * Once the workspace is loaded, {@link #adoptPage} checks the items bound from the snapshot
+ * against the loaded ones and, if they are the same, puts the bound objects in the model.
+ */
+public class ModelSnapshot {
+
+    private static final int VERSION = 1;
+
+    public final ArrayList<Long> workspaceScreens = new ArrayList<>();
+    /** The shortcuts and folders on the desktop and in the hotseat. */
+    public final ArrayList<ItemInfo> workspaceItems = new ArrayList<>();
+
+    // Model version and screens of the last written snapshot, only used on the worker thread
+    private static int sWrittenVersion = -1;
+    private static ArrayList<Long> sWrittenScreens;
+
+    private int mModelVersion;
+
+    private ModelSnapshot() { }
+
+    /**
+     * Copies the workspace shortcuts and folders of the model, to be written on the worker
+     * thread with {@link #write}. Must be called on the main thread, which modifies the items,
+     * so that the worker thread only reads the copies.
+     */
+    public static ModelSnapshot capture(BgDataModel dataModel) {
+        ModelSnapshot snapshot = new ModelSnapshot();
+        BgDataModel.Snapshot modelSnapshot;
+        synchronized (dataModel) {
+            snapshot.workspaceScreens.addAll(dataModel.workspaceScreens);
+            modelSnapshot = dataModel.getSnapshot();
+        }
+        snapshot.mModelVersion = modelSnapshot.version;
+        for (ItemInfo info : modelSnapshot.workspaceItems) {
+            if (info instanceof FolderInfo || info instanceof ShortcutInfo) {
+                snapshot.workspaceItems.add(copyItem(info));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns a new item with the fields written by {@link #writeItem}.
+     */
+    private static ItemInfo copyItem(ItemInfo info) {
+        if (info instanceof FolderInfo) {
+            FolderInfo folder = new FolderInfo();
+            folder.copyFrom(info);
+            folder.title = info.title == null ? null : info.title.toString();
+            folder.options = ((FolderInfo) info).options;
+            for (ShortcutInfo si : ((FolderInfo) info).contents) {
+                folder.contents.add((ShortcutInfo) copyItem(si));
+            }
+            return folder;
+        }
+        ShortcutInfo si = (ShortcutInfo) info;
+        ShortcutInfo copy = new ShortcutInfo();
+        copy.copyFrom(si);
+        copy.title = si.title == null ? null : si.title.toString();
+        copy.intent = si.intent == null ? null : new Intent(si.intent);
+        copy.status = si.status;
+        copy.isDisabled = si.isDisabled;
+        // Icons are replaced, never drawn into, so the bitmap can be shared
+        copy.iconBitmap = si.iconBitmap;
+        return copy;
+    }
+
+    /**
+     * Writes the captured snapshot, unless the model did not change since the last write.
+     * Must be called on the worker thread.
+     */
+    public void write(Context context) {
+        if (mModelVersion == sWrittenVersion && workspaceScreens.equals(sWrittenScreens)) {
+            return;
+        }
+        InvariantDeviceProfile idp = LauncherAppState.getIDP(context);
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        AtomicFile file = getFile(context);
+        FileOutputStream fos = null;
+        try {
+            fos = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(VERSION);
+            out.writeInt(idp.numRows);
+            out.writeInt(idp.numColumns);
+            out.writeInt(idp.numHotseatIcons);
+            out.writeInt(workspaceScreens.size());
+            for (Long screenId : workspaceScreens) {
+                out.writeLong(screenId);
+            }
+            out.writeInt(workspaceItems.size());
+            for (ItemInfo info : workspaceItems) {
+                writeItem(out, info, userManager);
+            }
+            out.flush();
+            file.finishWrite(fos);
+            sWrittenVersion = mModelVersion;
+            sWrittenScreens = workspaceScreens;
+        } catch (IOException e) {
+            e.printStackTrace();
+            file.failWrite(fos);
+        }
+    }
+
+    /**
+     * Reads the last written snapshot.
+     * @return null if there is no snapshot or it was written for another grid.
+     */
+    public static ModelSnapshot read(Context context) {
+        InvariantDeviceProfile idp = LauncherAppState.getIDP(context);
+        UserManagerCompat userManager = UserManagerCompat.getInstance(context);
+        IconCache iconCache = LauncherAppState.getInstance(context).getIconCache();
+        AtomicFile file = getFile(context);
+        if (!file.getBaseFile().exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != VERSION || in.readInt() != idp.numRows
+                    || in.readInt() != idp.numColumns || in.readInt() != idp.numHotseatIcons) {
+                return null;
+            }
+            ModelSnapshot snapshot = new ModelSnapshot();
+            int numScreens = in.readInt();
+            for (int i = 0; i < numScreens; i++) {
+                snapshot.workspaceScreens.add(in.readLong());
+            }
+            int numItems = in.readInt();
+            for (int i = 0; i < numItems; i++) {
+                ItemInfo info = readItem(in, userManager, iconCache);
+                if (info == null) {
+                    // The user of the item is gone
+                    return null;
+                }
+                snapshot.workspaceItems.add(info);
+            }
+            return snapshot;
+        } catch (IOException | URISyntaxException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            Utilities.closeSilently(in);
+        }
+    }
+
+    /**
+     * Returns the items to bind on the given page, including the hotseat.
+     */
+    public ArrayList<ItemInfo> getPageItems(long screenId) {
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        for (ItemInfo info : workspaceItems) {
+            if (info.container == LauncherSettings.Favorites.CONTAINER_HOTSEAT
+                    || info.screenId == screenId) {
+                items.add(info);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * If {@param loadedItems} are the same items as {@param boundItems} at the same positions,
+     * copies the loaded data into the bound items and replaces the loaded items with them in
+     * {@param dataModel} and in {@param loadedItems}.
+     * @param outUpdated filled with the bound shortcuts whose title or icon changed.
+     * @return false if the items differ, in which case nothing is changed.
+     */
+    public static boolean adoptPage(BgDataModel dataModel, List<ItemInfo> boundItems,
+            ArrayList<ItemInfo> loadedItems, ArrayList<ShortcutInfo> outUpdated) {
+        if (boundItems.size() != loadedItems.size()) {
+            return false;
+        }
+        HashMap<Long, ItemInfo> boundById = new HashMap<>();
+        for (ItemInfo info : boundItems) {
+            boundById.put(info.id, info);
+        }
+        for (ItemInfo loaded : loadedItems) {
+            if (!isSameItem(boundById.get(loaded.id), loaded)) {
+                return false;
+            }
+        }
+
+        synchronized (dataModel) {
+            for (int i = 0; i < loadedItems.size(); i++) {
+                ItemInfo loaded = loadedItems.get(i);
+                ItemInfo bound = boundById.get(loaded.id);
+                if (bound instanceof FolderInfo) {
+                    FolderInfo boundFolder = (FolderInfo) bound;
+                    HashMap<Long, ShortcutInfo> boundContents = new HashMap<>();
+                    for (ShortcutInfo si : boundFolder.contents) {
+                        boundContents.put(si.id, si);
+                    }
+                    for (ShortcutInfo si : ((FolderInfo) loaded).contents) {
+                        adoptShortcut(dataModel, boundContents.get(si.id), si, outUpdated);
+                    }
+                    dataModel.folders.put(bound.id, boundFolder);
+                } else {
+                    adoptShortcut(dataModel, (ShortcutInfo) bound, (ShortcutInfo) loaded,
+                            outUpdated);
+                }
+                dataModel.itemsIdMap.put(bound.id, bound);
+                int index = dataModel.workspaceItems.indexOf(loaded);
+                if (index >= 0) {
+                    dataModel.workspaceItems.set(index, bound);
+                }
+                loadedItems.set(i, bound);
+            }
+            dataModel.publishSnapshot();
+        }
+        return true;
+    }
+
+    private static void adoptShortcut(BgDataModel dataModel, ShortcutInfo bound,
+            ShortcutInfo loaded, ArrayList<ShortcutInfo> outUpdated) {
+        boolean changed = !TextUtils.equals(bound.title, loaded.title)
+                || bound.iconBitmap != loaded.iconBitmap || bound.isDisabled != loaded.isDisabled
+                || bound.status != loaded.status;
+        bound.updateFrom(loaded);
+        dataModel.itemsIdMap.put(bound.id, bound);
+        if (changed) {
+            outUpdated.add(bound);
+        }
+    }
+
+    /**
+     * Returns true if the items are of the same type and at the same position, and for
+     * shortcuts point to the same intent.
+     */
+    private static boolean isSameItem(ItemInfo a, ItemInfo b) {
+        if (a == null || b == null || a.getClass() != b.getClass() || a.id != b.id
+                || a.itemType != b.itemType || a.container != b.container
+                || a.screenId != b.screenId || a.cellX != b.cellX || a.cellY != b.cellY
+                || a.spanX != b.spanX || a.spanY != b.spanY || a.rank != b.rank
+                || !a.user.equals(b.user)) {
+            return false;
+        }
+        if (a instanceof ShortcutInfo) {
+            Intent intentA = ((ShortcutInfo) a).intent;
+            Intent intentB = ((ShortcutInfo) b).intent;
+            return intentA != null && intentB != null
+                    && intentA.toUri(0).equals(intentB.toUri(0));
+        }
+        FolderInfo folderA = (FolderInfo) a;
+        FolderInfo folderB = (FolderInfo) b;
+        if (folderA.options != folderB.options || !TextUtils.equals(folderA.title, folderB.title)
+                || folderA.contents.size() != folderB.contents.size()) {
+            return false;
+        }
+        HashMap<Long, ShortcutInfo> contentsA = new HashMap<>();
+        for (ShortcutInfo si : folderA.contents) {
+            contentsA.put(si.id, si);
+        }
+        for (ShortcutInfo si : folderB.contents) {
+            if (!isSameItem(contentsA.get(si.id), si)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeItem(DataOutputStream out, ItemInfo info,
+            UserManagerCompat userManager) throws IOException {
+        out.writeInt(info.itemType);
+        out.writeLong(info.id);
+        out.writeLong(info.container);
+        out.writeLong(info.screenId);
+        out.writeInt(info.cellX);
+        out.writeInt(info.cellY);
+        out.writeInt(info.spanX);
+        out.writeInt(info.spanY);
+        out.writeInt(info.rank);
+        out.writeLong(userManager.getSerialNumberForUser(info.user));
+        out.writeUTF(info.title == null ? "" : info.title.toString());
+
+        if (info instanceof FolderInfo) {
+            ArrayList<ShortcutInfo> contents = ((FolderInfo) info).contents;
+            out.writeInt(((FolderInfo) info).options);
+            out.writeInt(contents.size());
+            for (ShortcutInfo si : contents) {
+                writeItem(out, si, userManager);
+            }
+        } else {
+            ShortcutInfo si = (ShortcutInfo) info;
+            out.writeUTF(si.intent == null ? "" : si.intent.toUri(0));
+            out.writeInt(si.status);
+            out.writeInt(si.isDisabled);
+            // App icons are read from the icon cache
+            byte[] icon = si.itemType == LauncherSettings.Favorites.ITEM_TYPE_APPLICATION
+                    || si.iconBitmap == null ? null : Utilities.flattenBitmap(si.iconBitmap);
+            if (icon == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(icon.length);
+                out.write(icon);
+            }
+        }
+    }
+
+    private static ItemInfo readItem(DataInputStream in, UserManagerCompat userManager,
+            IconCache iconCache) throws IOException, URISyntaxException {
+        int itemType = in.readInt();
+        ItemInfo info = itemType == LauncherSettings.Favorites.ITEM_TYPE_FOLDER
+                ? new FolderInfo() : new ShortcutInfo();
+        info.itemType = itemType;
+        info.id = in.readLong();
+        info.container = in.readLong();
+        info.screenId = in.readLong();
+        info.cellX = in.readInt();
+        info.cellY = in.readInt();
+        info.spanX = in.readInt();
+        info.spanY = in.readInt();
+        info.rank = in.readInt();
+        UserHandle user = userManager.getUserForSerialNumber(in.readLong());
+        info.title = in.readUTF();
+        info.user = user;
+
+        if (info instanceof FolderInfo) {
+            FolderInfo folder = (FolderInfo) info;
+            folder.options = in.readInt();
+            int numContents = in.readInt();
+            for (int i = 0; i < numContents; i++) {
+                ItemInfo content = readItem(in, userManager, iconCache);
+                if (!(content instanceof ShortcutInfo)) {
+                    return null;
+                }
+                folder.contents.add((ShortcutInfo) content);
+            }
+        } else {
+            ShortcutInfo si = (ShortcutInfo) info;
+            String intent = in.readUTF();
+            si.intent = intent.isEmpty() ? null : Intent.parseUri(intent, 0);
+            si.status = in.readInt();
+            si.isDisabled = in.readInt();
+            int iconLength = in.readInt();
+            if (iconLength > 0) {
+                byte[] icon = new byte[iconLength];
+                in.readFully(icon);
+                si.iconBitmap = BitmapFactory.decodeByteArray(icon, 0, iconLength);
+            } else if (user != null && si.intent != null) {
+                CharSequence title = si.title;
+                iconCache.getTitleAndIcon(si, false /* useLowResIcon */);
+                si.title = title;
+            }
+            if (si.iconBitmap == null && user != null) {
+                si.iconBitmap = iconCache.getDefaultIcon(user);
+            }
+        }
+        return user == null ? null : info;
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), LauncherFiles.MODEL_SNAPSHOT));
+    }
+}
@@ -20,7 +20,8 @@ import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.net.Uri;
+import android.os.Handler;
+import android.util.Log;
 
 import com.enrico.launcher3.FolderInfo;
 import com.enrico.launcher3.ItemInfo;
@@ -31,28 +32,50 @@ import com.enrico.launcher3.LauncherSettings;
 import com.enrico.launcher3.LauncherSettings.Favorites;
 import com.enrico.launcher3.LauncherSettings.Settings;
 import com.enrico.launcher3.ShortcutInfo;
+import com.enrico.launcher3.Utilities;
 import com.enrico.launcher3.util.ContentWriter;
 import com.enrico.launcher3.util.ItemInfoMatcher;
-import com.enrico.launcher3.util.LooperExecuter;
+import com.enrico.launcher3.util.Thunk;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.Executor;
+import java.util.HashMap;
 
 /**
  * Class for handling model updates.
+ *
+ * Writes are queued and committed in order, in a single transaction. The updates of an item are
+ * merged into its last queued insert or update, and committed after {@link #COMMIT_DELAY_MS}.
+ * Inserts and deletes are committed right away, along with the updates queued before them. Model
+ * tasks and loader runs commit the pending writes first, so that they are seen in order.
  */
 public class ModelWriter {
 
+    private static final String TAG = "ModelWriter";
+
+    private static final long COMMIT_DELAY_MS = 100;
+
+    // Writes not yet committed, in order. Shared by all the writers as they use the same DB.
+    // Guarded by itself, along with the writes which later updates of an item are merged into.
+    private static final ArrayList<PendingWrite> sPendingWrites = new ArrayList<>();
+    private static final HashMap<Long, ItemWrite> sMergeableWrites = new HashMap<>();
+    // Held while committing, so that the commits of different threads are written in order
+    private static final Object sCommitLock = new Object();
+    private static final Handler sWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+    private static final Runnable sCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitPendingUpdates();
+        }
+    };
+
     private final Context mContext;
     private final BgDataModel mBgDataModel;
-    private final Executor mWorkerExecutor;
     private final boolean mHasVerticalHotseat;
 
     public ModelWriter(Context context, BgDataModel dataModel, boolean hasVerticalHotseat) {
         mContext = context;
         mBgDataModel = dataModel;
-        mWorkerExecutor = new LooperExecuter(LauncherModel.getWorkerLooper());
         mHasVerticalHotseat = hasVerticalHotseat;
     }
 
@@ -137,7 +160,7 @@ public class ModelWriter {
                 .put(Favorites.RANK, item.rank)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     /**
@@ -145,23 +168,20 @@ public class ModelWriter {
      * cellX, cellY have already been updated on the ItemInfos.
      */
     public void moveItemsInDatabase(final ArrayList<ItemInfo> items, long container, int screen) {
-        ArrayList<ContentValues> contentValues = new ArrayList<>();
         int count = items.size();
 
         for (int i = 0; i < count; i++) {
             ItemInfo item = items.get(i);
             updateItemInfoProps(item, container, screen, item.cellX, item.cellY);
 
-            final ContentValues values = new ContentValues();
-            values.put(Favorites.CONTAINER, item.container);
-            values.put(Favorites.CELLX, item.cellX);
-            values.put(Favorites.CELLY, item.cellY);
-            values.put(Favorites.RANK, item.rank);
-            values.put(Favorites.SCREEN, item.screenId);
-
-            contentValues.add(values);
+            final ContentWriter writer = new ContentWriter(mContext)
+                    .put(Favorites.CONTAINER, item.container)
+                    .put(Favorites.CELLX, item.cellX)
+                    .put(Favorites.CELLY, item.cellY)
+                    .put(Favorites.RANK, item.rank)
+                    .put(Favorites.SCREEN, item.screenId);
+            enqueueUpdate(item, writer);
         }
-        mWorkerExecutor.execute(new UpdateItemsRunnable(items, contentValues));
     }
 
     /**
@@ -182,7 +202,7 @@ public class ModelWriter {
                 .put(Favorites.SPANY, item.spanY)
                 .put(Favorites.SCREEN, item.screenId);
 
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     /**
@@ -191,7 +211,7 @@ public class ModelWriter {
     public void updateItemInDatabase(ItemInfo item) {
         ContentWriter writer = new ContentWriter(mContext);
         item.onAddToDatabase(writer);
-        mWorkerExecutor.execute(new UpdateItemRunnable(item, writer));
+        enqueueUpdate(item, writer);
     }
 
     /**
@@ -209,17 +229,12 @@ public class ModelWriter {
         item.id = Settings.call(cr, Settings.METHOD_NEW_ITEM_ID).getLong(Settings.EXTRA_VALUE);
         writer.put(Favorites._ID, item.id);
 
-        final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-        mWorkerExecutor.execute(new Runnable() {
-            public void run() {
-                cr.insert(Favorites.CONTENT_URI, writer.getValues(mContext));
-
-                synchronized (mBgDataModel) {
-                    checkItemInfoLocked(item.id, item, stackTrace);
-                    mBgDataModel.addItem(mContext, item, true);
-                }
-            }
-        });
+        // Later updates of the item are merged into the insert until it is committed
+        ItemWrite insert = new ItemWrite(this, item.id, true);
+        insert.item = item;
+        insert.stackTrace = new Throwable().getStackTrace();
+        insert.writers.add(writer);
+        enqueue(insert, true);
     }
 
     /**
@@ -233,138 +248,286 @@ public class ModelWriter {
      * Removes all the items from the database matching {@param matcher}.
      */
     public void deleteItemsFromDatabase(ItemInfoMatcher matcher) {
-        deleteItemsFromDatabase(matcher.filterItemInfos(mBgDataModel.itemsIdMap));
+        deleteItemsFromDatabase(matcher.filterItemInfos(mBgDataModel.getSnapshot().items));
     }
 
     /**
      * Removes the specified items from the database
      */
     void deleteItemsFromDatabase(final Iterable<? extends ItemInfo> items) {
-        mWorkerExecutor.execute(new Runnable() {
-            public void run() {
-                for (ItemInfo item : items) {
-                    final Uri uri = Favorites.getContentUri(item.id);
-                    mContext.getContentResolver().delete(uri, null, null);
-
-                    mBgDataModel.removeItem(mContext, item);
-                }
-            }
-        });
+        ArrayList<Long> ids = new ArrayList<>();
+        for (ItemInfo item : items) {
+            ids.add(item.id);
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        // A single delete and a single snapshot, instead of one per item
+        enqueue(new DeleteWrite(this, items, null, ContentProviderOperation
+                .newDelete(Favorites.CONTENT_URI)
+                .withSelection(Utilities.createDbSelectionQuery(Favorites._ID, ids), null)
+                .build()), true);
     }
 
     /**
      * Remove the specified folder and all its contents from the database.
      */
     public void deleteFolderAndContentsFromDatabase(final FolderInfo info) {
-        mWorkerExecutor.execute(new Runnable() {
-            public void run() {
-                ContentResolver cr = mContext.getContentResolver();
-                cr.delete(LauncherSettings.Favorites.CONTENT_URI,
-                        LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
-                mBgDataModel.removeItem(mContext, info.contents);
-                info.contents.clear();
-
-                cr.delete(LauncherSettings.Favorites.getContentUri(info.id), null, null);
-                mBgDataModel.removeItem(mContext, info);
+        enqueue(new DeleteWrite(this, null, info, ContentProviderOperation
+                        .newDelete(LauncherSettings.Favorites.CONTENT_URI)
+                        .withSelection(LauncherSettings.Favorites.CONTAINER + "=" + info.id, null)
+                        .build(),
+                ContentProviderOperation
+                        .newDelete(LauncherSettings.Favorites.getContentUri(info.id)).build()),
+                true);
+    }
+
+    private void enqueueUpdate(ItemInfo item, ContentWriter writer) {
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        synchronized (sPendingWrites) {
+            ItemWrite update = sMergeableWrites.get(item.id);
+            if (update == null) {
+                update = new ItemWrite(this, item.id, false);
+                enqueue(update, false);
+            }
+            update.item = item;
+            update.stackTrace = stackTrace;
+            update.writers.add(writer);
+        }
+    }
+
+    /**
+     * Queues the write after the pending ones.
+     * @param commitNow whether to commit it as soon as the worker thread is free, instead of
+     *        after the commit delay
+     */
+    private void enqueue(PendingWrite write, boolean commitNow) {
+        synchronized (sPendingWrites) {
+            sPendingWrites.add(write);
+            if (write instanceof ItemWrite) {
+                sMergeableWrites.put(write.itemId, (ItemWrite) write);
+            } else {
+                // Later updates are written after the delete, as they were requested
+                sMergeableWrites.clear();
+            }
+            if (commitNow) {
+                // Not committed inline on the worker thread, as model tasks queue writes while
+                // holding the model lock, which the commit takes after the commit lock.
+                sWorkerHandler.removeCallbacks(sCommitRunnable);
+                sWorkerHandler.post(sCommitRunnable);
+            } else if (sPendingWrites.size() == 1) {
+                sWorkerHandler.postDelayed(sCommitRunnable, COMMIT_DELAY_MS);
             }
-        });
+        }
+    }
+
+    /**
+     * Commits the pending writes on the calling thread, instead of after the commit delay.
+     * Called when the launcher is stopped, so that no write is lost if the process is killed.
+     */
+    public void flush() {
+        commitPendingUpdates();
     }
 
-    private class UpdateItemRunnable extends UpdateItemBaseRunnable {
-        private final ItemInfo mItem;
-        private final ContentWriter mWriter;
-        private final long mItemId;
+    /**
+     * Writes the pending writes in a single transaction, and then updates the model.
+     */
+    public static void commitPendingUpdates() {
+        synchronized (sCommitLock) {
+            ArrayList<PendingWrite> writes;
+            synchronized (sPendingWrites) {
+                if (sPendingWrites.isEmpty()) {
+                    return;
+                }
+                sWorkerHandler.removeCallbacks(sCommitRunnable);
+                writes = new ArrayList<>(sPendingWrites);
+                sPendingWrites.clear();
+                sMergeableWrites.clear();
+            }
+
+            Context context = writes.get(0).owner.mContext;
+            ArrayList<ContentProviderOperation> ops = new ArrayList<>(writes.size());
+            for (PendingWrite write : writes) {
+                write.addOperations(context, ops);
+            }
+            boolean failed = false;
+            try {
+                context.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to commit " + ops.size() + " item writes, retrying one by one",
+                        e);
+                failed = !applyOneByOne(context, ops);
+            }
 
-        UpdateItemRunnable(ItemInfo item, ContentWriter writer) {
-            mItem = item;
-            mWriter = writer;
-            mItemId = item.id;
+            BgDataModel dataModel = writes.get(0).owner.mBgDataModel;
+            dataModel.beginBatchUpdate();
+            try {
+                for (PendingWrite write : writes) {
+                    write.updateModel();
+                }
+            } finally {
+                dataModel.endBatchUpdate();
+            }
+
+            if (failed) {
+                // The model no longer matches the DB, reload it from the DB
+                LauncherAppState.getInstance(context).getModel().forceReload();
+            }
         }
+    }
 
-        @Override
-        public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.getValues(mContext), null, null);
-            updateItemArrays(mItem, mItemId);
+    /**
+     * Applies the operations in separate transactions, so that one failing update does not
+     * lose the others.
+     * @return false if any operation failed.
+     */
+    private static boolean applyOneByOne(Context context,
+            ArrayList<ContentProviderOperation> ops) {
+        boolean success = true;
+        ArrayList<ContentProviderOperation> single = new ArrayList<>(1);
+        for (ContentProviderOperation op : ops) {
+            single.clear();
+            single.add(op);
+            try {
+                context.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, single);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to update " + op.getUri(), e);
+                success = false;
+            }
         }
+        return success;
     }
 
-    private class UpdateItemsRunnable extends UpdateItemBaseRunnable {
-        private final ArrayList<ContentValues> mValues;
-        private final ArrayList<ItemInfo> mItems;
+    /**
+     * A write waiting to be committed.
+     */
+    private static abstract class PendingWrite {
+        final ModelWriter owner;
+        final long itemId;
 
-        UpdateItemsRunnable(ArrayList<ItemInfo> items, ArrayList<ContentValues> values) {
-            mValues = values;
-            mItems = items;
+        PendingWrite(ModelWriter owner, long itemId) {
+            this.owner = owner;
+            this.itemId = itemId;
+        }
+
+        abstract void addOperations(Context context, ArrayList<ContentProviderOperation> ops);
+
+        /** Updates the model once the write is committed. */
+        abstract void updateModel();
+    }
+
+    /**
+     * The insert of an item or its merged updates.
+     */
+    private static class ItemWrite extends PendingWrite {
+        final boolean insert;
+        final ArrayList<ContentWriter> writers = new ArrayList<>();
+        ItemInfo item;
+        StackTraceElement[] stackTrace;
+
+        ItemWrite(ModelWriter owner, long itemId, boolean insert) {
+            super(owner, itemId);
+            this.insert = insert;
         }
 
         @Override
-        public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-            int count = mItems.size();
-            for (int i = 0; i < count; i++) {
-                ItemInfo item = mItems.get(i);
-                final long itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
-
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
+        void addOperations(Context context, ArrayList<ContentProviderOperation> ops) {
+            // Later updates of the same item override the earlier ones
+            ContentValues values = new ContentValues();
+            for (ContentWriter writer : writers) {
+                values.putAll(writer.getValues(context));
             }
-            try {
-                mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
-            } catch (Exception e) {
-                e.printStackTrace();
+            ops.add((insert ? ContentProviderOperation.newInsert(Favorites.CONTENT_URI)
+                    : ContentProviderOperation.newUpdate(Favorites.getContentUri(itemId)))
+                    .withValues(values).build());
+        }
+
+        @Override
+        void updateModel() {
+            if (insert) {
+                synchronized (owner.mBgDataModel) {
+                    owner.checkItemInfoLocked(itemId, item, stackTrace);
+                    owner.mBgDataModel.addItem(owner.mContext, item, true);
+                }
+            } else {
+                owner.updateItemArrays(item, itemId, stackTrace);
             }
         }
     }
 
-    private abstract class UpdateItemBaseRunnable implements Runnable {
-        private final StackTraceElement[] mStackTrace;
+    /**
+     * The delete of some items, or of a folder and its contents.
+     */
+    private static class DeleteWrite extends PendingWrite {
+        final Iterable<? extends ItemInfo> items;
+        final FolderInfo folder;
+        final ContentProviderOperation[] operations;
+
+        DeleteWrite(ModelWriter owner, Iterable<? extends ItemInfo> items, FolderInfo folder,
+                ContentProviderOperation... operations) {
+            super(owner, ItemInfo.NO_ID);
+            this.items = items;
+            this.folder = folder;
+            this.operations = operations;
+        }
 
-        UpdateItemBaseRunnable() {
-            mStackTrace = new Throwable().getStackTrace();
+        @Override
+        void addOperations(Context context, ArrayList<ContentProviderOperation> ops) {
+            ops.addAll(Arrays.asList(operations));
         }
 
-        void updateItemArrays(ItemInfo item, long itemId) {
-            // Lock on mBgLock *after* the db operation
-            synchronized (mBgDataModel) {
-                checkItemInfoLocked(itemId, item, mStackTrace);
-
-                if (item.container != Favorites.CONTAINER_DESKTOP &&
-                        item.container != Favorites.CONTAINER_HOTSEAT) {
-                    // Item is in a folder, make sure this folder exists
-                    if (!mBgDataModel.folders.containsKey(item.container)) {
-                        // An items container is being set to a that of an item which is not in
-                        // the list of Folders.
-                        String msg = "item: " + item + " container being set to: " +
-                                item.container + ", not in the list of folders";
-                    }
+        @Override
+        void updateModel() {
+            if (folder != null) {
+                ArrayList<ItemInfo> removed = new ArrayList<ItemInfo>(folder.contents);
+                removed.add(folder);
+                folder.contents.clear();
+                owner.mBgDataModel.removeItem(owner.mContext, removed);
+            } else {
+                owner.mBgDataModel.removeItem(owner.mContext, items);
+            }
+        }
+    }
+
+    @Thunk void updateItemArrays(ItemInfo item, long itemId, StackTraceElement[] stackTrace) {
+        // Lock on mBgLock *after* the db operation
+        synchronized (mBgDataModel) {
+            checkItemInfoLocked(itemId, item, stackTrace);
+
+            if (item.container != Favorites.CONTAINER_DESKTOP &&
+                    item.container != Favorites.CONTAINER_HOTSEAT) {
+                // Item is in a folder, make sure this folder exists
+                if (!mBgDataModel.folders.containsKey(item.container)) {
+                    // An items container is being set to a that of an item which is not in
+                    // the list of Folders.
+                    String msg = "item: " + item + " container being set to: " +
+                            item.container + ", not in the list of folders";
                 }
+            }
 
-                // Items are added/removed from the corresponding FolderInfo elsewhere, such
-                // as in Workspace.onDrop. Here, we just add/remove them from the list of items
-                // that are on the desktop, as appropriate
-                ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
-                if (modelItem != null &&
-                        (modelItem.container == Favorites.CONTAINER_DESKTOP ||
-                                modelItem.container == Favorites.CONTAINER_HOTSEAT)) {
-                    switch (modelItem.itemType) {
-                        case Favorites.ITEM_TYPE_APPLICATION:
-                        case Favorites.ITEM_TYPE_SHORTCUT:
-                        case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
-                        case Favorites.ITEM_TYPE_FOLDER:
-                            if (!mBgDataModel.workspaceItems.contains(modelItem)) {
-                                mBgDataModel.workspaceItems.add(modelItem);
-                            }
-                            break;
-                        default:
-                            break;
-                    }
-                } else {
-                    mBgDataModel.workspaceItems.remove(modelItem);
+            // Items are added/removed from the corresponding FolderInfo elsewhere, such
+            // as in Workspace.onDrop. Here, we just add/remove them from the list of items
+            // that are on the desktop, as appropriate
+            ItemInfo modelItem = mBgDataModel.itemsIdMap.get(itemId);
+            if (modelItem != null &&
+                    (modelItem.container == Favorites.CONTAINER_DESKTOP ||
+                            modelItem.container == Favorites.CONTAINER_HOTSEAT)) {
+                switch (modelItem.itemType) {
+                    case Favorites.ITEM_TYPE_APPLICATION:
+                    case Favorites.ITEM_TYPE_SHORTCUT:
+                    case Favorites.ITEM_TYPE_DEEP_SHORTCUT:
+                    case Favorites.ITEM_TYPE_FOLDER:
+                        if (!mBgDataModel.workspaceItems.contains(modelItem)) {
+                            mBgDataModel.workspaceItems.add(modelItem);
+                        }
+                        break;
+                    default:
+                        break;
                 }
+            } else {
+                mBgDataModel.workspaceItems.remove(modelItem);
             }
+            mBgDataModel.publishSnapshot();
         }
     }
 }
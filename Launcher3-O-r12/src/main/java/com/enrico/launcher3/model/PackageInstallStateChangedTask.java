@@ -47,40 +47,39 @@ public class PackageInstallStateChangedTask extends ExtendedModelTask {
             return;
         }
 
-        synchronized (dataModel) {
-            final HashSet<ItemInfo> updates = new HashSet<>();
-            for (ItemInfo info : dataModel.itemsIdMap) {
-                if (info instanceof ShortcutInfo) {
-                    ShortcutInfo si = (ShortcutInfo) info;
-                    ComponentName cn = si.getTargetComponent();
-                    if (si.isPromise() && (cn != null)
-                            && mInstallInfo.packageName.equals(cn.getPackageName())) {
-                        si.setInstallProgress(mInstallInfo.progress);
+        BgDataModel.Snapshot snapshot = dataModel.getSnapshot();
+        final HashSet<ItemInfo> updates = new HashSet<>();
+        for (ItemInfo info : snapshot.items) {
+            if (info instanceof ShortcutInfo) {
+                ShortcutInfo si = (ShortcutInfo) info;
+                ComponentName cn = si.getTargetComponent();
+                if (si.isPromise() && (cn != null)
+                        && mInstallInfo.packageName.equals(cn.getPackageName())) {
+                    si.setInstallProgress(mInstallInfo.progress);
 
-                        if (mInstallInfo.state == PackageInstallerCompat.STATUS_FAILED) {
-                            // Mark this info as broken.
-                            si.status &= ~ShortcutInfo.FLAG_INSTALL_SESSION_ACTIVE;
-                        }
-                        updates.add(si);
+                    if (mInstallInfo.state == PackageInstallerCompat.STATUS_FAILED) {
+                        // Mark this info as broken.
+                        si.status &= ~ShortcutInfo.FLAG_INSTALL_SESSION_ACTIVE;
                     }
+                    updates.add(si);
                 }
             }
+        }
 
-            for (LauncherAppWidgetInfo widget : dataModel.appWidgets) {
-                if (widget.providerName.getPackageName().equals(mInstallInfo.packageName)) {
-                    widget.installProgress = mInstallInfo.progress;
-                    updates.add(widget);
-                }
+        for (LauncherAppWidgetInfo widget : snapshot.appWidgets) {
+            if (widget.providerName.getPackageName().equals(mInstallInfo.packageName)) {
+                widget.installProgress = mInstallInfo.progress;
+                updates.add(widget);
             }
+        }
 
-            if (!updates.isEmpty()) {
-                scheduleCallbackTask(new CallbackTask() {
-                    @Override
-                    public void execute(Callbacks callbacks) {
-                        callbacks.bindRestoreItemsChange(updates);
-                    }
-                });
-            }
+        if (!updates.isEmpty()) {
+            scheduleCallbackTask(new CallbackTask() {
+                @Override
+                public void execute(Callbacks callbacks) {
+                    callbacks.bindRestoreItemsChange(updates);
+                }
+            });
         }
     }
 }
@@ -58,7 +58,9 @@ public class ShortcutsChangedTask extends ExtendedModelTask {
         // Find ShortcutInfo's that have changed on the workspace.
         final ArrayList<ShortcutInfo> removedShortcutInfos = new ArrayList<>();
         MultiHashMap<String, ShortcutInfo> idsToWorkspaceShortcutInfos = new MultiHashMap<>();
-        for (ItemInfo itemInfo : dataModel.itemsIdMap) {
+        List<ItemInfo> packageItems =
+                dataModel.getSnapshot().getItemsForPackage(mPackageName, mUser);
+        for (ItemInfo itemInfo : packageItems) {
             if (itemInfo.itemType == LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT) {
                 ShortcutInfo si = (ShortcutInfo) itemInfo;
                 if (si.getIntent().getPackage().equals(mPackageName)
@@ -71,7 +71,7 @@ public class UserLockStateChangedTask extends ExtendedModelTask {
         // Update the workspace to reflect the changes to updated shortcuts residing on it.
         ArrayList<ShortcutInfo> updatedShortcutInfos = new ArrayList<>();
         ArrayList<ShortcutInfo> deletedShortcutInfos = new ArrayList<>();
-        for (ItemInfo itemInfo : dataModel.itemsIdMap) {
+        for (ItemInfo itemInfo : dataModel.getSnapshot().items) {
             if (itemInfo.itemType == LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT
                     && mUser.equals(itemInfo.user)) {
                 ShortcutInfo si = (ShortcutInfo) itemInfo;
@@ -54,9 +54,36 @@ public class WidgetsModel {
     /**
      * @param packageUser If null, all widgets and shortcuts are updated and returned, otherwise
      *                    only widgets and shortcuts associated with the package/user are.
+     * @return null if the widgets could not be queried, in which case the model is not updated.
      */
+    @Nullable
     public ArrayList<WidgetItem> update(Context context, @Nullable PackageUserKey packageUser) {
+        return update(context, packageUser, queryWidgetsAndShortcuts(context, packageUser));
+    }
 
+    /**
+     * Same as {@link #update(Context, PackageUserKey)}, with the widgets and shortcuts
+     * previously returned by {@link #queryWidgetsAndShortcuts(Context, PackageUserKey)}.
+     * @return null if the widgets could not be queried, in which case the model is not updated.
+     */
+    @Nullable
+    public ArrayList<WidgetItem> update(Context context, @Nullable PackageUserKey packageUser,
+            @Nullable ArrayList<WidgetItem> widgetsAndShortcuts) {
+        if (widgetsAndShortcuts == null) {
+            return null;
+        }
+        setWidgetsAndShortcuts(widgetsAndShortcuts, context, packageUser);
+        return widgetsAndShortcuts;
+    }
+
+    /**
+     * Queries the widgets and shortcuts of all packages, or of the given package/user. This does
+     * not access the model and can be called from any thread.
+     * @return null if the widgets could not be queried.
+     */
+    @Nullable
+    public static ArrayList<WidgetItem> queryWidgetsAndShortcuts(Context context,
+            @Nullable PackageUserKey packageUser) {
         final ArrayList<WidgetItem> widgetsAndShortcuts = new ArrayList<>();
         try {
             PackageManager pm = context.getPackageManager();
@@ -74,13 +101,13 @@ public class WidgetsModel {
                     .getCustomShortcutActivityList(packageUser)) {
                 widgetsAndShortcuts.add(new WidgetItem(info));
             }
-            setWidgetsAndShortcuts(widgetsAndShortcuts, context, packageUser);
         } catch (Exception e) {
             if (Utilities.isBinderSizeError(e)) {
                 // the returned value may be incomplete and will not be refreshed until the next
                 // time Launcher starts.
                 // TODO: after figuring out a repro step, introduce a dirty bit to check when
                 // onResume is called to refresh the widget provider list.
+                return null;
             } else {
                 throw e;
             }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enrico.launcher3.util;
+
+import android.content.Context;
+
+import com.enrico.launcher3.AppInfo;
+import com.enrico.launcher3.compat.AlphabeticIndexCompat;
+
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Computes the collation key and the all apps section of app titles once, when the title is
+ * loaded, so that sorting the apps does not go through the {@link Collator} on every comparison.
+ * The collator and the section indexer are rebuilt when the locale changes.
+ */
+public class AppTitleSortKeys {
+
+    private final Context mContext;
+
+    private Locale mLocale;
+    // Incremented every time the locale changes, the keys of the previous locales are stale
+    private int mLocaleGeneration;
+    private Collator mCollator;
+    private AlphabeticIndexCompat mIndexer;
+
+    public AppTitleSortKeys(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Computes the sort key and the section name of an app which is not bound yet. Apps which
+     * already have a key are in the sorted all apps list, their key is only updated by
+     * {@link #update} once they are out of the list.
+     */
+    public synchronized void initialize(AppInfo info) {
+        if (info.titleSortKey == null) {
+            update(info);
+        }
+    }
+
+    /**
+     * Updates the sort key and the section name of the app if its title or the locale has
+     * changed.
+     */
+    public synchronized void update(AppInfo info) {
+        updateLocaleLocked();
+        String title = info.title == null ? "" : info.title.toString();
+        if (info.titleSortKey != null && info.titleSortKeyLocale == mLocaleGeneration
+                && info.titleSortKey.getSourceString().equals(title)) {
+            return;
+        }
+        info.titleSortKey = mCollator.getCollationKey(title);
+        info.titleSortKeyLocale = mLocaleGeneration;
+        info.titleStartsWithLetter = title.length() > 0
+                && Character.isLetterOrDigit(title.codePointAt(0));
+        info.sectionName = mIndexer.computeSectionName(title);
+    }
+
+    private void updateLocaleLocked() {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mLocale = locale;
+            mLocaleGeneration++;
+            mCollator = Collator.getInstance(locale);
+            mIndexer = new AlphabeticIndexCompat(mContext);
+        }
+    }
+
+    /**
+     * Compares the titles of two apps the same way {@link LabelComparator} does, using the
+     * precomputed sort keys.
+     */
+    public static int compareTitles(AppInfo a, AppInfo b) {
+        // Ensure that we de-prioritize any titles that don't start with a
+        // linguistic letter or digit
+        if (a.titleStartsWithLetter && !b.titleStartsWithLetter) {
+            return -1;
+        } else if (!a.titleStartsWithLetter && b.titleStartsWithLetter) {
+            return 1;
+        }
+
+        // Order by the title in the current locale
+        return a.titleSortKey.compareTo(b.titleSortKey);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The queue of {@link com.enrico.launcher3.DeferredHandler}. It does not depend on the Android
+ * framework, so that it can be benchmarked on the JVM: the looper is abstracted by a
+ * {@link Scheduler}.
+ *
+ * This class is fifo. Posting does not block: the runnables are kept in a non-blocking queue,
+ * and a flag makes sure that only one runnable is scheduled at a time. The queue is only drained
+ * from the thread of the scheduler, by {@link #runNext()}.
+ */
+public class DeferredQueue {
+
+    /**
+     * Calls {@link #runNext()} later on the thread draining the queue.
+     */
+    public interface Scheduler {
+        /** Calls {@link #runNext()} as soon as possible. */
+        void schedule();
+
+        /** Calls {@link #runNext()} once the thread is idle. */
+        void scheduleIdle();
+    }
+
+    private static class IdleRunnable implements Runnable {
+        final Runnable mRunnable;
+
+        IdleRunnable(Runnable r) {
+            mRunnable = r;
+        }
+
+        public void run() {
+            mRunnable.run();
+        }
+    }
+
+    private final ConcurrentLinkedDeque<Runnable> mQueue = new ConcurrentLinkedDeque<>();
+    // Set while a runnable is scheduled or running
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final Scheduler mScheduler;
+
+    public DeferredQueue(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /** Schedule runnable to run after everything that's on the queue right now. */
+    public void post(Runnable runnable) {
+        mQueue.offerLast(runnable);
+        if (mScheduled.compareAndSet(false, true)) {
+            scheduleNext();
+        }
+    }
+
+    /** Schedule runnable to run before everything that's on the queue right now. */
+    public void postAtFrontOfQueue(Runnable runnable) {
+        mQueue.offerFirst(runnable);
+        if (mScheduled.compareAndSet(false, true)) {
+            scheduleNext();
+        }
+    }
+
+    /** Schedule runnable to run when the queue goes idle. */
+    public void postIdle(Runnable runnable) {
+        post(new IdleRunnable(runnable));
+    }
+
+    public void cancelAll() {
+        mQueue.clear();
+    }
+
+    /** Runs all queued Runnables from the calling thread. */
+    public void flush() {
+        // Runnables posted while flushing are left on the queue
+        ArrayList<Runnable> queue = new ArrayList<>();
+        Runnable r;
+        while ((r = mQueue.pollFirst()) != null) {
+            queue.add(r);
+        }
+        for (Runnable runnable : queue) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * Runs the runnable at the head of the queue and schedules the next one. Called by the
+     * {@link Scheduler}.
+     * @return false if the queue was empty.
+     */
+    public boolean runNext() {
+        Runnable r = mQueue.pollFirst();
+        if (r != null) {
+            r.run();
+        }
+        scheduleNext();
+        return r != null;
+    }
+
+    /**
+     * Schedules the runnable at the head of the queue, or clears the scheduled flag if the queue
+     * is empty. Must be called while the flag is set.
+     */
+    private void scheduleNext() {
+        while (true) {
+            Runnable peek = mQueue.peekFirst();
+            if (peek != null) {
+                if (peek instanceof IdleRunnable) {
+                    mScheduler.scheduleIdle();
+                } else {
+                    mScheduler.schedule();
+                }
+                return;
+            }
+            mScheduled.set(false);
+            // A runnable posted after the peek would have seen the flag still set
+            if (mQueue.isEmpty() || !mScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+}
@@ -1,23 +1,58 @@
 package com.enrico.launcher3.util;
 
-import android.graphics.Rect;
-
-import com.enrico.launcher3.ItemInfo;
+import java.util.Arrays;
 
 /**
- * Utility object to manage the occupancy in a grid.
+ * Utility object to manage the occupancy in a grid. It does not depend on the Android framework,
+ * so that it can be benchmarked on the JVM.
+ *
+ * Each row is stored as a bitmask. A summed-area table of the occupied cells lets searching for
+ * a vacant region check each candidate position in constant time. The table is updated
+ * incrementally when cells change between queries, which only touches the entries below and
+ * right of the change. When many cells change without a query in between, like while filling a
+ * new grid, the updates would cost more than a rebuild, so the table is rebuilt on the next
+ * query instead.
  */
 public class GridOccupancy {
 
     private final int mCountX;
     private final int mCountY;
+    private final int mWordsPerRow;
+
+    // The cell (x, y) is occupied when bit (x % 64) of word (y * mWordsPerRow + x / 64) is set
+    private final long[] mRows;
 
-    public final boolean[][] cells;
+    // mSums[y * (mCountX + 1) + x] is the number of occupied cells in the region [0, x) x [0, y)
+    private final int[] mSums;
+    private boolean mSumsValid;
+    // Number of table entries updated incrementally since the last query
+    private int mSumsUpdateCost;
+    // Change of the occupied cells of each column, used while updating the table
+    private final int[] mColumnDeltas;
+
+    // Incremented on every change of the grid
+    private int mVersion;
 
     public GridOccupancy(int countX, int countY) {
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mWordsPerRow = (countX + 63) >>> 6;
+        mRows = new long[mWordsPerRow * countY];
+        mSums = new int[(countX + 1) * (countY + 1)];
+        mSumsValid = true;
+        mColumnDeltas = new int[countX];
+    }
+
+    /**
+     * @return a number which changes whenever the grid is modified, letting callers cache
+     *         results computed from the grid.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y * mWordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
     }
 
     /**
@@ -30,17 +65,10 @@ public class GridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
+        updateSums();
         for (int y = 0; (y + spanY) <= mCountY; y++) {
             for (int x = 0; (x + spanX) <= mCountX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
+                if (countOccupied(x, y, spanX, spanY) == 0) {
                     vacantOut[0] = x;
                     vacantOut[1] = y;
                     return true;
@@ -51,9 +79,17 @@ public class GridOccupancy {
     }
 
     public void copyTo(GridOccupancy dest) {
+        dest.mVersion++;
+        if (dest.mCountX == mCountX && dest.mCountY == mCountY) {
+            System.arraycopy(mRows, 0, dest.mRows, 0, mRows.length);
+            System.arraycopy(mSums, 0, dest.mSums, 0, mSums.length);
+            dest.mSumsValid = mSumsValid;
+            dest.mSumsUpdateCost = mSumsUpdateCost;
+            return;
+        }
         for (int i = 0; i < mCountX; i++) {
             for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
+                dest.markCells(i, j, 1, 1, isOccupied(i, j));
             }
         }
     }
@@ -64,9 +100,36 @@ public class GridOccupancy {
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
+        if (mSumsValid) {
+            mSumsUpdateCost = 0;
+            return countOccupied(x, y, spanX, spanY) == 0;
+        }
+        // Checking the rows directly is cheaper than rebuilding the table for a single query
+        for (int j = y; j <= y2; j++) {
+            for (int i = x; i <= x2; i += 64) {
+                if (getRowBits(j, i, Math.min(64, x2 - i + 1)) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if none of the occupied cells of {@param block}, placed at (x, y), is occupied
+     *         in this grid. The block must fit in the grid at that position.
+     */
+    public boolean isRegionVacant(int x, int y, GridOccupancy block) {
+        if (mSumsValid) {
+            mSumsUpdateCost = 0;
+            if (countOccupied(x, y, block.mCountX, block.mCountY) == 0) {
+                return true;
+            }
+        }
+        for (int j = 0; j < block.mCountY; j++) {
+            for (int i = 0; i < block.mCountX; i += 64) {
+                int n = Math.min(64, block.mCountX - i);
+                if ((getRowBits(y + j, x + i, n) & block.getRowBits(j, i, n)) != 0) {
                     return false;
                 }
             }
@@ -76,26 +139,125 @@ public class GridOccupancy {
 
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
         if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        int x2 = Math.min(cellX + spanX, mCountX);
+        int y2 = Math.min(cellY + spanY, mCountY);
+        mVersion++;
+        if (x2 <= cellX || y2 <= cellY) {
+            return;
+        }
+
+        boolean updateSums = false;
+        if (mSumsValid) {
+            // Keeps the incremental updates between two queries cheaper than a rebuild
+            mSumsUpdateCost += (mCountX - cellX) * (mCountY - cellY);
+            updateSums = mSumsUpdateCost <= mCountX * mCountY;
+            mSumsValid = updateSums;
+        }
+        int delta = value ? 1 : -1;
+        int changedCells = 0;
+        if (updateSums) {
+            Arrays.fill(mColumnDeltas, cellX, x2, 0);
+        }
+
+        for (int y = cellY; y < y2; y++) {
+            if (updateSums) {
+                for (int x = cellX; x < x2; x++) {
+                    if (isOccupied(x, y) != value) {
+                        mColumnDeltas[x] += delta;
+                        changedCells++;
+                    }
+                }
+                if (changedCells > 0) {
+                    addColumnDeltas(y + 1, cellX, x2);
+                }
+            }
+            int rowStart = y * mWordsPerRow;
+            int x = cellX;
+            while (x < x2) {
+                int shift = x & 63;
+                int n = Math.min(64 - shift, x2 - x);
+                long mask = (n == 64 ? -1L : (1L << n) - 1) << shift;
+                if (value) {
+                    mRows[rowStart + (x >>> 6)] |= mask;
+                } else {
+                    mRows[rowStart + (x >>> 6)] &= ~mask;
+                }
+                x += n;
+            }
+        }
+        if (changedCells > 0) {
+            for (int y = y2; y < mCountY; y++) {
+                addColumnDeltas(y + 1, cellX, x2);
             }
         }
     }
 
-    public void markCells(Rect r, boolean value) {
-        markCells(r.left, r.top, r.width(), r.height(), value);
+    /**
+     * Adds the changes of {@link #mColumnDeltas} in the columns [x1, x2) to the row
+     * {@param sumsRow} of the summed-area table.
+     */
+    private void addColumnDeltas(int sumsRow, int x1, int x2) {
+        int index = sumsRow * (mCountX + 1) + x1 + 1;
+        int sum = 0;
+        for (int x = x1; x < x2; x++, index++) {
+            sum += mColumnDeltas[x];
+            mSums[index] += sum;
+        }
+        if (sum != 0) {
+            for (int x = x2; x < mCountX; x++, index++) {
+                mSums[index] += sum;
+            }
+        }
     }
 
     public void markCells(CellAndSpan cell, boolean value) {
         markCells(cell.cellX, cell.cellY, cell.spanX, cell.spanY, value);
     }
 
-    public void markCells(ItemInfo item, boolean value) {
-        markCells(item.cellX, item.cellY, item.spanX, item.spanY, value);
+    public void clear() {
+        Arrays.fill(mRows, 0);
+        Arrays.fill(mSums, 0);
+        mSumsValid = true;
+        mSumsUpdateCost = 0;
+        mVersion++;
     }
 
-    public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+    /**
+     * @return the occupancy of the cells [x, x + n) of the row y, n <= 64, cell x being bit 0.
+     */
+    private long getRowBits(int y, int x, int n) {
+        int index = y * mWordsPerRow + (x >>> 6);
+        int shift = x & 63;
+        long bits = mRows[index] >>> shift;
+        if (shift != 0 && shift + n > 64) {
+            bits |= mRows[index + 1] << (64 - shift);
+        }
+        return n == 64 ? bits : bits & ((1L << n) - 1);
+    }
+
+    private void updateSums() {
+        mSumsUpdateCost = 0;
+        if (mSumsValid) {
+            return;
+        }
+        int stride = mCountX + 1;
+        for (int y = 0; y < mCountY; y++) {
+            int rowSum = 0;
+            for (int x = 0; x < mCountX; x++) {
+                if (isOccupied(x, y)) {
+                    rowSum++;
+                }
+                mSums[(y + 1) * stride + x + 1] = mSums[y * stride + x + 1] + rowSum;
+            }
+        }
+        mSumsValid = true;
+    }
+
+    private int countOccupied(int x, int y, int spanX, int spanY) {
+        int stride = mCountX + 1;
+        int x2 = x + spanX;
+        int y2 = y + spanY;
+        return mSums[y2 * stride + x2] - mSums[y * stride + x2]
+                - mSums[y2 * stride + x] + mSums[y * stride + x];
     }
 }
@@ -66,6 +66,19 @@ public abstract class ItemInfoMatcher {
         return filtered;
     }
 
+    /**
+     * @return a matcher of the items matched by this matcher or by {@param matcher}.
+     */
+    public ItemInfoMatcher or(final ItemInfoMatcher matcher) {
+        final ItemInfoMatcher that = this;
+        return new ItemInfoMatcher() {
+            @Override
+            public boolean matches(ItemInfo info, ComponentName cn) {
+                return that.matches(info, cn) || matcher.matches(info, cn);
+            }
+        };
+    }
+
     public static ItemInfoMatcher ofUser(final UserHandle user) {
         return new ItemInfoMatcher() {
             @Override
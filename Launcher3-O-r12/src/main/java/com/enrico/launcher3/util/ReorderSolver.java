@@ -0,0 +1,1381 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enrico.launcher3.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Stack;
+
+/**
+ * Finds where an item dragged over a cell layout can be dropped, and how the items in the way
+ * are pushed or displaced to make room for it. The layout is accessed through a {@link Host}, so
+ * that the search does not depend on the Android framework and can be benchmarked on the JVM.
+ *
+ * @param <T> the type of the items of the layout
+ */
+public class ReorderSolver<T> {
+
+    /**
+     * The layout whose items are reordered.
+     */
+    public interface Host<T> {
+        int getItemCount();
+
+        T getItemAt(int index);
+
+        /**
+         * Copies the cell and span of the item into {@param out}.
+         */
+        void getCellAndSpan(T item, CellAndSpan out);
+
+        /**
+         * @return false if the item must not be moved, like the all apps button.
+         */
+        boolean canReorder(T item);
+
+        int getCellWidth();
+
+        int getCellHeight();
+
+        /**
+         * Given a cell coordinate and span return the point that represents the center of the
+         * region.
+         */
+        void regionToCenterPoint(int cellX, int cellY, int spanX, int spanY, int[] result);
+    }
+
+    private final Host<T> mHost;
+
+    private int mCountX;
+    private int mCountY;
+    private GridOccupancy mOccupied;
+    private GridOccupancy mTmpOccupied;
+
+    // These are temporary variables to prevent having to allocate a new object just to
+    // return an (x, y) value from helper functions. Do NOT use them to maintain other state.
+    private final int[] mTmpPoint = new int[2];
+    private final int[] mTempLocation = new int[2];
+
+    // Scratch state of the reorder search, which runs on every drag over event
+    private final ArrayList<T> mIntersectingItems = new ArrayList<T>();
+    private final Region mOccupiedRegion = new Region();
+    private final ItemCluster mItemCluster = new ItemCluster();
+    private GridOccupancy[] mBlockOccupancies;
+    private final Stack<Region> mTempRegionStack = new Stack<Region>();
+    private final Stack<Region> mValidRegions = new Stack<Region>();
+    private final Region mTempBestRegion = new Region();
+    private final Region mTempRegion = new Region();
+    private final Region mTempChildRegion = new Region();
+    private final Region mTempBlockRegion = new Region();
+    private final Region mTempDropRegion = new Region();
+    private final int[] mTmpReorderCell = new int[2];
+    private final int[] mTmpReorderSpan = new int[2];
+    private final CellAndSpan mTmpCellAndSpan = new CellAndSpan();
+    private final RearrangementCache<T> mRearrangementCache = new RearrangementCache<T>();
+
+    public ReorderSolver(Host<T> host) {
+        mHost = host;
+    }
+
+    /**
+     * Sets the grid of the layout.
+     * @param occupied the cells occupied by the items
+     * @param tmpOccupied the grid manipulated while looking for a solution
+     */
+    public void setGrid(int countX, int countY, GridOccupancy occupied,
+            GridOccupancy tmpOccupied) {
+        if (countX != mCountX || countY != mCountY) {
+            mTempRegionStack.clear();
+        }
+        mCountX = countX;
+        mCountY = countY;
+        mOccupied = occupied;
+        mTmpOccupied = tmpOccupied;
+        mRearrangementCache.clear();
+    }
+
+    /**
+     * Drops the rearrangements remembered during the previous drag.
+     */
+    public void clearRearrangementCache() {
+        mRearrangementCache.clear();
+    }
+
+    private void lazyInitTempRegionStack() {
+        if (mTempRegionStack.isEmpty()) {
+            for (int i = 0; i < mCountX * mCountY; i++) {
+                mTempRegionStack.push(new Region());
+            }
+        }
+    }
+
+    private void recycleTempRegions(Stack<Region> used) {
+        while (!used.isEmpty()) {
+            mTempRegionStack.push(used.pop());
+        }
+    }
+
+    /**
+     * Find a starting cell position that will fit the given bounds nearest the requested
+     * cell location. Uses Euclidean distance to score multiple vacant areas.
+     *
+     * @param pixelX The X location at which you want to search for a vacant area.
+     * @param pixelY The Y location at which you want to search for a vacant area.
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param result Previously returned value to possibly recycle.
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    public int[] findNearestArea(int pixelX, int pixelY, int spanX, int spanY, int[] result) {
+        return findNearestArea(pixelX, pixelY, spanX, spanY, spanX, spanY, false, result, null);
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location. Uses Euclidean distance to score multiple vacant areas.
+     *
+     * @param pixelX The X location at which you want to search for a vacant area.
+     * @param pixelY The Y location at which you want to search for a vacant area.
+     * @param minSpanX The minimum horizontal span required
+     * @param minSpanY The minimum vertical span required
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param ignoreOccupied If true, the result can be an occupied cell
+     * @param result Array in which to place the result, or null (in which case a new array will
+     *        be allocated)
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    public int[] findNearestArea(int pixelX, int pixelY, int minSpanX, int minSpanY, int spanX,
+            int spanY, boolean ignoreOccupied, int[] result, int[] resultSpan) {
+        lazyInitTempRegionStack();
+
+        // For items with a spanX / spanY > 1, the passed in point (pixelX, pixelY) corresponds
+        // to the center of the item, but we are searching based on the top-left cell, so
+        // we translate the point over to correspond to the top-left.
+        pixelX -= mHost.getCellWidth() * (spanX - 1) / 2f;
+        pixelY -= mHost.getCellHeight() * (spanY - 1) / 2f;
+
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result != null ? result : new int[2];
+        double bestDistance = Double.MAX_VALUE;
+        final Region bestRegion = mTempBestRegion;
+        bestRegion.set(-1, -1, -1, -1);
+        final Stack<Region> validRegions = mValidRegions;
+
+        final int countX = mCountX;
+        final int countY = mCountY;
+
+        if (minSpanX <= 0 || minSpanY <= 0 || spanX <= 0 || spanY <= 0 ||
+                spanX < minSpanX || spanY < minSpanY) {
+            return bestXY;
+        }
+
+        for (int y = 0; y < countY - (minSpanY - 1); y++) {
+            inner:
+            for (int x = 0; x < countX - (minSpanX - 1); x++) {
+                int ySize = -1;
+                int xSize = -1;
+                if (ignoreOccupied) {
+                    // First, let's see if this thing fits anywhere
+                    if (!mOccupied.isRegionVacant(x, y, minSpanX, minSpanY)) {
+                        continue inner;
+                    }
+                    xSize = minSpanX;
+                    ySize = minSpanY;
+
+                    // We know that the item will fit at _some_ acceptable size, now let's see
+                    // how big we can make it. We'll alternate between incrementing x and y spans
+                    // until we hit a limit.
+                    boolean incX = true;
+                    boolean hitMaxX = xSize >= spanX;
+                    boolean hitMaxY = ySize >= spanY;
+                    while (!(hitMaxX && hitMaxY)) {
+                        if (incX && !hitMaxX) {
+                            if (!mOccupied.isRegionVacant(x + xSize, y, 1, ySize)) {
+                                // We can't move out horizontally
+                                hitMaxX = true;
+                            }
+                            if (!hitMaxX) {
+                                xSize++;
+                            }
+                        } else if (!hitMaxY) {
+                            if (!mOccupied.isRegionVacant(x, y + ySize, xSize, 1)) {
+                                // We can't move out vertically
+                                hitMaxY = true;
+                            }
+                            if (!hitMaxY) {
+                                ySize++;
+                            }
+                        }
+                        hitMaxX |= xSize >= spanX;
+                        hitMaxY |= ySize >= spanY;
+                        incX = !incX;
+                    }
+                }
+                final int[] cellXY = mTmpPoint;
+                mHost.regionToCenterPoint(x, y, 1, 1, cellXY);
+
+                // We verify that the current region is not a sub-region of any of our previous
+                // candidates. In this case, the current region is disqualified in favour of the
+                // containing region.
+                Region currentRegion = mTempRegionStack.pop();
+                currentRegion.set(x, y, x + xSize, y + ySize);
+                boolean contained = false;
+                for (int i = validRegions.size() - 1; i >= 0; i--) {
+                    if (validRegions.get(i).contains(currentRegion)) {
+                        contained = true;
+                        break;
+                    }
+                }
+                validRegions.push(currentRegion);
+                double distance = Math.hypot(cellXY[0] - pixelX,  cellXY[1] - pixelY);
+
+                if ((distance <= bestDistance && !contained) ||
+                        currentRegion.contains(bestRegion)) {
+                    bestDistance = distance;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                    if (resultSpan != null) {
+                        resultSpan[0] = xSize;
+                        resultSpan[1] = ySize;
+                    }
+                    bestRegion.set(currentRegion);
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Double.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        recycleTempRegions(validRegions);
+        return bestXY;
+    }
+
+    /**
+     * Find a vacant area that will fit the given bounds nearest the requested
+     * cell location, and will also weigh in a suggested direction vector of the
+     * desired location. This method computers distance based on unit grid distances,
+     * not pixel distances.
+     *
+     * @param cellX The X cell nearest to which you want to search for a vacant area.
+     * @param cellY The Y cell nearest which you want to search for a vacant area.
+     * @param spanX Horizontal span of the object.
+     * @param spanY Vertical span of the object.
+     * @param direction The favored direction in which the items should move from x, y
+     * @param occupied The grid which represents which cells in the layout are occupied
+     * @param blockOccupied The grid which represents which cells in the specified block (cellX,
+     *        cellY, spanX, spanY) are occupied. This is used when try to move a group of items.
+     * @param result Array in which to place the result, or null (in which case a new array will
+     *        be allocated)
+     * @return The X, Y cell of a vacant area that can contain this object,
+     *         nearest the requested location.
+     */
+    private int[] findNearestArea(int cellX, int cellY, int spanX, int spanY, int[] direction,
+            GridOccupancy occupied, GridOccupancy blockOccupied, int[] result) {
+        // Keep track of best-scoring drop area
+        final int[] bestXY = result != null ? result : new int[2];
+        float bestDistance = Float.MAX_VALUE;
+        int bestDirectionScore = Integer.MIN_VALUE;
+
+        final int countX = mCountX;
+        final int countY = mCountY;
+
+        for (int y = 0; y < countY - (spanY - 1); y++) {
+            inner:
+            for (int x = 0; x < countX - (spanX - 1); x++) {
+                // First, let's see if this thing fits anywhere
+                if (blockOccupied == null ? !occupied.isRegionVacant(x, y, spanX, spanY)
+                        : !occupied.isRegionVacant(x, y, blockOccupied)) {
+                    continue inner;
+                }
+
+                float distance = (float) Math.hypot(x - cellX, y - cellY);
+                int[] curDirection = mTmpPoint;
+                computeDirectionVector(x - cellX, y - cellY, curDirection);
+                // The direction score is just the dot product of the two candidate direction
+                // and that passed in.
+                int curDirectionScore = direction[0] * curDirection[0] +
+                        direction[1] * curDirection[1];
+                if (Float.compare(distance,  bestDistance) < 0 ||
+                        (Float.compare(distance, bestDistance) == 0
+                                && curDirectionScore > bestDirectionScore)) {
+                    bestDistance = distance;
+                    bestDirectionScore = curDirectionScore;
+                    bestXY[0] = x;
+                    bestXY[1] = y;
+                }
+            }
+        }
+
+        // Return -1, -1 if no suitable location found
+        if (bestDistance == Float.MAX_VALUE) {
+            bestXY[0] = -1;
+            bestXY[1] = -1;
+        }
+        return bestXY;
+    }
+
+    private boolean addItemToTempLocation(T item, Region regionOccupiedByPotentialDrop,
+            int[] direction, ItemConfiguration<T> currentState) {
+        CellAndSpan c = currentState.map.get(item);
+        boolean success = false;
+        mTmpOccupied.markCells(c, false);
+        markCells(mTmpOccupied, regionOccupiedByPotentialDrop);
+
+        findNearestArea(c.cellX, c.cellY, c.spanX, c.spanY, direction,
+                mTmpOccupied, null, mTempLocation);
+
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            c.cellX = mTempLocation[0];
+            c.cellY = mTempLocation[1];
+            success = true;
+        }
+        mTmpOccupied.markCells(c, true);
+        return success;
+    }
+
+    private static void markCells(GridOccupancy occupied, Region region) {
+        occupied.markCells(region.left, region.top, region.width(), region.height(), true);
+    }
+
+    /**
+     * This helper class defines a cluster of items. It helps with defining complex edges
+     * of the cluster and determining how those edges interact with other items. The edges
+     * essentially define a fine-grained boundary around the cluster of items -- like a more
+     * precise version of a bounding box.
+     */
+    private class ItemCluster {
+        final static int LEFT = 1 << 0;
+        final static int TOP = 1 << 1;
+        final static int RIGHT = 1 << 2;
+        final static int BOTTOM = 1 << 3;
+
+        final ArrayList<T> items = new ArrayList<T>();
+        ItemConfiguration<T> config;
+        Region boundingRegion = new Region();
+
+        int[] leftEdge = new int[0];
+        int[] rightEdge = new int[0];
+        int[] topEdge = new int[0];
+        int[] bottomEdge = new int[0];
+        int dirtyEdges;
+        boolean boundingRegionDirty;
+
+        /**
+         * Resets the cluster to the given items, so that a single instance can be reused for
+         * every push attempt.
+         */
+        void init(ArrayList<T> items, ItemConfiguration<T> config) {
+            this.items.clear();
+            for (int i = 0; i < items.size(); i++) {
+                this.items.add(items.get(i));
+            }
+            this.config = config;
+            if (leftEdge.length != mCountY || topEdge.length != mCountX) {
+                leftEdge = new int[mCountY];
+                rightEdge = new int[mCountY];
+                topEdge = new int[mCountX];
+                bottomEdge = new int[mCountX];
+            }
+            resetEdges();
+        }
+
+        void resetEdges() {
+            for (int i = 0; i < mCountX; i++) {
+                topEdge[i] = -1;
+                bottomEdge[i] = -1;
+            }
+            for (int i = 0; i < mCountY; i++) {
+                leftEdge[i] = -1;
+                rightEdge[i] = -1;
+            }
+            dirtyEdges = LEFT | TOP | RIGHT | BOTTOM;
+            boundingRegionDirty = true;
+        }
+
+        void computeEdge(int which) {
+            int count = items.size();
+            for (int i = 0; i < count; i++) {
+                CellAndSpan cs = config.map.get(items.get(i));
+                switch (which) {
+                    case LEFT:
+                        int left = cs.cellX;
+                        for (int j = cs.cellY; j < cs.cellY + cs.spanY; j++) {
+                            if (left < leftEdge[j] || leftEdge[j] < 0) {
+                                leftEdge[j] = left;
+                            }
+                        }
+                        break;
+                    case RIGHT:
+                        int right = cs.cellX + cs.spanX;
+                        for (int j = cs.cellY; j < cs.cellY + cs.spanY; j++) {
+                            if (right > rightEdge[j]) {
+                                rightEdge[j] = right;
+                            }
+                        }
+                        break;
+                    case TOP:
+                        int top = cs.cellY;
+                        for (int j = cs.cellX; j < cs.cellX + cs.spanX; j++) {
+                            if (top < topEdge[j] || topEdge[j] < 0) {
+                                topEdge[j] = top;
+                            }
+                        }
+                        break;
+                    case BOTTOM:
+                        int bottom = cs.cellY + cs.spanY;
+                        for (int j = cs.cellX; j < cs.cellX + cs.spanX; j++) {
+                            if (bottom > bottomEdge[j]) {
+                                bottomEdge[j] = bottom;
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+
+        boolean isItemTouchingEdge(T item, int whichEdge) {
+            CellAndSpan cs = config.map.get(item);
+
+            if ((dirtyEdges & whichEdge) == whichEdge) {
+                computeEdge(whichEdge);
+                dirtyEdges &= ~whichEdge;
+            }
+
+            switch (whichEdge) {
+                case LEFT:
+                    for (int i = cs.cellY; i < cs.cellY + cs.spanY; i++) {
+                        if (leftEdge[i] == cs.cellX + cs.spanX) {
+                            return true;
+                        }
+                    }
+                    break;
+                case RIGHT:
+                    for (int i = cs.cellY; i < cs.cellY + cs.spanY; i++) {
+                        if (rightEdge[i] == cs.cellX) {
+                            return true;
+                        }
+                    }
+                    break;
+                case TOP:
+                    for (int i = cs.cellX; i < cs.cellX + cs.spanX; i++) {
+                        if (topEdge[i] == cs.cellY + cs.spanY) {
+                            return true;
+                        }
+                    }
+                    break;
+                case BOTTOM:
+                    for (int i = cs.cellX; i < cs.cellX + cs.spanX; i++) {
+                        if (bottomEdge[i] == cs.cellY) {
+                            return true;
+                        }
+                    }
+                    break;
+            }
+            return false;
+        }
+
+        void shift(int whichEdge, int delta) {
+            for (int i = 0; i < items.size(); i++) {
+                CellAndSpan c = config.map.get(items.get(i));
+                switch (whichEdge) {
+                    case LEFT:
+                        c.cellX -= delta;
+                        break;
+                    case RIGHT:
+                        c.cellX += delta;
+                        break;
+                    case TOP:
+                        c.cellY -= delta;
+                        break;
+                    case BOTTOM:
+                    default:
+                        c.cellY += delta;
+                        break;
+                }
+            }
+            resetEdges();
+        }
+
+        public void addItem(T item) {
+            items.add(item);
+            resetEdges();
+        }
+
+        public Region getBoundingRegion() {
+            if (boundingRegionDirty) {
+                config.getBoundingRegionForItems(items, boundingRegion);
+            }
+            return boundingRegion;
+        }
+
+        PositionComparator comparator = new PositionComparator();
+        class PositionComparator implements Comparator<T> {
+            int whichEdge = 0;
+            public int compare(T left, T right) {
+                CellAndSpan l = config.map.get(left);
+                CellAndSpan r = config.map.get(right);
+                switch (whichEdge) {
+                    case LEFT:
+                        return (r.cellX + r.spanX) - (l.cellX + l.spanX);
+                    case RIGHT:
+                        return l.cellX - r.cellX;
+                    case TOP:
+                        return (r.cellY + r.spanY) - (l.cellY + l.spanY);
+                    case BOTTOM:
+                    default:
+                        return l.cellY - r.cellY;
+                }
+            }
+        }
+
+        public void sortConfigurationForEdgePush(int edge) {
+            comparator.whichEdge = edge;
+            Collections.sort(config.sortedItems, comparator);
+        }
+    }
+
+    private boolean pushItemsToTempLocation(ArrayList<T> items,
+            Region regionOccupiedByPotentialDrop, int[] direction, T dragItem,
+            ItemConfiguration<T> currentState) {
+
+        ItemCluster cluster = mItemCluster;
+        cluster.init(items, currentState);
+        Region clusterRegion = cluster.getBoundingRegion();
+        int whichEdge;
+        int pushDistance;
+        boolean fail = false;
+
+        // Determine the edge of the cluster that will be leading the push and how far
+        // the cluster must be shifted.
+        if (direction[0] < 0) {
+            whichEdge = ItemCluster.LEFT;
+            pushDistance = clusterRegion.right - regionOccupiedByPotentialDrop.left;
+        } else if (direction[0] > 0) {
+            whichEdge = ItemCluster.RIGHT;
+            pushDistance = regionOccupiedByPotentialDrop.right - clusterRegion.left;
+        } else if (direction[1] < 0) {
+            whichEdge = ItemCluster.TOP;
+            pushDistance = clusterRegion.bottom - regionOccupiedByPotentialDrop.top;
+        } else {
+            whichEdge = ItemCluster.BOTTOM;
+            pushDistance = regionOccupiedByPotentialDrop.bottom - clusterRegion.top;
+        }
+
+        // Break early for invalid push distance.
+        if (pushDistance <= 0) {
+            return false;
+        }
+
+        // Mark the occupied state as false for the group of items we want to move.
+        for (int i = 0; i < items.size(); i++) {
+            CellAndSpan c = currentState.map.get(items.get(i));
+            mTmpOccupied.markCells(c, false);
+        }
+
+        // We save the current configuration -- if we fail to find a solution we will revert
+        // to the initial state. The process of finding a solution modifies the configuration
+        // in place, hence the need for revert in the failure case.
+        currentState.save();
+
+        // The pushing algorithm is simplified by considering the items in the order in which
+        // they would be pushed by the cluster. For example, if the cluster is leading with its
+        // left edge, we consider sort the items by their right edge, from right to left.
+        cluster.sortConfigurationForEdgePush(whichEdge);
+
+        while (pushDistance > 0 && !fail) {
+            for (int i = 0; i < currentState.sortedItems.size(); i++) {
+                T item = currentState.sortedItems.get(i);
+                // For each item that isn't in the cluster, we see if the leading edge of the
+                // cluster is contacting the edge of that item. If so, we add that item to the
+                // cluster.
+                if (!cluster.items.contains(item) && item != dragItem) {
+                    if (cluster.isItemTouchingEdge(item, whichEdge)) {
+                        if (!mHost.canReorder(item)) {
+                            // The push solution includes the all apps button, this is not viable.
+                            fail = true;
+                            break;
+                        }
+                        cluster.addItem(item);
+                        CellAndSpan c = currentState.map.get(item);
+
+                        // Adding item to cluster, mark it as not occupied.
+                        mTmpOccupied.markCells(c, false);
+                    }
+                }
+            }
+            pushDistance--;
+
+            // The cluster has been completed, now we move the whole thing over in the appropriate
+            // direction.
+            cluster.shift(whichEdge, 1);
+        }
+
+        boolean foundSolution = false;
+        clusterRegion = cluster.getBoundingRegion();
+
+        // Due to the nature of the algorithm, the only check required to verify a valid solution
+        // is to ensure that completed shifted cluster lies completely within the layout.
+        if (!fail && clusterRegion.left >= 0 && clusterRegion.right <= mCountX
+                && clusterRegion.top >= 0 && clusterRegion.bottom <= mCountY) {
+            foundSolution = true;
+        } else {
+            currentState.restore();
+        }
+
+        // In either case, we set the occupied array as marked for the location of the items
+        for (int i = 0; i < cluster.items.size(); i++) {
+            CellAndSpan c = currentState.map.get(cluster.items.get(i));
+            mTmpOccupied.markCells(c, true);
+        }
+
+        return foundSolution;
+    }
+
+    private boolean addItemsToTempLocation(ArrayList<T> items,
+            Region regionOccupiedByPotentialDrop, int[] direction,
+            ItemConfiguration<T> currentState) {
+        if (items.size() == 0) return true;
+
+        boolean success = false;
+        Region boundingRegion = mTempBlockRegion;
+        // We construct a region which represents the entire group of items passed in
+        currentState.getBoundingRegionForItems(items, boundingRegion);
+
+        // Mark the occupied state as false for the group of items we want to move.
+        for (int i = 0; i < items.size(); i++) {
+            CellAndSpan c = currentState.map.get(items.get(i));
+            mTmpOccupied.markCells(c, false);
+        }
+
+        GridOccupancy blockOccupied =
+                getBlockOccupancy(boundingRegion.width(), boundingRegion.height());
+        int top = boundingRegion.top;
+        int left = boundingRegion.left;
+        // We mark more precisely which parts of the bounding region are truly occupied, allowing
+        // for interlocking.
+        for (int i = 0; i < items.size(); i++) {
+            CellAndSpan c = currentState.map.get(items.get(i));
+            blockOccupied.markCells(c.cellX - left, c.cellY - top, c.spanX, c.spanY, true);
+        }
+
+        markCells(mTmpOccupied, regionOccupiedByPotentialDrop);
+
+        findNearestArea(boundingRegion.left, boundingRegion.top, boundingRegion.width(),
+                boundingRegion.height(), direction,
+                mTmpOccupied, blockOccupied, mTempLocation);
+
+        // If we successfuly found a location by pushing the block of items, we commit it
+        if (mTempLocation[0] >= 0 && mTempLocation[1] >= 0) {
+            int deltaX = mTempLocation[0] - boundingRegion.left;
+            int deltaY = mTempLocation[1] - boundingRegion.top;
+            for (int i = 0; i < items.size(); i++) {
+                CellAndSpan c = currentState.map.get(items.get(i));
+                c.cellX += deltaX;
+                c.cellY += deltaY;
+            }
+            success = true;
+        }
+
+        // In either case, we set the occupied array as marked for the location of the items
+        for (int i = 0; i < items.size(); i++) {
+            CellAndSpan c = currentState.map.get(items.get(i));
+            mTmpOccupied.markCells(c, true);
+        }
+        return success;
+    }
+
+    /**
+     * @return a cleared occupancy grid of the given size, reused across the reorder searches.
+     */
+    private GridOccupancy getBlockOccupancy(int countX, int countY) {
+        int index = (countY - 1) * mCountX + countX - 1;
+        if (mBlockOccupancies == null || mBlockOccupancies.length != mCountX * mCountY) {
+            mBlockOccupancies = new GridOccupancy[mCountX * mCountY];
+        }
+        GridOccupancy occupancy = mBlockOccupancies[index];
+        if (occupancy == null) {
+            occupancy = new GridOccupancy(countX, countY);
+            mBlockOccupancies[index] = occupancy;
+        } else {
+            occupancy.clear();
+        }
+        return occupancy;
+    }
+
+    // This method tries to find a reordering solution which satisfies the push mechanic by trying
+    // to push items in each of the cardinal directions, in an order based on the direction vector
+    // passed.
+    private boolean attemptPushInDirection(ArrayList<T> intersectingItems, Region occupied,
+            int[] direction, T ignoreItem, ItemConfiguration<T> solution) {
+        if ((Math.abs(direction[0]) + Math.abs(direction[1])) > 1) {
+            // If the direction vector has two non-zero components, we try pushing
+            // separately in each of the components.
+            int temp = direction[1];
+            direction[1] = 0;
+
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // Revert the direction
+            direction[0] = temp;
+
+            // Now we try pushing in each component of the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            temp = direction[1];
+            direction[1] = 0;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+
+            direction[1] = temp;
+            temp = direction[0];
+            direction[0] = 0;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // revert the direction
+            direction[0] = temp;
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+        } else {
+            // If the direction vector has a single non-zero component, we push first in the
+            // direction of the vector
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // If we have failed to find a push solution with the above, then we try
+            // to find a solution by pushing along the perpendicular axis.
+
+            // Swap the components
+            int temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+
+            // Then we try the opposite direction
+            direction[0] *= -1;
+            direction[1] *= -1;
+            if (pushItemsToTempLocation(intersectingItems, occupied, direction,
+                    ignoreItem, solution)) {
+                return true;
+            }
+            // Switch the direction back
+            direction[0] *= -1;
+            direction[1] *= -1;
+
+            // Swap the components back
+            temp = direction[1];
+            direction[1] = direction[0];
+            direction[0] = temp;
+        }
+        return false;
+    }
+
+    private boolean rearrangementExists(int cellX, int cellY, int spanX, int spanY,
+            int[] direction, T ignoreItem, ItemConfiguration<T> solution) {
+        // Return early if get invalid cell positions
+        if (cellX < 0 || cellY < 0) return false;
+
+        // Hovering over a cell solves the same rearrangement on every drag over event, reuse the
+        // outcome as long as the layout has not changed.
+        mRearrangementCache.validate(mOccupied, mHost.getItemCount());
+        Rearrangement<T> cached = mRearrangementCache.find(cellX, cellY, spanX, spanY, direction,
+                ignoreItem);
+        if (cached != null && cached.applyTo(solution, direction)) {
+            return cached.exists;
+        }
+
+        // Copy the current occupied array into the temporary occupied array. This array will be
+        // manipulated as necessary to find a solution.
+        mOccupied.copyTo(mTmpOccupied);
+        Rearrangement<T> entry = mRearrangementCache.add(cellX, cellY, spanX, spanY, direction,
+                ignoreItem);
+        entry.record(solution, direction, computeRearrangement(cellX, cellY, spanX, spanY,
+                direction, ignoreItem, solution));
+        return entry.exists;
+    }
+
+    private boolean computeRearrangement(int cellX, int cellY, int spanX, int spanY,
+            int[] direction, T ignoreItem, ItemConfiguration<T> solution) {
+        mIntersectingItems.clear();
+        mOccupiedRegion.set(cellX, cellY, cellX + spanX, cellY + spanY);
+
+        // Mark the desired location of the item currently being dragged.
+        if (ignoreItem != null) {
+            CellAndSpan c = solution.map.get(ignoreItem);
+            if (c != null) {
+                c.cellX = cellX;
+                c.cellY = cellY;
+            }
+        }
+        Region r0 = mTempRegion;
+        r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        Region r1 = mTempChildRegion;
+        for (int i = 0; i < solution.sortedItems.size(); i++) {
+            T child = solution.sortedItems.get(i);
+            if (child == ignoreItem) continue;
+            CellAndSpan c = solution.map.get(child);
+            r1.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
+            if (Region.intersects(r0, r1)) {
+                if (!mHost.canReorder(child)) {
+                    return false;
+                }
+                mIntersectingItems.add(child);
+            }
+        }
+
+        solution.setIntersectingItems(mIntersectingItems);
+
+        // First we try to find a solution which respects the push mechanic. That is,
+        // we try to find a solution such that no displaced item travels through another item
+        // without also displacing that item.
+        if (attemptPushInDirection(mIntersectingItems, mOccupiedRegion, direction, ignoreItem,
+                solution)) {
+            return true;
+        }
+
+        // Next we try moving the items as a block, but without requiring the push mechanic.
+        if (addItemsToTempLocation(mIntersectingItems, mOccupiedRegion, direction, solution)) {
+            return true;
+        }
+
+        // Ok, they couldn't move as a block, let's move them individually
+        for (int i = 0; i < mIntersectingItems.size(); i++) {
+            if (!addItemToTempLocation(mIntersectingItems.get(i), mOccupiedRegion, direction,
+                    solution)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns a pair (x, y), where x,y are in {-1, 0, 1} corresponding to vector between
+     * the provided point and the provided cell
+     */
+    private static void computeDirectionVector(float deltaX, float deltaY, int[] result) {
+        double angle = Math.atan(deltaY / deltaX);
+
+        result[0] = 0;
+        result[1] = 0;
+        if (Math.abs(Math.cos(angle)) > 0.5f) {
+            result[0] = (int) Math.signum(deltaX);
+        }
+        if (Math.abs(Math.sin(angle)) > 0.5f) {
+            result[1] = (int) Math.signum(deltaY);
+        }
+    }
+
+    /**
+     * Finds a placement of the dragged item, pushing or displacing the items in its way. The
+     * item is shrunk down to its minimum span when it does not fit.
+     *
+     * @param direction the direction in which the items should preferably move, updated as the
+     *        pushes are attempted
+     * @param dragItem the item being dragged, if it is part of the layout
+     * @param solution the configuration to fill, reused across calls
+     */
+    public ItemConfiguration<T> findReorderSolution(int pixelX, int pixelY, int minSpanX,
+            int minSpanY, int spanX, int spanY, int[] direction, T dragItem, boolean decX,
+            ItemConfiguration<T> solution) {
+        // Copy the current state into the solution. This solution will be manipulated as necessary.
+        copyCurrentStateToSolution(solution);
+
+        // We find the nearest cell into which we would place the dragged item, assuming there's
+        // nothing in its way.
+        int[] result = findNearestArea(pixelX, pixelY, spanX, spanY, mTmpReorderCell);
+
+        boolean success = false;
+        // First we try the exact nearest position of the item being dragged,
+        // we will then want to try to move this around to other neighbouring positions
+        success = rearrangementExists(result[0], result[1], spanX, spanY, direction, dragItem,
+                solution);
+
+        if (!success) {
+            // We try shrinking the widget down to size in an alternating pattern, shrink 1 in
+            // x, then 1 in y etc.
+            if (spanX > minSpanX && (minSpanY == spanY || decX)) {
+                return findReorderSolution(pixelX, pixelY, minSpanX, minSpanY, spanX - 1, spanY,
+                        direction, dragItem, false, solution);
+            } else if (spanY > minSpanY) {
+                return findReorderSolution(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY - 1,
+                        direction, dragItem, true, solution);
+            }
+            solution.isSolution = false;
+        } else {
+            solution.isSolution = true;
+            solution.cellX = result[0];
+            solution.cellY = result[1];
+            solution.spanX = spanX;
+            solution.spanY = spanY;
+        }
+        return solution;
+    }
+
+    private void copyCurrentStateToSolution(ItemConfiguration<T> solution) {
+        int itemCount = mHost.getItemCount();
+        if (solution.map.size() > itemCount) {
+            // Some items were removed since the solution was last used
+            solution.clear();
+        }
+        solution.intersectingItems = null;
+        boolean reused = true;
+        CellAndSpan cs = mTmpCellAndSpan;
+        for (int i = 0; i < itemCount; i++) {
+            T item = mHost.getItemAt(i);
+            mHost.getCellAndSpan(item, cs);
+            reused &= solution.set(item, cs.cellX, cs.cellY, cs.spanX, cs.spanY);
+        }
+        if (!reused && solution.map.size() > itemCount) {
+            // Items were both added and removed, drop the stale entries
+            solution.clear();
+            copyCurrentStateToSolution(solution);
+        }
+    }
+
+    /**
+     * Finds a placement of the dragged item in the vacant cells, without moving other items.
+     */
+    public ItemConfiguration<T> findConfigurationNoShuffle(int pixelX, int pixelY, int minSpanX,
+            int minSpanY, int spanX, int spanY, ItemConfiguration<T> solution) {
+        int[] result = mTmpReorderCell;
+        int[] resultSpan = mTmpReorderSpan;
+        findNearestArea(pixelX, pixelY, minSpanX, minSpanY, spanX, spanY, true, result,
+                resultSpan);
+        if (result[0] >= 0 && result[1] >= 0) {
+            copyCurrentStateToSolution(solution);
+            solution.cellX = result[0];
+            solution.cellY = result[1];
+            solution.spanX = resultSpan[0];
+            solution.spanY = resultSpan[1];
+            solution.isSolution = true;
+        } else {
+            solution.isSolution = false;
+        }
+        return solution;
+    }
+
+    /* This seems like it should be obvious and straight-forward, but when the direction vector
+    needs to match with the notion of the dragView pushing other views, we have to employ
+    a slightly more subtle notion of the direction vector. The question is what two points is
+    the vector between? The center of the dragView and its desired destination? Not quite, as
+    this doesn't necessarily coincide with the interaction of the dragView and items occupying
+    those cells. Instead we use some heuristics to often lock the vector to up, down, left
+    or right, which helps make pushing feel right.
+    */
+    public void getDirectionVectorForDrop(int dragViewCenterX, int dragViewCenterY, int spanX,
+            int spanY, T dragItem, int[] resultDirection) {
+        int[] targetDestination = mTmpReorderCell;
+
+        findNearestArea(dragViewCenterX, dragViewCenterY, spanX, spanY, targetDestination);
+
+        Region dropRegion = mTempDropRegion;
+        getItemsIntersectingRegion(targetDestination[0], targetDestination[1], spanX, spanY,
+                dragItem, dropRegion, mIntersectingItems);
+
+        int dropRegionSpanX = dropRegion.width();
+        int dropRegionSpanY = dropRegion.height();
+
+        int[] dropRegionCenter = mTmpPoint;
+        mHost.regionToCenterPoint(dropRegion.left, dropRegion.top, dropRegionSpanX,
+                dropRegionSpanY, dropRegionCenter);
+
+        int deltaX = (dropRegionCenter[0] - dragViewCenterX) / spanX;
+        int deltaY = (dropRegionCenter[1] - dragViewCenterY) / spanY;
+
+        if (dropRegionSpanX == mCountX || spanX == mCountX) {
+            deltaX = 0;
+        }
+        if (dropRegionSpanY == mCountY || spanY == mCountY) {
+            deltaY = 0;
+        }
+
+        if (deltaX == 0 && deltaY == 0) {
+            // No idea what to do, give a random direction.
+            resultDirection[0] = 1;
+            resultDirection[1] = 0;
+        } else {
+            computeDirectionVector(deltaX, deltaY, resultDirection);
+        }
+    }
+
+    // For a given cell and span, fetch the set of items intersecting the region.
+    private void getItemsIntersectingRegion(int cellX, int cellY, int spanX, int spanY,
+            T dragItem, Region boundingRegion, ArrayList<T> intersectingItems) {
+        if (boundingRegion != null) {
+            boundingRegion.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        }
+        intersectingItems.clear();
+        Region r0 = mTempRegion;
+        r0.set(cellX, cellY, cellX + spanX, cellY + spanY);
+        Region r1 = mTempChildRegion;
+        CellAndSpan cs = mTmpCellAndSpan;
+        final int count = mHost.getItemCount();
+        for (int i = 0; i < count; i++) {
+            T child = mHost.getItemAt(i);
+            if (child == dragItem) continue;
+            mHost.getCellAndSpan(child, cs);
+            r1.set(cs.cellX, cs.cellY, cs.cellX + cs.spanX, cs.cellY + cs.spanY);
+            if (Region.intersects(r0, r1)) {
+                intersectingItems.add(child);
+                if (boundingRegion != null) {
+                    boundingRegion.union(r1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the nearest cell at which the dragged item can be placed is occupied by
+     *         other items.
+     */
+    public boolean isNearestDropLocationOccupied(int pixelX, int pixelY, int spanX, int spanY,
+            T dragItem, int[] result) {
+        result = findNearestArea(pixelX, pixelY, spanX, spanY, result);
+        getItemsIntersectingRegion(result[0], result[1], spanX, spanY, dragItem, null,
+                mIntersectingItems);
+        return !mIntersectingItems.isEmpty();
+    }
+
+    /**
+     * A candidate placement of the items of the layout. Instances are reused across the drag
+     * events of a drag: the entries of the items are kept and updated in place, and are only
+     * rebuilt when the items of the layout change.
+     */
+    public static class ItemConfiguration<T> extends CellAndSpan {
+        public final HashMap<T, CellAndSpan> map = new HashMap<T, CellAndSpan>();
+        private final HashMap<T, CellAndSpan> savedMap = new HashMap<T, CellAndSpan>();
+        final ArrayList<T> sortedItems = new ArrayList<T>();
+        public ArrayList<T> intersectingItems;
+        private final ArrayList<T> mIntersectingItemsCopy = new ArrayList<T>();
+        public boolean isSolution = false;
+
+        void save() {
+            // Copy current state into savedMap
+            for (int i = sortedItems.size() - 1; i >= 0; i--) {
+                T item = sortedItems.get(i);
+                savedMap.get(item).copyFrom(map.get(item));
+            }
+        }
+
+        void restore() {
+            // Restore current state from savedMap
+            for (int i = sortedItems.size() - 1; i >= 0; i--) {
+                T item = sortedItems.get(i);
+                map.get(item).copyFrom(savedMap.get(item));
+            }
+        }
+
+        /**
+         * Sets the position of the item, adding it to the configuration if needed.
+         * @return false if the item was not part of the configuration.
+         */
+        boolean set(T item, int cellX, int cellY, int spanX, int spanY) {
+            CellAndSpan cs = map.get(item);
+            boolean existing = cs != null;
+            if (!existing) {
+                cs = new CellAndSpan();
+                map.put(item, cs);
+                savedMap.put(item, new CellAndSpan());
+                sortedItems.add(item);
+            }
+            cs.cellX = cellX;
+            cs.cellY = cellY;
+            cs.spanX = spanX;
+            cs.spanY = spanY;
+            return existing;
+        }
+
+        void clear() {
+            map.clear();
+            savedMap.clear();
+            sortedItems.clear();
+            intersectingItems = null;
+            isSolution = false;
+        }
+
+        void setIntersectingItems(ArrayList<T> items) {
+            mIntersectingItemsCopy.clear();
+            for (int i = 0; i < items.size(); i++) {
+                mIntersectingItemsCopy.add(items.get(i));
+            }
+            intersectingItems = mIntersectingItemsCopy;
+        }
+
+        public int area() {
+            return spanX * spanY;
+        }
+
+        void getBoundingRegionForItems(ArrayList<T> items, Region out) {
+            boolean first = true;
+            for (int i = 0; i < items.size(); i++) {
+                CellAndSpan c = map.get(items.get(i));
+                if (first) {
+                    out.set(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
+                    first = false;
+                } else {
+                    out.union(c.cellX, c.cellY, c.cellX + c.spanX, c.cellY + c.spanY);
+                }
+            }
+        }
+    }
+
+    /**
+     * A rectangle of cells, from (left, top) included to (right, bottom) excluded. Follows the
+     * semantics of android.graphics.Rect, which the search used before.
+     */
+    private static final class Region {
+        int left, top, right, bottom;
+
+        void set(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        void set(Region src) {
+            set(src.left, src.top, src.right, src.bottom);
+        }
+
+        int width() {
+            return right - left;
+        }
+
+        int height() {
+            return bottom - top;
+        }
+
+        boolean isEmpty() {
+            return left >= right || top >= bottom;
+        }
+
+        /**
+         * @return true if {@param r} is inside this non-empty region.
+         */
+        boolean contains(Region r) {
+            return !isEmpty() && left <= r.left && top <= r.top
+                    && right >= r.right && bottom >= r.bottom;
+        }
+
+        void union(int left, int top, int right, int bottom) {
+            if (left < right && top < bottom) {
+                if (isEmpty()) {
+                    set(left, top, right, bottom);
+                } else {
+                    this.left = Math.min(this.left, left);
+                    this.top = Math.min(this.top, top);
+                    this.right = Math.max(this.right, right);
+                    this.bottom = Math.max(this.bottom, bottom);
+                }
+            }
+        }
+
+        void union(Region r) {
+            union(r.left, r.top, r.right, r.bottom);
+        }
+
+        static boolean intersects(Region a, Region b) {
+            return a.left < b.right && b.left < a.right && a.top < b.bottom && b.top < a.bottom;
+        }
+    }
+
+    /**
+     * The outcome of {@link #rearrangementExists} for a target region: the resulting position of
+     * every item, and the direction vector as left by the push attempts.
+     */
+    private static class Rearrangement<T> {
+        int cellX, cellY, spanX, spanY, directionX, directionY;
+        T ignoreItem;
+        boolean valid;
+        boolean exists;
+
+        private int mResultDirectionX, mResultDirectionY;
+        private final ArrayList<T> mItems = new ArrayList<T>();
+        private int[] mCells = new int[0];
+        private final ArrayList<T> mIntersectingItems = new ArrayList<T>();
+        private boolean mHasIntersectingItems;
+
+        boolean matches(int cellX, int cellY, int spanX, int spanY, int[] direction,
+                T ignoreItem) {
+            return valid && this.cellX == cellX && this.cellY == cellY && this.spanX == spanX
+                    && this.spanY == spanY && directionX == direction[0]
+                    && directionY == direction[1] && this.ignoreItem == ignoreItem;
+        }
+
+        void record(ItemConfiguration<T> solution, int[] direction, boolean exists) {
+            this.exists = exists;
+            mResultDirectionX = direction[0];
+            mResultDirectionY = direction[1];
+            mItems.clear();
+            mIntersectingItems.clear();
+            mHasIntersectingItems = false;
+            if (!exists) {
+                return;
+            }
+            int count = solution.sortedItems.size();
+            if (mCells.length < count * 2) {
+                mCells = new int[count * 2];
+            }
+            for (int i = 0; i < count; i++) {
+                T item = solution.sortedItems.get(i);
+                CellAndSpan c = solution.map.get(item);
+                mItems.add(item);
+                mCells[i * 2] = c.cellX;
+                mCells[i * 2 + 1] = c.cellY;
+            }
+            if (solution.intersectingItems != null) {
+                mHasIntersectingItems = true;
+                for (int i = 0; i < solution.intersectingItems.size(); i++) {
+                    mIntersectingItems.add(solution.intersectingItems.get(i));
+                }
+            }
+        }
+
+        /**
+         * Moves the items of the solution to their recorded positions.
+         * @return false if the solution does not contain all the recorded items.
+         */
+        boolean applyTo(ItemConfiguration<T> solution, int[] direction) {
+            int count = mItems.size();
+            for (int i = 0; i < count; i++) {
+                if (!solution.map.containsKey(mItems.get(i))) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                CellAndSpan c = solution.map.get(mItems.get(i));
+                c.cellX = mCells[i * 2];
+                c.cellY = mCells[i * 2 + 1];
+            }
+            if (mHasIntersectingItems) {
+                solution.setIntersectingItems(mIntersectingItems);
+            }
+            direction[0] = mResultDirectionX;
+            direction[1] = mResultDirectionY;
+            return true;
+        }
+
+        void clear() {
+            valid = false;
+            ignoreItem = null;
+            mItems.clear();
+            mIntersectingItems.clear();
+        }
+    }
+
+    /**
+     * Remembers the last few rearrangements computed during a drag. The entries describe the
+     * layout at a given version of its occupancy grid, and are dropped as soon as it changes.
+     */
+    private static class RearrangementCache<T> {
+        private static final int SIZE = 16;
+
+        private final ArrayList<Rearrangement<T>> mEntries =
+                new ArrayList<Rearrangement<T>>(SIZE);
+        private int mNextEntry;
+        private GridOccupancy mOccupied;
+        private int mOccupiedVersion;
+        private int mItemCount;
+
+        void validate(GridOccupancy occupied, int itemCount) {
+            if (occupied != mOccupied || occupied.getVersion() != mOccupiedVersion
+                    || itemCount != mItemCount) {
+                clear();
+                mOccupied = occupied;
+                mOccupiedVersion = occupied.getVersion();
+                mItemCount = itemCount;
+            }
+        }
+
+        Rearrangement<T> find(int cellX, int cellY, int spanX, int spanY, int[] direction,
+                T ignoreItem) {
+            for (int i = 0; i < mEntries.size(); i++) {
+                Rearrangement<T> entry = mEntries.get(i);
+                if (entry.matches(cellX, cellY, spanX, spanY, direction, ignoreItem)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        Rearrangement<T> add(int cellX, int cellY, int spanX, int spanY, int[] direction,
+                T ignoreItem) {
+            Rearrangement<T> entry = find(cellX, cellY, spanX, spanY, direction, ignoreItem);
+            if (entry == null) {
+                if (mNextEntry == mEntries.size()) {
+                    entry = new Rearrangement<T>();
+                    mEntries.add(entry);
+                } else {
+                    entry = mEntries.get(mNextEntry);
+                }
+                mNextEntry = (mNextEntry + 1) % SIZE;
+            }
+            entry.cellX = cellX;
+            entry.cellY = cellY;
+            entry.spanX = spanX;
+            entry.spanY = spanY;
+            entry.directionX = direction[0];
+            entry.directionY = direction[1];
+            entry.ignoreItem = ignoreItem;
+            entry.valid = true;
+            return entry;
+        }
+
+        void clear() {
+            for (int i = 0; i < mEntries.size(); i++) {
+                mEntries.get(i).clear();
+            }
+            mOccupied = null;
+        }
+    }
+}
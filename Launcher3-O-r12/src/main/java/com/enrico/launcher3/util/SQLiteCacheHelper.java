@@ -7,22 +7,50 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
 
+import com.enrico.launcher3.LauncherModel;
 import com.enrico.launcher3.Utilities;
 
+import java.util.ArrayList;
+
 /**
  * An extension of {@link SQLiteOpenHelper} with utility methods for a single table cache DB.
  * Any exception during write operations are ignored, and any version change causes a DB reset.
+ *
+ * Rows can also be written in batches, using {@link #insertOrReplaceInBatch(ContentValues)} and
+ * {@link #commitBatch()}, so that many rows only cost a single transaction. Pending rows are
+ * committed before any other write, but reads never commit: callers which need to see their own
+ * pending rows should check {@link #getPendingRow(String[], String[])} before querying.
  */
 public abstract class SQLiteCacheHelper {
 
     private static final boolean NO_ICON_CACHE = Utilities.isPropertyEnabled(LogConfig.MEMORY_ONLY_ICON_CACHE);
 
+    // Maximum number of rows and time after which a batch is committed
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final long MAX_BATCH_DELAY_MS = 500;
+
     private final String mTableName;
     private final MySQLiteOpenHelper mOpenHelper;
 
     private boolean mIgnoreWrites;
 
+    // Rows waiting to be committed, guarded by itself
+    private final ArrayList<ContentValues> mBatch = new ArrayList<>();
+    // Rows being committed, never modified once set. Guarded by mBatch
+    private ArrayList<ContentValues> mInFlight = new ArrayList<>();
+    // Held while writing a batch, so that batches are written in order
+    private final Object mCommitLock = new Object();
+
+    private final Handler mWorkerHandler = new Handler(LauncherModel.getWorkerLooper());
+    private final Runnable mCommitBatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitBatch();
+        }
+    };
+
     public SQLiteCacheHelper(Context context, String name, int version, String tableName) {
         if (NO_ICON_CACHE) {
             name = null;
@@ -40,6 +68,7 @@ public abstract class SQLiteCacheHelper {
         if (mIgnoreWrites) {
             return;
         }
+        commitBatch();
         try {
             mOpenHelper.getWritableDatabase().delete(mTableName, whereClause, whereArgs);
         } catch (SQLiteFullException e) {
@@ -56,6 +85,7 @@ public abstract class SQLiteCacheHelper {
         if (mIgnoreWrites) {
             return;
         }
+        commitBatch();
         try {
             mOpenHelper.getWritableDatabase().insertWithOnConflict(
                     mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
@@ -66,20 +96,143 @@ public abstract class SQLiteCacheHelper {
         }
     }
 
+    /**
+     * Queues the row to be written with the next batch. The batch is committed once it holds
+     * {@link #MAX_BATCH_SIZE} rows, on the calling thread, and on the worker thread once it has
+     * been open for {@link #MAX_BATCH_DELAY_MS}, unless the caller commits it earlier.
+     */
+    public void insertOrReplaceInBatch(ContentValues values) {
+        if (mIgnoreWrites) {
+            return;
+        }
+        boolean batchFull;
+        synchronized (mBatch) {
+            if (mBatch.isEmpty()) {
+                mWorkerHandler.postDelayed(mCommitBatchRunnable, MAX_BATCH_DELAY_MS);
+            }
+            mBatch.add(values);
+            batchFull = mBatch.size() >= MAX_BATCH_SIZE;
+        }
+        if (batchFull) {
+            commitBatch();
+        }
+    }
+
+    /**
+     * Returns the most recent row waiting in the batch or being committed whose
+     * {@param keyColumns} match {@param keyValues}, or null if there is none.
+     */
+    public ContentValues getPendingRow(String[] keyColumns, String[] keyValues) {
+        synchronized (mBatch) {
+            ContentValues values = findRow(mBatch, keyColumns, keyValues);
+            return values != null ? values : findRow(mInFlight, keyColumns, keyValues);
+        }
+    }
+
+    private static ContentValues findRow(ArrayList<ContentValues> rows, String[] keyColumns,
+            String[] keyValues) {
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            ContentValues values = rows.get(i);
+            boolean matches = true;
+            for (int j = 0; j < keyColumns.length && matches; j++) {
+                matches = keyValues[j].equals(values.getAsString(keyColumns[j]));
+            }
+            if (matches) {
+                return values;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes all the queued rows in a single transaction. The batch is only locked while it is
+     * taken, so rows can be queued and looked up while it is written.
+     */
+    public void commitBatch() {
+        synchronized (mCommitLock) {
+            ArrayList<ContentValues> rows;
+            synchronized (mBatch) {
+                mWorkerHandler.removeCallbacks(mCommitBatchRunnable);
+                if (mBatch.isEmpty()) {
+                    return;
+                }
+                if (mIgnoreWrites) {
+                    mBatch.clear();
+                    return;
+                }
+                rows = new ArrayList<>(mBatch);
+                mBatch.clear();
+                mInFlight = rows;
+            }
+
+            try {
+                SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    for (ContentValues values : rows) {
+                        db.insertWithOnConflict(
+                                mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            } catch (SQLiteFullException e) {
+                onDiskFull(e);
+            } catch (SQLiteException e) {
+                e.printStackTrace();
+                // The transaction was rolled back, write the rows one by one so that a single
+                // bad row does not lose the whole batch.
+                commitOneByOne(rows);
+            } finally {
+                synchronized (mBatch) {
+                    mInFlight = new ArrayList<>();
+                }
+            }
+        }
+    }
+
+    private void commitOneByOne(ArrayList<ContentValues> rows) {
+        for (ContentValues values : rows) {
+            try {
+                mOpenHelper.getWritableDatabase().insertWithOnConflict(
+                        mTableName, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            } catch (SQLiteFullException e) {
+                onDiskFull(e);
+                return;
+            } catch (SQLiteException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     private void onDiskFull(SQLiteFullException e) {
         mIgnoreWrites = true;
     }
 
     /**
+     * Rows still waiting in the batch are not returned.
      * @see SQLiteDatabase#query(String, String[], String, String[], String, String, String)
      */
     public Cursor query(String[] columns, String selection, String[] selectionArgs) {
-        return mOpenHelper.getReadableDatabase().query(
-                mTableName, columns, selection, selectionArgs, null, null, null);
+        TraceHelper.beginSystraceSection("SQLiteCacheHelper.query");
+        try {
+            return mOpenHelper.getReadableDatabase().query(
+                    mTableName, columns, selection, selectionArgs, null, null, null);
+        } finally {
+            TraceHelper.endSection("SQLiteCacheHelper.query");
+        }
     }
 
     public void clear() {
-        mOpenHelper.clearDB(mOpenHelper.getWritableDatabase());
+        // Wait for the batch being committed, so that its rows are not written after the clear
+        synchronized (mCommitLock) {
+            synchronized (mBatch) {
+                mWorkerHandler.removeCallbacks(mCommitBatchRunnable);
+                mBatch.clear();
+            }
+            mOpenHelper.clearDB(mOpenHelper.getWritableDatabase());
+        }
     }
 
     protected abstract void onCreateTable(SQLiteDatabase db);
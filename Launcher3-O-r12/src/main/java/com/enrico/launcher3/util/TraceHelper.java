@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enrico.launcher3.util;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+
+/**
+ * Records the duration of the loader and bind phases into a ring buffer which is printed by the
+ * model dump, and emits them as {@link Trace} sections for systrace. Sections begun with
+ * {@link #beginSystraceSection(String)}, which run once per query or per item, only go to systrace
+ * so that they do not push the phases out of the buffer.
+ *
+ * Sections are nested per thread. Ending a section also ends the sections begun after it on the
+ * same thread, so that an outer section ended in a finally block cleans up after an exception.
+ */
+public class TraceHelper {
+
+    private static final String TAG = "TraceHelper";
+
+    // Enough for the phases of the last few loads
+    private static final int BUFFER_SIZE = 64;
+
+    private static final ThreadLocal<ArrayDeque<Section>> sOpenSections =
+            new ThreadLocal<ArrayDeque<Section>>() {
+                @Override
+                protected ArrayDeque<Section> initialValue() {
+                    return new ArrayDeque<>();
+                }
+            };
+
+    // The last completed phases, guarded by itself
+    private static final Section[] sCompleted = new Section[BUFFER_SIZE];
+    private static int sNextCompleted;
+    private static long sTotalCompleted;
+
+    private static class Section {
+        final String name;
+        final String threadName;
+        final boolean recorded;
+        final long startTimeNanos;
+        long durationNanos;
+
+        Section(String name, String threadName, boolean recorded, long startTimeNanos) {
+            this.name = name;
+            this.threadName = threadName;
+            this.recorded = recorded;
+            this.startTimeNanos = startTimeNanos;
+        }
+    }
+
+    /**
+     * Begins a phase, which is recorded for the dump once ended.
+     */
+    public static void beginSection(String name) {
+        beginSection(name, true);
+    }
+
+    /**
+     * Begins a section which is only emitted to systrace.
+     */
+    public static void beginSystraceSection(String name) {
+        beginSection(name, false);
+    }
+
+    private static void beginSection(String name, boolean recorded) {
+        Trace.beginSection(name);
+        sOpenSections.get().push(new Section(name, Thread.currentThread().getName(), recorded,
+                SystemClock.elapsedRealtimeNanos()));
+    }
+
+    /**
+     * Ends the section with the given name and the sections begun after it on this thread. If
+     * no such section is open, the last section begun on this thread is ended instead so that
+     * the systrace sections stay balanced.
+     */
+    public static void endSection(String name) {
+        ArrayDeque<Section> openSections = sOpenSections.get();
+        if (openSections.isEmpty()) {
+            Log.w(TAG, "No open section to end for " + name);
+            return;
+        }
+        boolean found = false;
+        for (Section section : openSections) {
+            if (section.name.equals(name)) {
+                found = true;
+                break;
+            }
+        }
+        if (!found) {
+            Log.w(TAG, "Section " + name + " is not open, ending " + openSections.peek().name);
+        }
+
+        long now = SystemClock.elapsedRealtimeNanos();
+        Section section;
+        do {
+            section = openSections.pop();
+            Trace.endSection();
+            if (section.recorded) {
+                section.durationNanos = now - section.startTimeNanos;
+                synchronized (sCompleted) {
+                    sCompleted[sNextCompleted] = section;
+                    sNextCompleted = (sNextCompleted + 1) % BUFFER_SIZE;
+                    sTotalCompleted++;
+                }
+            }
+        } while (found && !section.name.equals(name));
+    }
+
+    /**
+     * Prints the last completed phases, oldest first. Times are in microseconds, the start time
+     * since boot.
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        synchronized (sCompleted) {
+            writer.println(prefix + "Traced sections: total=" + sTotalCompleted);
+            for (int i = 0; i < BUFFER_SIZE; i++) {
+                Section section = sCompleted[(sNextCompleted + i) % BUFFER_SIZE];
+                if (section != null) {
+                    writer.println(prefix + "  " + section.name + " [" + section.threadName
+                            + "] start=" + section.startTimeNanos / 1000 + "us duration="
+                            + section.durationNanos / 1000 + "us");
+                }
+            }
+        }
+    }
+}